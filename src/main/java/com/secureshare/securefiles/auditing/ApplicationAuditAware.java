@@ -1,6 +1,6 @@
 package com.secureshare.securefiles.auditing;
 
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import org.springframework.data.domain.AuditorAware;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
@@ -20,7 +20,9 @@ public class ApplicationAuditAware implements AuditorAware<Integer> {
             return Optional.empty();
         }
 
-        User userPrincipal = (User) authentication.getPrincipal();
-        return Optional.ofNullable(userPrincipal.getId());
+        if (!(authentication.getPrincipal() instanceof AuthenticatedUser userPrincipal)) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(userPrincipal.id());
     }
 }
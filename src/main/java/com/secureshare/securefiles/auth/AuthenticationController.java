@@ -6,7 +6,9 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.UserAccount;
+import com.secureshare.securefiles.user.UserPrincipalCache;
 import com.secureshare.securefiles.dto.UserResponse;
 
 import java.io.IOException;
@@ -17,6 +19,7 @@ import java.io.IOException;
 public class AuthenticationController {
 
   private final AuthenticationService service;
+  private final UserPrincipalCache userCache;
 
   @PostMapping("/register")
   public ResponseEntity<AuthenticationResponse> register(
@@ -38,16 +41,18 @@ public class AuthenticationController {
   }
 
   @GetMapping("/me")
-  public ResponseEntity<UserResponse> getCurrentUser(@AuthenticationPrincipal User user) {
-    if (user == null) {
+  public ResponseEntity<UserResponse> getCurrentUser(@AuthenticationPrincipal AuthenticatedUser principal) {
+    if (principal == null) {
       return ResponseEntity.status(401).build();
     }
+    // The principal has no names
+    UserAccount user = userCache.get(principal.email());
 
     UserResponse response = new UserResponse(
-            user.getFirstname(),
-            user.getLastname(),
-            user.getEmail(),
-            user.getRole().name()
+            user.firstname(),
+            user.lastname(),
+            user.email(),
+            user.role().name()
     );
 
     return ResponseEntity.ok(response);
@@ -3,6 +3,7 @@ package com.secureshare.securefiles.auth;
 import com.secureshare.securefiles.config.JwtService;
 import com.secureshare.securefiles.token.Token;
 import com.secureshare.securefiles.token.TokenRepository;
+import com.secureshare.securefiles.token.TokenRevocationIndex;
 import com.secureshare.securefiles.token.TokenType;
 import com.secureshare.securefiles.user.Role;
 import com.secureshare.securefiles.user.User;
@@ -11,6 +12,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -21,6 +23,7 @@ import org.springframework.security.web.authentication.WebAuthenticationDetailsS
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.time.Instant;
 
 @Service
 @RequiredArgsConstructor
@@ -30,6 +33,11 @@ public class AuthenticationService {
   private final PasswordEncoder passwordEncoder;
   private final JwtService jwtService;
   private final AuthenticationManager authenticationManager;
+  private final TokenRevocationIndex revocationIndex;
+
+  // Stateless: no token rows; revoking a user's tokens only moves their token epoch on
+  @Value("${application.security.jwt.stateless:false}")
+  private boolean stateless;
 
   public AuthenticationResponse register(RegisterRequest request) {
     var user = User.builder()
@@ -40,9 +48,12 @@ public class AuthenticationService {
         .role(request.getRole() != null ? request.getRole() : Role.USER) 
         .build();
     var savedUser = repository.save(user);
-    var jwtToken = jwtService.generateToken(user);
-    var refreshToken = jwtService.generateRefreshToken(user);
-    saveUserToken(savedUser, jwtToken);
+    var epoch = revocationIndex.epoch(savedUser.getEmail());
+    var jwtToken = jwtService.generateToken(savedUser, epoch);
+    var refreshToken = jwtService.generateRefreshToken(savedUser, epoch);
+    if (!stateless) {
+      saveUserToken(savedUser, jwtToken);
+    }
     return AuthenticationResponse.builder()
         .accessToken(jwtToken)
         .refreshToken(refreshToken)
@@ -56,10 +67,15 @@ public class AuthenticationService {
             request.getPassword()));
     var user = repository.findByEmail(request.getEmail())
         .orElseThrow();
-    var jwtToken = jwtService.generateToken(user);
-    var refreshToken = jwtService.generateRefreshToken(user);
-    revokeAllUserTokens(user);
-    saveUserToken(user, jwtToken);
+    // Ends the user's other sessions; the new tokens carry the new epoch
+    Instant epoch = stateless
+        ? revocationIndex.revokeAll(user.getEmail())
+        : revokeAllUserTokens(user);
+    var jwtToken = jwtService.generateToken(user, epoch);
+    var refreshToken = jwtService.generateRefreshToken(user, epoch);
+    if (!stateless) {
+      saveUserToken(user, jwtToken);
+    }
     return AuthenticationResponse.builder()
         .accessToken(jwtToken)
         .refreshToken(refreshToken)
@@ -67,9 +83,13 @@ public class AuthenticationService {
   }
 
   private void saveUserToken(User user, String jwtToken) {
+    // Also leaves the new token's claims cached for its first request
+    var claims = jwtService.verify(jwtToken);
     var token = Token.builder()
         .user(user)
         .token(jwtToken)
+        .tokenId(claims.map(JwtService.VerifiedClaims::id).orElse(null))
+        .expiresAt(claims.map(JwtService.VerifiedClaims::expiresAt).orElse(null))
         .tokenType(TokenType.BEARER)
         .expired(false)
         .revoked(false)
@@ -77,15 +97,11 @@ public class AuthenticationService {
     tokenRepository.save(token);
   }
 
-  private void revokeAllUserTokens(User user) {
-    var validUserTokens = tokenRepository.findAllValidTokenByUser(user.getId());
-    if (validUserTokens.isEmpty())
-      return;
-    validUserTokens.forEach(token -> {
-      token.setExpired(true);
-      token.setRevoked(true);
-    });
-    tokenRepository.saveAll(validUserTokens);
+  // One epoch entry covers every token issued so far; the rows are marked revoked in a single UPDATE
+  private Instant revokeAllUserTokens(User user) {
+    Instant epoch = revocationIndex.revokeAll(user.getEmail());
+    tokenRepository.revokeAllByUser(user.getId());
+    return epoch;
   }
 
   public void refreshToken(
@@ -98,18 +114,31 @@ public class AuthenticationService {
       return;
     }
     refreshToken = authHeader.substring(7);
-    userEmail = jwtService.extractUsername(refreshToken);
+    var claims = jwtService.verify(refreshToken)
+        .filter(JwtService.VerifiedClaims::refresh)
+        .filter(verified -> !revocationIndex.isRevoked(verified));
+    userEmail = claims.map(JwtService.VerifiedClaims::subject).orElse(null);
     if (userEmail != null) {
       var user = this.repository.findByEmail(userEmail)
           .orElseThrow();
-      if (jwtService.isTokenValid(refreshToken, user)) {
-        var accessToken = jwtService.generateToken(user);
-        revokeAllUserTokens(user);
-        saveUserToken(user, accessToken);
-        var authResponse = AuthenticationResponse.builder()
-            .accessToken(accessToken)
-            .refreshToken(refreshToken)
-            .build();
+      if (jwtService.isTokenValid(claims.get(), user)) {
+        AuthenticationResponse authResponse;
+        if (stateless) {
+          var epoch = claims.get().epoch() != null ? claims.get().epoch() : revocationIndex.epoch(userEmail);
+          authResponse = AuthenticationResponse.builder()
+              .accessToken(jwtService.generateToken(user, epoch))
+              .refreshToken(refreshToken)
+              .build();
+        } else {
+          // The new epoch covers the presented refresh token too, so a fresh one is handed out
+          var epoch = revokeAllUserTokens(user);
+          var accessToken = jwtService.generateToken(user, epoch);
+          saveUserToken(user, accessToken);
+          authResponse = AuthenticationResponse.builder()
+              .accessToken(accessToken)
+              .refreshToken(jwtService.generateRefreshToken(user, epoch))
+              .build();
+        }
         new ObjectMapper().writeValue(response.getOutputStream(), authResponse);
       }
     }
@@ -0,0 +1,29 @@
+package com.secureshare.securefiles.auth;
+
+import com.secureshare.securefiles.config.JwtService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Publishes the public key access tokens are signed with, so services that only verify tokens
+ * need neither the private key nor the database.
+ */
+@RestController
+@RequiredArgsConstructor
+public class JwksController {
+
+  private final JwtService jwtService;
+
+  @GetMapping("/.well-known/jwks.json")
+  public ResponseEntity<Map<String, Object>> jwks() {
+    return ResponseEntity.ok()
+        .cacheControl(CacheControl.maxAge(Duration.ofHours(1)).cachePublic())
+        .body(jwtService.jwks());
+  }
+}
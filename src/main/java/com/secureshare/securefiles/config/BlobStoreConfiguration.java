@@ -0,0 +1,65 @@
+package com.secureshare.securefiles.config;
+
+import com.secureshare.securefiles.storage.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Selects the blob storage backend with {@code app.storage.backend}: {@code local} (default),
+ * {@code memory} or {@code s3}. Whichever is chosen is wrapped with metrics.
+ */
+@Configuration
+public class BlobStoreConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "app.storage.backend", havingValue = "local", matchIfMissing = true)
+    public BlobStore localBlobStore(@Value("${app.storage.local.root:uploads}") Path root,
+                                    MeterRegistry registry) throws IOException {
+        return new InstrumentedBlobStore(new LocalFileBlobStore(root), "local", registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.storage.backend", havingValue = "memory")
+    public BlobStore inMemoryBlobStore(MeterRegistry registry) {
+        return new InstrumentedBlobStore(new InMemoryBlobStore(), "memory", registry);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.storage.backend", havingValue = "s3")
+    public S3Client s3Client(@Value("${app.storage.s3.endpoint:}") String endpoint,
+                             @Value("${app.storage.s3.region:us-east-1}") String region,
+                             @Value("${app.storage.s3.access-key:}") String accessKey,
+                             @Value("${app.storage.s3.secret-key:}") String secretKey) {
+        var builder = S3Client.builder().region(Region.of(region));
+        if (!endpoint.isBlank()) {
+            // MinIO and most other stand-ins only support path-style addressing
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        if (!accessKey.isBlank()) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)));
+        }
+        return builder.build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.storage.backend", havingValue = "s3")
+    public BlobStore s3BlobStore(S3Client s3Client,
+                                 @Value("${app.storage.s3.bucket:secureshare}") String bucket,
+                                 @Value("${app.storage.s3.part-size:8388608}") int partSize,
+                                 MeterRegistry registry) throws IOException {
+        S3BlobStore store = new S3BlobStore(s3Client, bucket, partSize);
+        store.createBucketIfMissing();
+        return new InstrumentedBlobStore(store, "s3", registry);
+    }
+}
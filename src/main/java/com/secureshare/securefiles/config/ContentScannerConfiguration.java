@@ -0,0 +1,31 @@
+package com.secureshare.securefiles.config;
+
+import com.secureshare.securefiles.scan.ClamdScanner;
+import com.secureshare.securefiles.scan.ContentScanner;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Malware scanning of uploads, off unless {@code app.scan.enabled} is set, in which case files
+ * are held back until scanned. Scans go to a clamd daemon over TCP.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.scan.enabled", havingValue = "true")
+public class ContentScannerConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public ContentScanner clamdScanner(@Value("${app.scan.clamd.host:localhost}") String host,
+                                       @Value("${app.scan.clamd.port:3310}") int port,
+                                       @Value("${app.scan.clamd.timeout:PT1M}") Duration timeout,
+                                       @Value("${app.scan.clamd.idle-timeout:PT20S}") Duration idleTimeout,
+                                       @Value("${app.scan.clamd.max-connections:4}") int maxConnections,
+                                       // Keep at or below clamd's StreamMaxLength
+                                       @Value("${app.scan.clamd.max-stream-size:25MB}") DataSize maxStreamSize) {
+        return new ClamdScanner(host, port, timeout, idleTimeout, maxConnections, maxStreamSize.toBytes());
+    }
+}
@@ -1,6 +1,8 @@
 package com.secureshare.securefiles.config;
 
-import com.secureshare.securefiles.token.TokenRepository;
+import com.secureshare.securefiles.token.TokenRevocationIndex;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.UserPrincipalCache;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,6 +11,7 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.beans.Transient;
 import java.io.IOException;
 import java.security.Security;
+import java.util.Optional;
 
 import jakarta.transaction.TransactionScoped;
 import jakarta.transaction.Transactional;
@@ -16,8 +19,6 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -27,8 +28,8 @@ import org.springframework.web.filter.OncePerRequestFilter;
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
   private final JwtService jwtService;
-  private final UserDetailsService userDetailsService;
-  private final TokenRepository tokenRepository;
+  private final UserPrincipalCache userCache;
+  private final TokenRevocationIndex revocationIndex;
 
   @Override
   protected void doFilterInternal(
@@ -45,28 +46,34 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
       }
     final String authHeader = request.getHeader("Authorization");
     final String jwt;
-    final String userEmail;
     if (authHeader == null || !authHeader.startsWith("Bearer ")) {
       filterChain.doFilter(request, response);
       return;
     }
     jwt = authHeader.substring(7);
-    userEmail = jwtService.extractUsername(jwt);
-    if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-      UserDetails userDetails = this.userDetailsService.loadUserByUsername(userEmail);
-      var isTokenValid = tokenRepository.findByToken(jwt)
-          .map(t -> !t.isExpired() && !t.isRevoked())
-          .orElse(false);
-      if (jwtService.isTokenValid(jwt, userDetails) && isTokenValid) {
-        UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-            userDetails,
-            null,
-            userDetails.getAuthorities());
-        authToken.setDetails(
-            new WebAuthenticationDetailsSource().buildDetails(request));
-        SecurityContextHolder.getContext().setAuthentication(authToken);
-      }
+    // Verified once; the claims are reused rather than parsing the token again
+    Optional<JwtService.VerifiedClaims> claims = jwtService.verify(jwt);
+    // Revocations are checked in memory; refresh tokens only work at the refresh endpoint
+    if (claims.isPresent() && claims.get().subject() != null && !claims.get().refresh()
+        && !revocationIndex.isRevoked(claims.get())
+        && SecurityContextHolder.getContext().getAuthentication() == null) {
+      AuthenticatedUser principal = principal(claims.get());
+      UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+          principal,
+          null,
+          principal.role().getAuthorities());
+      authToken.setDetails(
+          new WebAuthenticationDetailsSource().buildDetails(request));
+      SecurityContextHolder.getContext().setAuthentication(authToken);
     }
     filterChain.doFilter(request, response);
   }
+
+  // Built from the claims alone; only tokens issued before they carried the id and role need the user
+  private AuthenticatedUser principal(JwtService.VerifiedClaims claims) {
+    if (claims.userId() != null && claims.role() != null) {
+      return new AuthenticatedUser(claims.userId(), claims.subject(), claims.role());
+    }
+    return AuthenticatedUser.of(userCache.get(claims.subject()));
+  }
 }
@@ -1,15 +1,42 @@
 package com.secureshare.securefiles.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.secureshare.securefiles.user.Role;
+import com.secureshare.securefiles.user.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.Optional;
+import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -18,75 +45,248 @@ import org.springframework.stereotype.Service;
 @Service
 public class JwtService {
 
-  @Value("${application.security.jwt.secret-key}")
+  private static final String TOKEN_USE = "token_use";
+  private static final String REFRESH = "refresh";
+  private static final String USER_ID = "uid";
+  private static final String ROLE = "role";
+  private static final String EPOCH = "ep";
+
+  /**
+   * The claims of a token whose signature and expiry have been checked.
+   *
+   * @param id      the token's {@code jti}, by which it can be revoked
+   * @param refresh whether this is a refresh token, which only buys new access tokens
+   * @param userId  the user's id, or null for tokens issued before it was included
+   * @param role    the user's role when the token was issued, or null as for {@code userId}
+   * @param epoch   the user's token epoch when the token was issued, or null if it carries none
+   */
+  public record VerifiedClaims(String id, String subject, boolean refresh, Instant issuedAt, Instant expiresAt,
+                               Integer userId, Role role, Instant epoch) {
+
+    public boolean isExpired() {
+      return expiresAt != null && !expiresAt.isAfter(Instant.now());
+    }
+  }
+
+  // HS256 signs and verifies with the shared secret key; RS256 with an RSA key pair
+  @Value("${application.security.jwt.algorithm:HS256}")
+  private SignatureAlgorithm algorithm = SignatureAlgorithm.HS256;
+  @Value("${application.security.jwt.secret-key:}")
   private String secretKey;
+  // Base64 DER or PEM. Nodes configured without the private key only verify tokens
+  @Value("${application.security.jwt.rsa.private-key:}")
+  private String rsaPrivateKey = "";
+  @Value("${application.security.jwt.rsa.public-key:}")
+  private String rsaPublicKey = "";
   @Value("${application.security.jwt.expiration}")
   private long jwtExpiration;
   @Value("${application.security.jwt.refresh-token.expiration}")
   private long refreshExpiration;
+  // Verified tokens, by SHA-256 of the token so the cache holds no usable credentials
+  @Value("${application.security.jwt.claims-cache.max-entries:10000}")
+  private long claimsCacheSize = 10000;
 
-  public String extractUsername(String token) {
-    return extractClaim(token, Claims::getSubject);
+  // Null on verify-only nodes
+  private Key signingKey;
+  private String keyId;
+  private Map<String, Object> publicJwk;
+  private JwtParser parser;
+  private Cache<String, VerifiedClaims> verifiedClaims;
+
+  /**
+   * Decodes the keys and builds the parser once; both are immutable and thread-safe. Cached
+   * claims expire with their token.
+   */
+  @PostConstruct
+  public void init() {
+    switch (algorithm) {
+      case HS256 -> {
+        signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secretKey));
+        parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+      }
+      case RS256 -> {
+        try {
+          KeyFactory rsa = KeyFactory.getInstance("RSA");
+          RSAPublicKey publicKey = (RSAPublicKey) rsa.generatePublic(new X509EncodedKeySpec(decodeKey(rsaPublicKey)));
+          signingKey = rsaPrivateKey.isBlank()
+              ? null : rsa.generatePrivate(new PKCS8EncodedKeySpec(decodeKey(rsaPrivateKey)));
+          publicJwk = jwk(publicKey);
+          keyId = (String) publicJwk.get("kid");
+          parser = Jwts.parserBuilder().setSigningKey(publicKey).build();
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+          throw new IllegalStateException("Invalid RSA key for JWT signing", e);
+        }
+      }
+      default -> throw new IllegalStateException("Unsupported JWT algorithm " + algorithm + ", use HS256 or RS256");
+    }
+    verifiedClaims = Caffeine.newBuilder()
+        .maximumSize(claimsCacheSize)
+        .expireAfter(Expiry.creating((String digest, VerifiedClaims claims) -> {
+          Duration remaining = Duration.between(Instant.now(), claims.expiresAt());
+          return remaining.isNegative() ? Duration.ZERO : remaining;
+        }))
+        .build();
   }
 
-  public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-    final Claims claims = extractAllClaims(token);
-    return claimsResolver.apply(claims);
+  /**
+   * Verifies the token's signature and expiry, parsing it at most once while it stays cached.
+   *
+   * @return the token's claims, or empty if it is malformed, forged or expired
+   */
+  public Optional<VerifiedClaims> verify(String token) {
+    String digest = digest(token);
+    VerifiedClaims claims = verifiedClaims.getIfPresent(digest);
+    if (claims == null) {
+      try {
+        Claims body = parser.parseClaimsJws(token).getBody();
+        Long epoch = body.get(EPOCH, Long.class);
+        claims = new VerifiedClaims(body.getId(), body.getSubject(), REFRESH.equals(body.get(TOKEN_USE)),
+            instant(body.getIssuedAt()), instant(body.getExpiration()),
+            body.get(USER_ID, Integer.class), role(body.get(ROLE, String.class)),
+            epoch == null ? null : Instant.ofEpochMilli(epoch));
+      } catch (JwtException | IllegalArgumentException e) {
+        return Optional.empty();
+      }
+      // Tokens without an expiry are never issued here; they are verified each time
+      if (claims.expiresAt() != null) {
+        verifiedClaims.put(digest, claims);
+      }
+    }
+    return claims.isExpired() ? Optional.empty() : Optional.of(claims);
+  }
+
+  public String extractUsername(String token) {
+    return verify(token).map(VerifiedClaims::subject).orElse(null);
   }
 
   public String generateToken(UserDetails userDetails) {
     return generateToken(new HashMap<>(), userDetails);
   }
 
+  /**
+   * @param epoch the user's current token epoch, so the token outlives revocations made before it
+   */
+  public String generateToken(UserDetails userDetails, Instant epoch) {
+    return generateToken(Map.of(EPOCH, epoch.toEpochMilli()), userDetails);
+  }
+
+  /**
+   * Access tokens for a {@link User} also carry its id and role, from which requests build their
+   * principal without loading the user.
+   */
   public String generateToken(
       Map<String, Object> extraClaims,
       UserDetails userDetails) {
+    if (userDetails instanceof User user && user.getId() != null && user.getRole() != null) {
+      extraClaims = new HashMap<>(extraClaims);
+      extraClaims.put(USER_ID, user.getId());
+      extraClaims.put(ROLE, user.getRole().name());
+    }
     return buildToken(extraClaims, userDetails, jwtExpiration);
   }
 
   public String generateRefreshToken(
       UserDetails userDetails) {
-    return buildToken(new HashMap<>(), userDetails, refreshExpiration);
+    Map<String, Object> claims = new HashMap<>();
+    claims.put(TOKEN_USE, REFRESH);
+    return buildToken(claims, userDetails, refreshExpiration);
+  }
+
+  public String generateRefreshToken(UserDetails userDetails, Instant epoch) {
+    return buildToken(Map.of(TOKEN_USE, REFRESH, EPOCH, epoch.toEpochMilli()), userDetails, refreshExpiration);
+  }
+
+  /**
+   * The keys tokens can be verified with, as a JWK set. Empty for HS256, whose key is secret.
+   */
+  public Map<String, Object> jwks() {
+    return Map.of("keys", publicJwk == null ? List.of() : List.of(publicJwk));
+  }
+
+  /**
+   * The longest any token issued here stays valid.
+   */
+  public Duration maxTokenLifetime() {
+    return Duration.ofMillis(Math.max(jwtExpiration, refreshExpiration));
   }
 
   private String buildToken(
       Map<String, Object> extraClaims,
       UserDetails userDetails,
       long expiration) {
+    if (signingKey == null) {
+      throw new IllegalStateException("No private key configured, this node only verifies tokens");
+    }
     return Jwts
         .builder()
+        .setHeaderParam("kid", keyId)
         .setClaims(extraClaims)
+        .setId(UUID.randomUUID().toString())
         .setSubject(userDetails.getUsername())
         .setIssuedAt(new Date(System.currentTimeMillis()))
         .setExpiration(new Date(System.currentTimeMillis() + expiration))
-        .signWith(getSignInKey(), SignatureAlgorithm.HS256)
+        .signWith(signingKey, algorithm)
         .compact();
   }
 
   public boolean isTokenValid(String token, UserDetails userDetails) {
-    final String username = extractUsername(token);
-    return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
+    return verify(token).map(claims -> isTokenValid(claims, userDetails)).orElse(false);
   }
 
-  private boolean isTokenExpired(String token) {
-    return extractExpiration(token).before(new Date());
+  public boolean isTokenValid(VerifiedClaims claims, UserDetails userDetails) {
+    return claims.subject() != null && claims.subject().equals(userDetails.getUsername()) && !claims.isExpired();
   }
 
-  private Date extractExpiration(String token) {
-    return extractClaim(token, Claims::getExpiration);
+  private static Role role(String name) {
+    try {
+      return name == null ? null : Role.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
   }
 
-  private Claims extractAllClaims(String token) {
-    return Jwts
-        .parserBuilder()
-        .setSigningKey(getSignInKey())
-        .build()
-        .parseClaimsJws(token)
-        .getBody();
+  private static Instant instant(Date date) {
+    return date == null ? null : date.toInstant();
+  }
+
+  private static String digest(String token) {
+    return HexFormat.of().formatHex(sha256(token.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private static byte[] decodeKey(String key) {
+    return Base64.getMimeDecoder().decode(key.replaceAll("-----[A-Z ]+-----", ""));
+  }
+
+  // The key id is the key's RFC 7638 thumbprint, so it changes exactly when the key does
+  private static Map<String, Object> jwk(RSAPublicKey key) {
+    String n = base64Url(key.getModulus());
+    String e = base64Url(key.getPublicExponent());
+    String thumbprint = Base64.getUrlEncoder().withoutPadding().encodeToString(
+        sha256(("{\"e\":\"" + e + "\",\"kty\":\"RSA\",\"n\":\"" + n + "\"}").getBytes(StandardCharsets.UTF_8)));
+    Map<String, Object> jwk = new LinkedHashMap<>();
+    jwk.put("kty", "RSA");
+    jwk.put("use", "sig");
+    jwk.put("alg", SignatureAlgorithm.RS256.getValue());
+    jwk.put("kid", thumbprint);
+    jwk.put("n", n);
+    jwk.put("e", e);
+    return Collections.unmodifiableMap(jwk);
+  }
+
+  // Unsigned big-endian, as JWK requires
+  private static String base64Url(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    if (bytes.length > 1 && bytes[0] == 0) {
+      bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
   }
 
-  private Key getSignInKey() {
-    byte[] keyBytes = Decoders.BASE64.decode(secretKey);
-    return Keys.hmacShaKeyFor(keyBytes);
+  private static byte[] sha256(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
   }
 }
@@ -1,9 +1,11 @@
 package com.secureshare.securefiles.config;
 
 import com.secureshare.securefiles.token.TokenRepository;
+import com.secureshare.securefiles.token.TokenRevocationIndex;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.logout.LogoutHandler;
@@ -14,6 +16,11 @@ import org.springframework.stereotype.Service;
 public class LogoutService implements LogoutHandler {
 
   private final TokenRepository tokenRepository;
+  private final JwtService jwtService;
+  private final TokenRevocationIndex revocationIndex;
+
+  @Value("${application.security.jwt.stateless:false}")
+  private boolean stateless;
 
   @Override
   public void logout(
@@ -26,6 +33,13 @@ public class LogoutService implements LogoutHandler {
       return;
     }
     jwt = authHeader.substring(7);
+    jwtService.verify(jwt)
+        .filter(claims -> claims.id() != null)
+        .ifPresent(claims -> revocationIndex.revoke(claims.id(), claims.subject(), claims.expiresAt()));
+    if (stateless) {
+      SecurityContextHolder.clearContext();
+      return;
+    }
     var storedToken = tokenRepository.findByToken(jwt)
         .orElse(null);
     if (storedToken != null) {
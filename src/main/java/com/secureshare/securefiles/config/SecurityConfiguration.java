@@ -2,16 +2,23 @@ package com.secureshare.securefiles.config;
 
 import com.secureshare.securefiles.file.FileRepository;
 import com.secureshare.securefiles.service.FileSecurityService;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Permission;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.AuthorizationManager;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.access.intercept.RequestAuthorizationContext;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.authentication.logout.LogoutHandler;
 import org.springframework.web.cors.CorsConfiguration;
@@ -36,6 +43,7 @@ public class SecurityConfiguration {
                 "/api/v1/auth/register",
                 "/api/v1/auth/authenticate",
                 "/api/v1/auth/refresh-token",
+                "/.well-known/jwks.json",
                 "/api/v1/share/access/**",
                 "/api/v1/share/info/**",
                 "/v2/api-docs",
@@ -61,6 +69,9 @@ public class SecurityConfiguration {
                         .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                         .csrf(AbstractHttpConfigurer::disable)
                         .authorizeHttpRequests(req -> req
+                                // Streamed downloads finish on an async dispatch of an already authorized request
+                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+
                                 // Public endpoints
                                 .requestMatchers(WHITE_LIST_URL).permitAll()
 
@@ -73,11 +84,12 @@ public class SecurityConfiguration {
                                 .requestMatchers(GET, "/api/v1/share").authenticated()
 
                                 // File operations
-                                .requestMatchers(GET, "/api/v1/files/**").hasAuthority("file:read")
-                                .requestMatchers(GET, "/api/v1/files/**").hasAuthority("file:download")
-                                .requestMatchers(POST, "/api/v1/files/**").hasAuthority("file:upload")
-                                .requestMatchers(DELETE, "/api/v1/files/**").hasAuthority("file:delete")
-                                .requestMatchers(GET, "/api/v1/files/search").hasAuthority("file:search")
+                                .requestMatchers(GET, "/api/v1/files/**").access(allows(FILE_READ))
+                                .requestMatchers(GET, "/api/v1/files/**").access(allows(FILE_DOWNLOAD))
+                                .requestMatchers(POST, "/api/v1/files/**").access(allows(FILE_UPLOAD))
+                                .requestMatchers(PUT, "/api/v1/files/**").access(allows(FILE_UPLOAD))
+                                .requestMatchers(DELETE, "/api/v1/files/**").access(allows(FILE_DELETE))
+                                .requestMatchers(GET, "/api/v1/files/search").access(allows(FILE_SEARCH))
 
                                 // Admin endpoints
                                 .requestMatchers("/api/v1/admin/**").hasRole("ADMIN")
@@ -98,13 +110,22 @@ public class SecurityConfiguration {
                 return http.build();
         }
 
+        /**
+         * A permission check against the principal's authority bitmask, rather than a scan of its
+         * granted authority strings.
+         */
+        private static AuthorizationManager<RequestAuthorizationContext> allows(Permission permission) {
+                return (authentication, context) -> new AuthorizationDecision(
+                        authentication.get().getPrincipal() instanceof AuthenticatedUser user && user.can(permission));
+        }
+
         @Bean
         CorsConfigurationSource corsConfigurationSource() {
                 CorsConfiguration configuration = new CorsConfiguration();
                 configuration.setAllowedOrigins(List.of("http://localhost:5173"));
                 configuration.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
-                configuration.setAllowedHeaders(List.of("Authorization", "Cache-Control", "Content-Type"));
-                configuration.setExposedHeaders(List.of("Authorization"));
+                configuration.setAllowedHeaders(List.of("Authorization", "Cache-Control", "Content-Type", "Range", "If-Range", "X-Content-SHA256"));
+                configuration.setExposedHeaders(List.of("Authorization", "Accept-Ranges", "Content-Range", "Content-Length", "ETag"));
                 configuration.setAllowCredentials(true);
                 configuration.setMaxAge(3600L);
 
@@ -113,7 +134,8 @@ public class SecurityConfiguration {
                 return source;
         }
         @Bean
-        public FileSecurityService fileSecurityService(FileRepository fileRepository) {
-                return new FileSecurityService(fileRepository);
+        public FileSecurityService fileSecurityService(FileRepository fileRepository,
+                                                       @Value("${app.scan.enabled:false}") boolean scanEnabled) {
+                return new FileSecurityService(fileRepository, scanEnabled);
         }
 }
\ No newline at end of file
@@ -15,27 +15,27 @@ import org.springframework.web.bind.annotation.RestController;
 public class AdminController {
 
     @GetMapping
-    @PreAuthorize("hasAuthority('admin:read')")
+    @PreAuthorize("principal.can('admin:read')")
     public String get() {
         return "GET:: admin controller";
     }
 
     @PostMapping
-    @PreAuthorize("hasAuthority('admin:create')")
+    @PreAuthorize("principal.can('admin:create')")
     @Hidden
     public String post() {
         return "POST:: admin controller";
     }
 
     @PutMapping
-    @PreAuthorize("hasAuthority('admin:update')")
+    @PreAuthorize("principal.can('admin:update')")
     @Hidden
     public String put() {
         return "PUT:: admin controller";
     }
 
     @DeleteMapping
-    @PreAuthorize("hasAuthority('admin:delete')")
+    @PreAuthorize("principal.can('admin:delete')")
     @Hidden
     public String delete() {
         return "DELETE:: admin controller";
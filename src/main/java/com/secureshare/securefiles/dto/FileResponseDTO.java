@@ -2,6 +2,7 @@ package com.secureshare.securefiles.dto;
 
 import com.secureshare.securefiles.dto.SharedFileDTO;
 import com.secureshare.securefiles.file.FileEntity;
+import com.secureshare.securefiles.file.ScanStatus;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -13,6 +14,7 @@ public record FileResponseDTO(
         long size,
         String uploadedBy,
         LocalDateTime uploadedAt,
+        ScanStatus scanStatus,
         List<SharedFileDTO> sharedFiles
 ) {
     public static FileResponseDTO fromEntity(FileEntity file) {
@@ -23,6 +25,7 @@ public record FileResponseDTO(
                 file.getSize(),
                 file.getUser() != null ? file.getUser().getEmail() : null,
                 file.getUploadedAt(),
+                file.getScanStatus(),
                 file.getSharedFiles().stream()
                         .map(SharedFileDTO::fromEntity)
                         .toList()
@@ -0,0 +1,33 @@
+package com.secureshare.securefiles.dto;
+
+import com.secureshare.securefiles.file.UploadJob;
+
+import java.time.Instant;
+
+public record UploadJobDTO(
+        String id,
+        UploadJob.Status status,
+        String originalFilename,
+        long size,
+        int progress,
+        Instant createdAt,
+        Instant finishedAt,
+        FileResponseDTO file,
+        String error,
+        String errorCode
+) {
+    public static UploadJobDTO fromJob(UploadJob job) {
+        return new UploadJobDTO(
+                job.getId(),
+                job.getStatus(),
+                job.getOriginalFilename(),
+                job.getSize(),
+                job.progress(),
+                job.getCreatedAt(),
+                job.getFinishedAt(),
+                job.getFile(),
+                job.getError(),
+                job.getErrorCode()
+        );
+    }
+}
@@ -0,0 +1,27 @@
+package com.secureshare.securefiles.dto;
+
+import com.secureshare.securefiles.file.UploadSession;
+
+import java.time.Instant;
+
+public record UploadSessionDTO(
+        String id,
+        String originalFilename,
+        String contentType,
+        long totalSize,
+        long committedSize,
+        int segmentSize,
+        Instant expiresAt
+) {
+    public static UploadSessionDTO fromEntity(UploadSession session) {
+        return new UploadSessionDTO(
+                session.getId(),
+                session.getOriginalFilename(),
+                session.getContentType(),
+                session.getTotalSize(),
+                session.getCommittedSize(),
+                session.getSegmentSize(),
+                session.getExpiresAt()
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package com.secureshare.securefiles.dto;
+
+import lombok.Data;
+
+@Data
+public class UploadSessionRequest {
+    private String filename;
+    private String contentType;
+    private long size;
+}
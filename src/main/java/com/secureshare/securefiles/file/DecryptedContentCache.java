@@ -0,0 +1,114 @@
+package com.secureshare.securefiles.file;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Opt-in cache of decrypted file content, keyed by file id. Entries live in direct buffers so a
+ * hot working set does not pile up in the old generation; Caffeine's W-TinyLFU policy keeps
+ * files that are requested often over ones that were merely requested recently. Evicted buffers
+ * are released by the garbage collector once no in-flight response still reads them.
+ * <p>
+ * Metrics are published as {@code cache.*} with {@code cache=decryptedContent}, plus
+ * {@code cache.decrypted.bytes} for the off-heap bytes held.
+ */
+@Slf4j
+@Component
+public class DecryptedContentCache {
+
+    private final Cache<Long, ByteBuffer> cache;
+    private final long maxEntryBytes;
+
+    public DecryptedContentCache(
+            @Value("${app.cache.content.enabled:false}") boolean enabled,
+            @Value("${app.cache.content.max-bytes:268435456}") long maxBytes,
+            @Value("${app.cache.content.max-entry-bytes:8388608}") long maxEntryBytes,
+            MeterRegistry registry) {
+        // Caffeine weights are ints, so no single entry can exceed 2 GiB
+        this.maxEntryBytes = Math.min(maxEntryBytes, Integer.MAX_VALUE);
+        if (!enabled) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, ByteBuffer content) -> content.capacity())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "decryptedContent");
+        Gauge.builder("cache.decrypted.bytes", cache,
+                        c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+                .baseUnit("bytes")
+                .register(registry);
+        log.info("Decrypted content cache enabled: {} bytes total, {} bytes per entry", maxBytes, this.maxEntryBytes);
+    }
+
+    /**
+     * Returns the decrypted content of {@code file}, loading it with {@code loader} on a miss.
+     * Concurrent misses for the same file share one load. Empty when the cache is disabled or
+     * the file is larger than the per-entry cap, in which case the caller should stream instead.
+     */
+    public Optional<ByteBuffer> get(FileEntity file, ContentLoader loader) throws IOException {
+        if (cache == null || file.getId() == null || file.getSize() > maxEntryBytes) {
+            return Optional.empty();
+        }
+        try {
+            ByteBuffer content = cache.get(file.getId(), id -> load(file, loader));
+            // Each caller gets its own position and limit over the shared bytes
+            return Optional.of(content.asReadOnlyBuffer());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void invalidate(Long fileId) {
+        if (cache != null && fileId != null) {
+            cache.invalidate(fileId);
+        }
+    }
+
+    private ByteBuffer load(FileEntity file, ContentLoader loader) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) file.getSize());
+        try {
+            loader.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    try {
+                        buffer.put(b, off, len);
+                    } catch (BufferOverflowException e) {
+                        throw new IOException("File " + file.getId() + " is larger than its recorded size");
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.hasRemaining()) {
+            throw new UncheckedIOException(new IOException("File " + file.getId() + " is shorter than its recorded size"));
+        }
+        return buffer.flip();
+    }
+
+    @FunctionalInterface
+    public interface ContentLoader {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
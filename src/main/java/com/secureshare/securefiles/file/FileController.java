@@ -2,11 +2,10 @@ package com.secureshare.securefiles.file;
 
 import com.secureshare.securefiles.dto.FileResponseDTO;
 import com.secureshare.securefiles.service.FileValidator;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import jakarta.xml.bind.ValidationException;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.*;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -15,6 +14,7 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 // For Specifications
 import org.springframework.data.jpa.domain.Specification;
 import jakarta.persistence.criteria.Predicate;
@@ -40,20 +40,24 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class FileController {
 
+    // Optional upload header: the hex SHA-256 of the file, letting content validated before skip re-validation
+    static final String CONTENT_SHA256_HEADER = "X-Content-SHA256";
+
     private final FileStorageService fileService;
     private final FileRepository fileRepository;
-    private final FileValidator fileValidator;
+    private final FileDownloadService fileDownloadService;
 
     @PostMapping("/upload")
     @RateLimiter(name = "fileUpload", fallbackMethod = "uploadRateLimitExceeded")
-    @PreAuthorize("hasAuthority('file:upload')")
+    @PreAuthorize("principal.can('file:upload')")
     public ResponseEntity<?> upload(
             @RequestParam("file") MultipartFile file,
-            @AuthenticationPrincipal User user) throws ValidationException {
+            @RequestHeader(value = CONTENT_SHA256_HEADER, required = false) String contentSha256,
+            @AuthenticationPrincipal AuthenticatedUser user) throws ValidationException {
         try {
 
-            fileValidator.validate(file);
-            FileEntity saved = fileService.saveFile(file, user);
+            // Validation runs inside saveFile, in the same pass that encrypts the upload
+            FileEntity saved = fileService.saveFile(file, contentSha256, user);
             return ResponseEntity.ok(FileResponseDTO.fromEntity(saved));
 
         } catch (FileValidator.FileValidationException e) {
@@ -70,12 +74,11 @@ public class FileController {
 }
 
     @GetMapping
-    @PreAuthorize("hasAuthority('file:read')")
+    @PreAuthorize("principal.can('file:read')")
     public ResponseEntity<List<FileResponseDTO>> listUserFiles() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User user = (User) authentication.getPrincipal();
+        AuthenticatedUser user = getCurrentUser();
 
-        List<FileResponseDTO> files = fileRepository.findByUser(user).stream()
+        List<FileResponseDTO> files = fileRepository.findByUserId(user.id()).stream()
                 .map(FileResponseDTO::fromEntity)
                 .toList();
 
@@ -84,26 +87,28 @@ public class FileController {
 
     @GetMapping("/{id}/download")
     @PreAuthorize("@fileSecurityService.canAccessFile(#id, authentication.principal)")
-    public ResponseEntity<ByteArrayResource> download(
+    public ResponseEntity<StreamingResponseBody> download(
             @PathVariable Long id,
-            @AuthenticationPrincipal User user) {
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @AuthenticationPrincipal AuthenticatedUser user) {
 
         FileEntity file = fileRepository.findById(id)
                 .orElseThrow(() -> new FileStorageService.FileNotFoundException(id));
 
-        byte[] content = fileService.getFileContent(file);
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(file.getContentType()))
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + file.getOriginalFilename() + "\"")
-                .body(new ByteArrayResource(content));
+        return fileDownloadService.buildResponse(
+                file,
+                MediaType.parseMediaType(file.getContentType()),
+                "attachment; filename=\"" + file.getOriginalFilename() + "\"",
+                range,
+                ifRange);
     }
 
     @DeleteMapping("/{id}")
     @PreAuthorize("@fileSecurityService.canDeleteFile(#id, authentication.principal)")
     public ResponseEntity<Void> deleteFile(
             @PathVariable Long id,
-            @AuthenticationPrincipal User user) {
+            @AuthenticationPrincipal AuthenticatedUser user) {
 
         try {
             fileService.deleteFile(id, user);
@@ -116,7 +121,7 @@ public class FileController {
     }
 
     @GetMapping("/search")
-    @PreAuthorize("hasAuthority('file:search')")
+    @PreAuthorize("principal.can('file:search')")
     public ResponseEntity<List<FileResponseDTO>> searchFiles(
             @RequestParam(required = false) String filename,
             @RequestParam(required = false) String contentType,
@@ -126,7 +131,7 @@ public class FileController {
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate,
             @PageableDefault(size = 20) Pageable pageable) {
 
-        User user = getCurrentUser();
+        AuthenticatedUser user = getCurrentUser();
 
         Page<FileEntity> files = fileRepository.findAll(
                 createSearchSpecification(user, filename, contentType, minSize, maxSize, startDate, endDate),
@@ -141,13 +146,13 @@ public class FileController {
         );
     }
 
-    private User getCurrentUser() {
+    private AuthenticatedUser getCurrentUser() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        return (User) authentication.getPrincipal();
+        return (AuthenticatedUser) authentication.getPrincipal();
     }
 
     private Specification<FileEntity> createSearchSpecification(
-            User user,
+            AuthenticatedUser user,
             String filename,
             String contentType,
             Long minSize,
@@ -159,7 +164,7 @@ public class FileController {
             List<Predicate> predicates = new ArrayList<>();
 
             // Mandatory user filter
-            predicates.add(cb.equal(root.get("user"), user));
+            predicates.add(cb.equal(root.get("user").get("id"), user.id()));
 
             if (filename != null && !filename.isBlank()) {
                 predicates.add(cb.like(
@@ -192,7 +197,7 @@ public class FileController {
         };
     }
 
-    public ResponseEntity<String> uploadRateLimitExceeded(MultipartFile file, Exception ex) {
+    public ResponseEntity<String> uploadRateLimitExceeded(MultipartFile file, String contentSha256, AuthenticatedUser user, Exception ex) {
         return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
                 .body("Upload rate limit exceeded. Please try again later.");
     }
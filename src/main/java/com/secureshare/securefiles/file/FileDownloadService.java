@@ -0,0 +1,118 @@
+package com.secureshare.securefiles.file;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FileDownloadService {
+
+    private final FileStorageService fileStorageService;
+
+    /**
+     * Builds a streamed download response. A single-range {@code Range} header is answered with
+     * 206 Partial Content and only the segments covering that range are decrypted. Multi-range
+     * requests, malformed ranges, and ranges whose {@code If-Range} validator no longer matches
+     * get the full 200 response, as RFC 9110 allows.
+     */
+    public ResponseEntity<StreamingResponseBody> buildResponse(
+            FileEntity file,
+            MediaType contentType,
+            String contentDisposition,
+            String rangeHeader,
+            String ifRangeHeader) {
+
+        long size = file.getSize();
+        String etag = entityTag(file);
+        ZonedDateTime lastModified = file.getUploadedAt() != null
+                ? file.getUploadedAt().atZone(ZoneId.systemDefault())
+                : null;
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(etag);
+        if (lastModified != null) {
+            headers.setLastModified(lastModified);
+        }
+
+        List<HttpRange> ranges = requestedRanges(rangeHeader, ifRangeHeader, etag, lastModified);
+        if (ranges.size() != 1) {
+            headers.setContentLength(size);
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(out -> fileStorageService.writeFileContent(file, out));
+        }
+
+        long start;
+        long end;
+        try {
+            start = ranges.get(0).getRangeStart(size);
+            end = ranges.get(0).getRangeEnd(size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+        }
+
+        long length = end - start + 1;
+        headers.setContentLength(length);
+        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .body(out -> fileStorageService.writeFileContent(file, start, length, out));
+    }
+
+    private List<HttpRange> requestedRanges(String rangeHeader, String ifRangeHeader,
+                                            String etag, ZonedDateTime lastModified) {
+        if (!StringUtils.hasText(rangeHeader)) {
+            return List.of();
+        }
+        if (StringUtils.hasText(ifRangeHeader) && !ifRangeMatches(ifRangeHeader.trim(), etag, lastModified)) {
+            return List.of();
+        }
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring malformed Range header: {}", rangeHeader);
+            return List.of();
+        }
+    }
+
+    private boolean ifRangeMatches(String ifRange, String etag, ZonedDateTime lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak validators never match
+            return ifRange.equals(etag);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return since.toEpochSecond() == lastModified.toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // Stored files are immutable, so the id and size identify a representation
+    private String entityTag(FileEntity file) {
+        return "\"" + file.getId() + "-" + file.getSize() + "\"";
+    }
+}
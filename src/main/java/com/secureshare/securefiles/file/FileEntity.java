@@ -13,7 +13,7 @@ import java.util.List;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class FileEntity {
+public class FileEntity implements WrappedKeyHolder<Long> {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -26,11 +26,33 @@ public class FileEntity {
     private String uploadedBy;
     private LocalDateTime uploadedAt;
 
+    // Pending until the malware scanner has passed the content; see FileScanService
+    @Enumerated(EnumType.STRING)
+    private ScanStatus scanStatus;
+    private LocalDateTime scannedAt;
+    // Failed scan attempts so far, and when the next one is due
+    private int scanAttempts;
+    private LocalDateTime nextScanAt;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @JsonIgnore  // Prevent serialization of the user
     private User user;
 
+    // Null for files stored before deduplication, which own their ciphertext outright
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    @ToString.Exclude
+    @JsonIgnore
+    private StoredBlob blob;
+
+    // Copy of the blob's wrapped data key, so downloads need not load the blob
+    private Integer keyVersion;
+
+    @ToString.Exclude
+    @JsonIgnore
+    private byte[] wrappedKey;
+
     @OneToMany(
             mappedBy = "file",
             cascade = CascadeType.ALL,
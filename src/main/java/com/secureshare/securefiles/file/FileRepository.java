@@ -1,11 +1,14 @@
 package com.secureshare.securefiles.file;
 
 import com.secureshare.securefiles.user.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -16,7 +19,7 @@ public interface FileRepository extends
         JpaSpecificationExecutor<FileEntity> {
 
     // Basic user-scoped queries
-    List<FileEntity> findByUser(User user);
+    List<FileEntity> findByUserId(Integer userId);
     List<FileEntity> findByUserAndOriginalFilenameContainingIgnoreCase(User user, String filename);
 
     // Advanced search methods
@@ -46,4 +49,35 @@ public interface FileRepository extends
 
     // For cleanup operations
     List<FileEntity> findByUploadedAtBefore(LocalDateTime cutoffDate);
-}
\ No newline at end of file
+
+    // For malware scanning; files whose last scan failed wait until their retry is due
+    @Query("SELECT f FROM FileEntity f WHERE f.scanStatus = com.secureshare.securefiles.file.ScanStatus.PENDING " +
+            "AND (f.nextScanAt IS NULL OR f.nextScanAt <= :now) AND f.id > :afterId ORDER BY f.id")
+    List<FileEntity> findDueForScan(@Param("now") LocalDateTime now, @Param("afterId") Long afterId, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileEntity f SET f.scanAttempts = :attempts, f.nextScanAt = :nextScanAt " +
+            "WHERE f.id IN :ids AND f.scanStatus = com.secureshare.securefiles.file.ScanStatus.PENDING")
+    int retryScan(@Param("ids") List<Long> ids, @Param("attempts") int attempts,
+                  @Param("nextScanAt") LocalDateTime nextScanAt);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileEntity f SET f.scanStatus = :status, f.scannedAt = :scannedAt " +
+            "WHERE f.id IN :ids AND f.scanStatus = com.secureshare.securefiles.file.ScanStatus.PENDING")
+    int completeScan(@Param("ids") List<Long> ids, @Param("status") ScanStatus status,
+                     @Param("scannedAt") LocalDateTime scannedAt);
+
+    // For data key rotation
+    @Query("SELECT f FROM FileEntity f WHERE f.wrappedKey IS NOT NULL AND f.keyVersion <> :version " +
+            "AND f.id > :afterId ORDER BY f.id")
+    List<FileEntity> findStaleKeys(@Param("version") int version, @Param("afterId") Long afterId, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileEntity f SET f.keyVersion = :version, f.wrappedKey = :wrappedKey " +
+            "WHERE f.id = :id AND f.keyVersion = :previousVersion")
+    int replaceWrappedKey(@Param("id") Long id, @Param("previousVersion") int previousVersion,
+                          @Param("version") int version, @Param("wrappedKey") byte[] wrappedKey);
+}
@@ -0,0 +1,122 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.scan.ContentScanner;
+import com.secureshare.securefiles.scan.ScanResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background malware scanning of stored files. Uploads are accepted as {@link ScanStatus#PENDING}
+ * without waiting on the scanner; this service picks them up in batches, hands each batch to the
+ * {@link ContentScanner} in one call, and marks the files {@link ScanStatus#CLEAN} or
+ * {@link ScanStatus#QUARANTINED}. Files sharing a deduplicated blob are scanned once.
+ * <p>
+ * A file the scanner could not judge stays pending and is retried after a backoff that doubles
+ * with each attempt, up to {@code app.scan.max-attempts}, after which it is marked
+ * {@link ScanStatus#SCAN_FAILED}. Files larger than the scanner accepts are marked so at once,
+ * without being sent.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "app.scan.enabled", havingValue = "true")
+public class FileScanService {
+
+    private final FileRepository fileRepository;
+    private final FileStorageService fileStorageService;
+    private final ContentScanner scanner;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+
+    public FileScanService(FileRepository fileRepository,
+                           FileStorageService fileStorageService,
+                           ContentScanner scanner,
+                           @Value("${app.scan.batch-size:32}") int batchSize,
+                           @Value("${app.scan.max-attempts:8}") int maxAttempts,
+                           @Value("${app.scan.retry-backoff:PT1M}") Duration retryBackoff) {
+        this.fileRepository = fileRepository;
+        this.fileStorageService = fileStorageService;
+        this.scanner = scanner;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+    }
+
+    @Scheduled(fixedDelayString = "${app.scan.interval:PT5S}")
+    public void scanPending() {
+        LocalDateTime now = LocalDateTime.now();
+        long after = 0L;
+        List<FileEntity> batch;
+        while (!(batch = fileRepository.findDueForScan(now, after, PageRequest.ofSize(batchSize))).isEmpty()) {
+            after = batch.get(batch.size() - 1).getId();
+            scan(batch);
+        }
+    }
+
+    private void scan(List<FileEntity> batch) {
+        Map<String, List<FileEntity>> byContent = new LinkedHashMap<>();
+        List<Long> tooLarge = new ArrayList<>();
+        for (FileEntity file : batch) {
+            if (file.getSize() > scanner.maxContentLength()) {
+                tooLarge.add(file.getId());
+            } else {
+                byContent.computeIfAbsent(file.getStoredFilename(), key -> new ArrayList<>()).add(file);
+            }
+        }
+        if (!tooLarge.isEmpty()) {
+            // Never sent: the scanner would refuse them, and clamd fails the rest of the session with them
+            log.warn("Files {} exceed the scanner's size limit and cannot be scanned", tooLarge);
+            fileRepository.completeScan(tooLarge, ScanStatus.SCAN_FAILED, LocalDateTime.now());
+        }
+        if (byContent.isEmpty()) {
+            return;
+        }
+        List<InputStreamSource> contents = byContent.values().stream()
+                .map(files -> (InputStreamSource) () -> fileStorageService.openFileContent(files.get(0)))
+                .toList();
+
+        List<ScanResult> results = scanner.scan(contents);
+        LocalDateTime now = LocalDateTime.now();
+        int i = 0;
+        for (List<FileEntity> files : byContent.values()) {
+            ScanResult result = results.get(i++);
+            List<Long> ids = files.stream().map(FileEntity::getId).toList();
+            switch (result.outcome()) {
+                case CLEAN -> fileRepository.completeScan(ids, ScanStatus.CLEAN, now);
+                case INFECTED -> {
+                    log.warn("Quarantined files {}: {}", ids, result.detail());
+                    fileRepository.completeScan(ids, ScanStatus.QUARANTINED, now);
+                }
+                case UNSCANNABLE -> {
+                    log.warn("Cannot scan files {}: {}", ids, result.detail());
+                    fileRepository.completeScan(ids, ScanStatus.SCAN_FAILED, now);
+                }
+                case FAILED -> retryLater(files, ids, result.detail(), now);
+            }
+        }
+    }
+
+    private void retryLater(List<FileEntity> files, List<Long> ids, String reason, LocalDateTime now) {
+        int attempts = files.stream().mapToInt(FileEntity::getScanAttempts).max().orElse(0) + 1;
+        if (attempts >= maxAttempts) {
+            log.warn("Giving up on scanning files {} after {} attempts: {}", ids, attempts, reason);
+            fileRepository.completeScan(ids, ScanStatus.SCAN_FAILED, now);
+            return;
+        }
+        Duration delay = retryBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        log.warn("Could not scan files {}, retrying in {}: {}", ids, delay, reason);
+        fileRepository.retryScan(ids, attempts, now.plus(delay));
+    }
+}
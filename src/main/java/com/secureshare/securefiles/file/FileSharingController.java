@@ -1,6 +1,7 @@
 package com.secureshare.securefiles.file;
 
 import com.secureshare.securefiles.dto.*;
+import com.secureshare.securefiles.service.FileSecurityService;
 import com.secureshare.securefiles.util.QrCodeUtil;
 import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
 import lombok.RequiredArgsConstructor;
@@ -15,7 +16,7 @@ import org.springframework.web.server.ResponseStatusException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import jakarta.validation.Valid;
 
 import java.net.URLEncoder;
@@ -33,18 +34,20 @@ public class FileSharingController {
 
     private final FileSharingService sharingService;
     private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
     private final FileRepository fileRepository;
     private final ShareTokenService tokenService;
     private final SharedFileRepository sharedFileRepository;
+    private final FileSecurityService fileSecurityService;
 
     @PostMapping("/{fileId}")
     @RateLimiter(name = "fileSharing", fallbackMethod = "shareRateLimitExceeded")
-    @PreAuthorize("hasAuthority('file:share')")
+    @PreAuthorize("principal.can('file:share') and @fileSecurityService.canShareFile(#fileId, authentication.principal)")
     public ResponseEntity<ShareResponseDTO> shareFile(
             @PathVariable Long fileId,
             @RequestParam(required = false) String password,
             @RequestParam(defaultValue = "1440") long expiryMinutes,
-            @AuthenticationPrincipal User user) {
+            @AuthenticationPrincipal AuthenticatedUser user) {
 
         try {
             ShareResponseDTO response = sharingService.createShare(
@@ -63,24 +66,24 @@ public class FileSharingController {
     }
 
     @GetMapping
-    @PreAuthorize("hasAuthority('file:share')")
+    @PreAuthorize("principal.can('file:share')")
     public ResponseEntity<Page<SharedFileDTO>> getUserSharedFiles(
-            @AuthenticationPrincipal User user,
+            @AuthenticationPrincipal AuthenticatedUser user,
             @PageableDefault(size = 20) Pageable pageable) {
         try {
             Page<SharedFileDTO> shares = sharingService.getUserSharedFiles(user, pageable);
             return ResponseEntity.ok(shares);
         } catch (Exception e) {
-            log.error("Error fetching shared files for user {}", user.getId(), e);
+            log.error("Error fetching shared files for user {}", user.id(), e);
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Error fetching shares");
         }
     }
 
     @DeleteMapping("/{token}")
-    @PreAuthorize("hasAuthority('file:share')")
+    @PreAuthorize("principal.can('file:share')")
     public ResponseEntity<Void> revokeShare(
             @PathVariable String token,
-            @AuthenticationPrincipal User user) {
+            @AuthenticationPrincipal AuthenticatedUser user) {
         sharingService.revokeShare(token, user);
         return ResponseEntity.noContent().build();
     }
@@ -88,7 +91,9 @@ public class FileSharingController {
     @GetMapping("/access/{token}")
     public ResponseEntity<?> accessFile(
             @PathVariable String token,
-            @RequestParam(required = false) String password) {
+            @RequestParam(required = false) String password,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange) {
 
         try {
             // Validate token format
@@ -101,16 +106,19 @@ public class FileSharingController {
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid or expired token"));
 
             FileEntity file = shared.getFile();
-            byte[] content = fileStorageService.getFileContent(file);
+            if (!fileSecurityService.isReleased(file)) {
+                throw new ResponseStatusException(HttpStatus.FORBIDDEN, "File is not available until it passes a malware scan");
+            }
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(
+            return fileDownloadService.buildResponse(
+                    file,
+                    MediaType.parseMediaType(
                             StringUtils.hasText(file.getContentType()) ?
                                     file.getContentType() :
-                                    MediaType.APPLICATION_OCTET_STREAM_VALUE))
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + encodeFilename(file.getOriginalFilename()) + "\"")
-                    .body(new ByteArrayResource(content));
+                                    MediaType.APPLICATION_OCTET_STREAM_VALUE),
+                    "attachment; filename=\"" + encodeFilename(file.getOriginalFilename()) + "\"",
+                    range,
+                    ifRange);
 
         } catch (ResponseStatusException e) {
             throw e;
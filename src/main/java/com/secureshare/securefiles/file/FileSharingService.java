@@ -12,7 +12,8 @@ import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.UserRepository;
 import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -26,8 +27,10 @@ public class FileSharingService {
     private final FileRepository fileRepository;
     private final PasswordEncoder passwordEncoder;
     private final ShareTokenService tokenService;
+    private final DecryptedContentCache contentCache;
+    private final UserRepository userRepository;
 
-    public ShareResponseDTO createShare(Long fileId, String rawPassword, long expiryMinutes, User user) {
+    public ShareResponseDTO createShare(Long fileId, String rawPassword, long expiryMinutes, AuthenticatedUser user) {
         FileEntity file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
 
@@ -41,7 +44,7 @@ public class FileSharingService {
                 .token(token)
                 .expiry(expiryInstant)
                 .password(hashedPassword)  // This will be null if no password was provided
-                .sharedBy(user)
+                .sharedBy(userRepository.getReferenceById(user.id()))
                 .active(true)
                 .build();
 
@@ -57,6 +60,11 @@ public class FileSharingService {
     }
 
     public Optional<SharedFile> getValidSharedFile(String token, String rawPassword) {
+        if (!tokenService.isValidTokenFormat(token)) {
+            log.debug("Rejected a malformed share token");
+            return Optional.empty();
+        }
+
         log.debug("Looking up token: {}", token);
 
         Optional<SharedFile> sharedOpt = sharedFileRepository.findByToken(token);
@@ -88,8 +96,8 @@ public class FileSharingService {
         return Optional.of(shared);
     }
 
-    public Page<SharedFileDTO> getUserSharedFiles(User user, Pageable pageable) {
-        return sharedFileRepository.findBySharedBy(user, pageable)
+    public Page<SharedFileDTO> getUserSharedFiles(AuthenticatedUser user, Pageable pageable) {
+        return sharedFileRepository.findBySharedById(user.id(), pageable)
                 .map(SharedFileDTO::fromEntity);
     }
 
@@ -108,20 +116,23 @@ public class FileSharingService {
                 ));
     }
 
-    public void revokeShare(String token, User user) {
+    public void revokeShare(String token, AuthenticatedUser user) {
         SharedFile share = sharedFileRepository.findByToken(token)
                 .orElseThrow(() -> new ResponseStatusException(
                         HttpStatus.NOT_FOUND,
                         "Share not found"
                 ));
 
-        if (!share.getSharedBy().getId().equals(user.getId())) {
+        if (!share.getSharedBy().getId().equals(user.id())) {
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Not owned by user");
         }
 
         try {
             share.setActive(false);
             sharedFileRepository.save(share); // Soft delete
+            if (share.getFile() != null) {
+                contentCache.invalidate(share.getFile().getId());
+            }
         } catch (DataAccessException e) {
             log.error("Failed to revoke share: {}", e.getMessage());
             throw new ResponseStatusException(
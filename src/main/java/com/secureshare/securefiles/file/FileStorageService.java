@@ -1,52 +1,212 @@
 package com.secureshare.securefiles.file;
 
 import com.secureshare.securefiles.service.*;
+import com.secureshare.securefiles.service.KeyManagementService.DataKey;
 import com.secureshare.securefiles.service.exception.*;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.storage.BlobStore;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import jakarta.annotation.PostConstruct;
 import jakarta.xml.bind.ValidationException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.file.*;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 
+@Slf4j
 @Service
 @Transactional
 @RequiredArgsConstructor
 public class FileStorageService {
     private final FileRepository fileRepository;
-    private final EncryptionService encryptionService;
+    private final SharedFileRepository sharedFileRepository;
+    private final StoredBlobRepository blobRepository;
+    private final KeyManagementService keyService;
     private final FileValidator fileValidator;
+    private final CompressionPolicy compressionPolicy;
     private final AuditService auditService;
-    private final Path uploadDir = Paths.get("uploads").toAbsolutePath().normalize();
+    private final BlobStore blobStore;
+    private final DecryptedContentCache contentCache;
+
+    // Scratch space for resumable uploads; always local, whatever the blob store backend
+    @Value("${app.upload.spool-dir:uploads/.sessions}")
+    private Path spoolDir;
+
+    // With scanning on, new files are held back until FileScanService has passed them
+    @Value("${app.scan.enabled:false}")
+    private boolean scanEnabled;
 
     @PostConstruct
     public void init() throws IOException {
-        Files.createDirectories(uploadDir);
+        Files.createDirectories(spoolDir);
+    }
+
+    @Retryable(
+            value = {IOException.class},
+            maxAttempts = 3,
+            backoff = @Backoff(delay = 100)
+    )
+    public FileEntity saveFile(MultipartFile file, AuthenticatedUser user) throws FileStorageException, ValidationException {
+        return saveFile(file, null, user);
     }
 
+    /**
+     * @param contentSha256 hex SHA-256 the client declared for the content, or {@code null};
+     *                      content already validated under the current rules is then only hashed
+     */
     @Retryable(
             value = {IOException.class},
             maxAttempts = 3,
             backoff = @Backoff(delay = 100)
     )
-    public FileEntity saveFile(MultipartFile file, User user) throws FileStorageException, ValidationException {
+    public FileEntity saveFile(MultipartFile file, String contentSha256, AuthenticatedUser user)
+            throws FileStorageException, ValidationException {
+        return saveFile(file.getOriginalFilename(), file.getContentType(), file.getSize(), file, contentSha256, user);
+    }
 
+    /**
+     * Validates and stores content that is not held in a {@link MultipartFile}, such as an
+     * upload spooled for asynchronous processing. The content is read once: validation,
+     * hashing and encryption all consume the same stream.
+     *
+     * @param contentSha256 hex SHA-256 the client declared for the content, or {@code null}
+     * @throws FileValidator.FileValidationException if the content fails validation
+     */
+    @Retryable(
+            value = {IOException.class},
+            maxAttempts = 3,
+            backoff = @Backoff(delay = 100)
+    )
+    public FileEntity saveFile(String originalFilename, String contentType, long size,
+                               InputStreamSource content, String contentSha256, AuthenticatedUser user)
+            throws FileStorageException {
+        fileValidator.validateMetadata(originalFilename, contentType, size);
         try {
-            String storedFilename = generateSecureFilename(file.getOriginalFilename());
-            Path destination = uploadDir.resolve(storedFilename);
+            ContentInspection inspection = fileValidator.newInspection(originalFilename, contentSha256);
+
+            // With the hash declared up front, content the owner already stores is only inspected, not encrypted again
+            Optional<StoredBlob> declared = contentSha256 == null
+                    ? Optional.empty()
+                    : blobRepository.findByOwnerIdAndContentHash(user.id(), contentSha256.toLowerCase(Locale.ROOT));
+            if (declared.isPresent()) {
+                Optional<FileEntity> duplicate =
+                        saveDuplicate(originalFilename, contentType, size, content, inspection, declared.get(), user);
+                if (duplicate.isPresent()) {
+                    return duplicate.get();
+                }
+                // The blob was released while the upload was read, so the content is stored after all
+                inspection = fileValidator.newInspection(originalFilename, contentSha256);
+            }
+
+            DataKey dataKey = keyService.newDataKey();
+            String storageKey = generateStorageKey();
+            try (InputStream in = inspection.wrap(content.getInputStream())) {
+                writeEncrypted(in, contentType, size, storageKey, dataKey.encryption());
+            }
+            String contentHash;
+            try {
+                contentHash = inspection.verify();
+            } catch (FileValidator.FileValidationException e) {
+                blobStore.delete(storageKey);
+                throw e;
+            }
+
+            // Without a declared hash it is only known once the content has been encrypted, so a duplicate's ciphertext is dropped
+            Optional<StoredBlob> existing = acquireBlob(user, contentHash);
+            StoredBlob blob;
+            if (existing.isPresent()) {
+                blobStore.delete(storageKey);
+                blob = existing.get();
+            } else {
+                blob = registerBlob(user, contentHash, size, dataKey, storageKey);
+            }
+
+            FileEntity entity = buildFileEntity(originalFilename, contentType, size, blob);
+            FileEntity saved = fileRepository.save(entity);
+
+            auditService.logUpload(user, saved);
+            return saved;
+        } catch (FileValidator.FileValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FileStorageException("Failed to store file", e);
+        }
+    }
+
+    /**
+     * Stores an upload as another reference to {@code blob}, found for the declared hash. The
+     * content is still read through {@code inspection}, which checks it against that hash, but
+     * nothing is encrypted or written. The reference is only taken once the content has passed,
+     * so the blob row is not locked while a slow client streams the body in.
+     *
+     * @return the stored file, or empty if the blob was released in the meantime
+     */
+    private Optional<FileEntity> saveDuplicate(String originalFilename, String contentType, long size,
+                                               InputStreamSource content, ContentInspection inspection,
+                                               StoredBlob blob, AuthenticatedUser user) throws IOException {
+        try (InputStream in = inspection.wrap(content.getInputStream())) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        inspection.verify();
+
+        if (blobRepository.incrementRefCount(blob.getId()) != 1) {
+            return Optional.empty();
+        }
+        FileEntity entity = buildFileEntity(originalFilename, contentType, size, blob);
+        FileEntity saved = fileRepository.save(entity);
+
+        auditService.logUpload(user, saved);
+        return Optional.of(saved);
+    }
 
-            byte[] encrypted = encryptionService.encrypt(file.getBytes());
-            Files.write(destination, encrypted);
+    /**
+     * Location of the encrypted spool file backing a resumable upload session.
+     */
+    public Path resolveSpool(String sessionId) {
+        return spoolDir.resolve(sessionId + ".part");
+    }
+
+    /**
+     * Adopts a fully written spool file, encrypted with {@code dataKey}, as a stored file. The
+     * spool is handed to the blob store as is, not re-encrypted, or simply dropped when the
+     * owner already stores the same content.
+     *
+     * @param contentHash hex SHA-256 of the plaintext, as returned by validation
+     */
+    public FileEntity saveEncryptedSpool(Path spool, String originalFilename, String contentType, long size,
+                                         String contentHash, DataKey dataKey, AuthenticatedUser user) throws FileStorageException {
+        try {
+            Optional<StoredBlob> existing = acquireBlob(user, contentHash);
+            StoredBlob blob;
+            if (existing.isPresent()) {
+                Files.delete(spool);
+                blob = existing.get();
+            } else {
+                blob = createBlob(user, contentHash, size, dataKey,
+                        storageKey -> blobStore.putFile(storageKey, spool));
+            }
 
-            FileEntity entity = buildFileEntity(file, storedFilename, user);
+            FileEntity entity = buildFileEntity(originalFilename, contentType, size, blob);
             FileEntity saved = fileRepository.save(entity);
 
             auditService.logUpload(user, saved);
@@ -58,53 +218,265 @@ public class FileStorageService {
 
     public byte[] getFileContent(FileEntity file) throws FileStorageException {
         try {
-            Path path = uploadDir.resolve(file.getStoredFilename());
-            byte[] encrypted = Files.readAllBytes(path);
-            return encryptionService.decrypt(encrypted);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(file.getSize(), Integer.MAX_VALUE - 8));
+            try (InputStream in = blobStore.get(file.getStoredFilename())) {
+                encryptionFor(file).decrypt(in, out, file.getSize());
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new FileStorageException("Failed to retrieve file", e);
+        }
+    }
+
+    /**
+     * Decrypts the stored file straight into {@code out}, one segment at a time, or copies it
+     * from the decrypted content cache when enabled. Runs outside any transaction because it is
+     * usually invoked from an async response-writing thread.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void writeFileContent(FileEntity file, OutputStream out) throws FileStorageException {
+        try {
+            Optional<ByteBuffer> cached = contentCache.get(file, sink -> decryptCacheable(file, sink));
+            if (cached.isPresent()) {
+                Channels.newChannel(out).write(cached.get());
+                return;
+            }
+            try (InputStream in = blobStore.get(file.getStoredFilename())) {
+                encryptionFor(file).decrypt(in, out, file.getSize());
+            }
+        } catch (Exception e) {
+            throw new FileStorageException("Failed to retrieve file", e);
+        }
+    }
+
+    /**
+     * Opens the stored file's plaintext as a stream, decrypted as it is read, for consumers
+     * that pull content rather than have it written to them.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public InputStream openFileContent(FileEntity file) throws FileStorageException {
+        InputStream in = null;
+        try {
+            in = blobStore.get(file.getStoredFilename());
+            return encryptionFor(file).openDecryptingStream(in, file.getSize());
         } catch (Exception e) {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
             throw new FileStorageException("Failed to retrieve file", e);
         }
     }
 
-    public void deleteFile(Long fileId, User user) throws FileStorageException {
+    /**
+     * Decrypts only plaintext bytes {@code [offset, offset + length)} of the stored file.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void writeFileContent(FileEntity file, long offset, long length, OutputStream out) throws FileStorageException {
+        String key = file.getStoredFilename();
+        try {
+            Optional<ByteBuffer> cached = contentCache.get(file, sink -> decryptCacheable(file, sink));
+            if (cached.isPresent()) {
+                ByteBuffer content = cached.get();
+                if (offset < content.limit()) {
+                    content.limit((int) Math.min(content.limit(), offset + length)).position((int) offset);
+                    Channels.newChannel(out).write(content);
+                }
+                return;
+            }
+            encryptionFor(file).decrypt((from, count) -> blobStore.getRange(key, from, count),
+                    blobStore.size(key), offset, length, out);
+        } catch (Exception e) {
+            throw new FileStorageException("Failed to retrieve file range", e);
+        }
+    }
+
+    public void deleteFile(Long fileId, AuthenticatedUser user) throws FileStorageException {
         FileEntity file = fileRepository.findById(fileId)
                 .orElseThrow(() -> new FileNotFoundException(fileId));
 
-        if (!file.getUser().getId().equals(user.getId())) {
+        if (!file.getUser().getId().equals(user.id())) {
             throw new SecurityException(
-                    String.format("User %s is not authorized to delete file %d owned by user %s",
-                            user.getEmail(),
+                    String.format("User %s is not authorized to delete file %d owned by user %d",
+                            user.email(),
                             fileId,
-                            file.getUser().getEmail())
+                            file.getUser().getId())
             );
         }
 
         try {
-            Files.deleteIfExists(uploadDir.resolve(file.getStoredFilename()));
+            sharedFileRepository.deleteByFile(file);
             fileRepository.delete(file);
+            // The row must be gone before its blob can be released
+            fileRepository.flush();
+            releaseBlob(file);
+            contentCache.invalidate(fileId);
             auditService.logDeletion(user, file);
         } catch (IOException e) {
             throw new FileStorageException("Failed to delete file", e);
         }
     }
 
-    private FileEntity buildFileEntity(MultipartFile file, String storedFilename, User user) {
+    /**
+     * Takes another reference on the owner's blob with this content, if there is one.
+     */
+    private Optional<StoredBlob> acquireBlob(AuthenticatedUser user, String contentHash) {
+        return blobRepository.findByOwnerIdAndContentHash(user.id(), contentHash)
+                .filter(blob -> blobRepository.incrementRefCount(blob.getId()) == 1);
+    }
+
+    /**
+     * Writes a new ciphertext and registers it as the owner's blob for {@code contentHash}. If a
+     * concurrent upload of the same content registered first, ours is discarded and theirs shared.
+     */
+    private StoredBlob createBlob(AuthenticatedUser user, String contentHash, long size, DataKey dataKey, BlobWriter writer)
+            throws IOException, CryptoException {
+        String storageKey = generateStorageKey();
+        writer.write(storageKey);
+        return registerBlob(user, contentHash, size, dataKey, storageKey);
+    }
+
+    /**
+     * Registers an already written ciphertext as the owner's blob for {@code contentHash}.
+     */
+    private StoredBlob registerBlob(AuthenticatedUser user, String contentHash, long size, DataKey dataKey, String storageKey)
+            throws IOException {
+        deleteOnRollback(storageKey);
+
+        if (blobRepository.insertIfAbsent(user.id(), contentHash, storageKey, size, Instant.now(),
+                dataKey.version(), dataKey.wrappedKey()) == 1) {
+            return blobRepository.findByOwnerIdAndContentHash(user.id(), contentHash)
+                    .orElseThrow(() -> new IllegalStateException("Blob disappeared after insert"));
+        }
+        blobStore.delete(storageKey);
+        return acquireBlob(user, contentHash)
+                .orElseThrow(() -> new IllegalStateException("Concurrently stored blob was deleted"));
+    }
+
+    private void releaseBlob(FileEntity file) throws IOException {
+        StoredBlob blob = file.getBlob();
+        if (blob == null) {
+            deleteAfterCommit(file.getStoredFilename());
+            return;
+        }
+        releaseBlob(blob);
+    }
+
+    private void releaseBlob(StoredBlob blob) throws IOException {
+        blobRepository.decrementRefCount(blob.getId());
+        if (blobRepository.deleteIfUnreferenced(blob.getId()) == 1) {
+            deleteAfterCommit(blob.getStorageKey());
+        }
+    }
+
+    private void deleteAfterCommit(String storageKey) throws IOException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            blobStore.delete(storageKey);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteQuietly(storageKey);
+            }
+        });
+    }
+
+    private void deleteOnRollback(String storageKey) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    deleteQuietly(storageKey);
+                }
+            }
+        });
+    }
+
+    private void deleteQuietly(String storageKey) {
+        try {
+            blobStore.delete(storageKey);
+        } catch (IOException e) {
+            log.warn("Could not delete stored blob {}", storageKey, e);
+        }
+    }
+
+    private void writeEncrypted(InputStream in, String contentType, long size, String storageKey,
+                                EncryptionService encryption) throws IOException, CryptoException {
+        CompressionCodec codec = compressionPolicy.codecFor(contentType);
+        try (CountingOutputStream out = new CountingOutputStream(blobStore.put(storageKey))) {
+            long plaintextBytes = encryption.encrypt(in, out, codec, size);
+            compressionPolicy.recordRatio(contentType, codec, plaintextBytes, out.count);
+        } catch (IOException | CryptoException | RuntimeException e) {
+            // Includes validation failures raised while the content is being read
+            blobStore.delete(storageKey);
+            throw e;
+        }
+    }
+
+    private void decryptCacheable(FileEntity file, OutputStream out) throws IOException {
+        try (InputStream in = blobStore.get(file.getStoredFilename())) {
+            encryptionFor(file).decrypt(in, out, file.getSize());
+        } catch (CryptoException e) {
+            throw new IOException("Failed to decrypt file " + file.getId(), e);
+        }
+    }
+
+    private EncryptionService encryptionFor(FileEntity file) throws CryptoException {
+        return keyService.openDataKey(file.getKeyVersion(), file.getWrappedKey()).encryption();
+    }
+
+    private FileEntity buildFileEntity(String originalFilename, String contentType, long size,
+                                       StoredBlob blob) {
         return FileEntity.builder()
-                .originalFilename(file.getOriginalFilename())
-                .storedFilename(storedFilename)
-                .contentType(file.getContentType())
-                .size(file.getSize())
+                .originalFilename(originalFilename)
+                .storedFilename(blob.getStorageKey())
+                .blob(blob)
+                .keyVersion(blob.getKeyVersion())
+                .wrappedKey(blob.getWrappedKey())
+                .contentType(contentType)
+                .size(size)
                 .uploadedAt(LocalDateTime.now())
-                .user(user)
+                .scanStatus(scanEnabled ? ScanStatus.PENDING : ScanStatus.CLEAN)
+                // The blob is always the uploader's, so its owner reference saves loading the user
+                .user(blob.getOwner())
                 .build();
     }
 
-    private String generateSecureFilename(String originalFilename) {
-        String sanitized = Paths.get(originalFilename).getFileName().toString();
-        return String.format("%s_%d_%s",
-                UUID.randomUUID(),
-                Instant.now().toEpochMilli(),
-                sanitized);
+    // Random rather than derived from the hash, so blob keys reveal nothing about content
+    private String generateStorageKey() {
+        return UUID.randomUUID() + ".blob";
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    @FunctionalInterface
+    private interface BlobWriter {
+        void write(String storageKey) throws IOException, CryptoException;
     }
 
     public static class FileNotFoundException extends RuntimeException {
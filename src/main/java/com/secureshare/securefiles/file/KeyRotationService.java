@@ -0,0 +1,92 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.service.KeyManagementService;
+import com.secureshare.securefiles.service.exception.CryptoException;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Background re-wrapping of data keys after the active master key version changes. Only the
+ * wrapped keys are rewritten, one row per rate limiter permit, so a rotation is a throttled
+ * metadata pass and no stored file is re-encrypted. Once a pass finds nothing left under an
+ * old version, that master key can be removed from the configuration.
+ */
+@Slf4j
+@Service
+public class KeyRotationService {
+    private static final Pageable BATCH = PageRequest.ofSize(100);
+
+    private final StoredBlobRepository blobRepository;
+    private final FileRepository fileRepository;
+    private final UploadSessionRepository sessionRepository;
+    private final KeyManagementService keyService;
+    private final RateLimiter rateLimiter;
+
+    public KeyRotationService(StoredBlobRepository blobRepository,
+                              FileRepository fileRepository,
+                              UploadSessionRepository sessionRepository,
+                              KeyManagementService keyService,
+                              RateLimiterRegistry rateLimiterRegistry) {
+        this.blobRepository = blobRepository;
+        this.fileRepository = fileRepository;
+        this.sessionRepository = sessionRepository;
+        this.keyService = keyService;
+        this.rateLimiter = rateLimiterRegistry.rateLimiter("keyRotation");
+    }
+
+    @Scheduled(fixedDelayString = "${app.encryption.key-rotation-interval:PT15M}")
+    public void rewrapDataKeys() {
+        int version = keyService.activeVersion();
+        // Files carry their own copy of the blob's key, so both are re-wrapped independently
+        int blobs = rewrap(0L, after -> blobRepository.findStaleKeys(version, after, BATCH),
+                blobRepository::replaceWrappedKey);
+        int files = rewrap(0L, after -> fileRepository.findStaleKeys(version, after, BATCH),
+                fileRepository::replaceWrappedKey);
+        int sessions = rewrap("", after -> sessionRepository.findStaleKeys(version, after, BATCH),
+                sessionRepository::replaceWrappedKey);
+        if (blobs + files + sessions > 0) {
+            log.info("Re-wrapped data keys under master key version {}: {} blobs, {} files, {} upload sessions",
+                    version, blobs, files, sessions);
+        }
+    }
+
+    private <ID> int rewrap(ID start, StaleKeyQuery<ID> staleKeys, WrappedKeyUpdate<ID> update) {
+        int rewrapped = 0;
+        ID after = start;
+        List<? extends WrappedKeyHolder<ID>> batch;
+        while (!(batch = staleKeys.after(after)).isEmpty()) {
+            for (WrappedKeyHolder<ID> row : batch) {
+                after = row.getId();
+                if (!rateLimiter.acquirePermission()) {
+                    log.debug("Key rotation throttled; resuming on the next run");
+                    return rewrapped;
+                }
+                try {
+                    byte[] wrappedKey = keyService.rewrap(row.getKeyVersion(), row.getWrappedKey());
+                    // Skipped if the row was deleted or re-wrapped concurrently
+                    rewrapped += update.replace(row.getId(), row.getKeyVersion(), keyService.activeVersion(), wrappedKey);
+                } catch (CryptoException e) {
+                    log.warn("Could not re-wrap data key of {} {}", row.getClass().getSimpleName(), row.getId(), e);
+                }
+            }
+        }
+        return rewrapped;
+    }
+
+    @FunctionalInterface
+    private interface StaleKeyQuery<ID> {
+        List<? extends WrappedKeyHolder<ID>> after(ID id);
+    }
+
+    @FunctionalInterface
+    private interface WrappedKeyUpdate<ID> {
+        int replace(ID id, int previousVersion, int version, byte[] wrappedKey);
+    }
+}
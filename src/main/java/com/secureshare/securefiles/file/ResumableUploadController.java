@@ -0,0 +1,76 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.dto.FileResponseDTO;
+import com.secureshare.securefiles.dto.UploadSessionDTO;
+import com.secureshare.securefiles.dto.UploadSessionRequest;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/files/uploads")
+@RequiredArgsConstructor
+@PreAuthorize("principal.can('file:upload')")
+public class ResumableUploadController {
+
+    private final ResumableUploadService uploadService;
+
+    @PostMapping
+    public ResponseEntity<?> createSession(
+            @RequestBody UploadSessionRequest request,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        try {
+            return ResponseEntity.status(HttpStatus.CREATED).body(uploadService.createSession(request, user));
+        } catch (FileValidator.FileValidationException e) {
+            return validationError(e);
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionDTO> getSession(
+            @PathVariable String sessionId,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        return ResponseEntity.ok(uploadService.getSession(sessionId, user));
+    }
+
+    @PutMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionDTO> uploadChunk(
+            @PathVariable String sessionId,
+            @RequestParam long offset,
+            InputStream body,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        return ResponseEntity.ok(uploadService.appendChunk(sessionId, offset, body, user));
+    }
+
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<?> complete(
+            @PathVariable String sessionId,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        try {
+            return ResponseEntity.ok(FileResponseDTO.fromEntity(uploadService.complete(sessionId, user)));
+        } catch (FileValidator.FileValidationException e) {
+            return validationError(e);
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abort(
+            @PathVariable String sessionId,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        uploadService.abort(sessionId, user);
+        return ResponseEntity.noContent().build();
+    }
+
+    private ResponseEntity<Map<String, String>> validationError(FileValidator.FileValidationException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", e.getMessage(), "code", e.getErrorCode()));
+    }
+}
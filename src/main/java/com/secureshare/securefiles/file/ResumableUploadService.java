@@ -0,0 +1,264 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.dto.UploadSessionDTO;
+import com.secureshare.securefiles.dto.UploadSessionRequest;
+import com.secureshare.securefiles.service.EncryptionService;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.KeyManagementService;
+import com.secureshare.securefiles.service.KeyManagementService.DataKey;
+import com.secureshare.securefiles.service.SegmentedFormat;
+import com.secureshare.securefiles.service.exception.CryptoException;
+import com.secureshare.securefiles.service.exception.FileStorageException;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: a session is created with the declared size, chunks are encrypted and
+ * appended to a spool file as they arrive, and the file is validated and registered once on
+ * completion. Only whole segments are committed, so after a dropped connection the client
+ * resumes from the committed offset and resends just the missing tail.
+ */
+@Slf4j
+@Service
+@Transactional
+@RequiredArgsConstructor
+public class ResumableUploadService {
+
+    private final UploadSessionRepository sessionRepository;
+    private final FileStorageService fileStorageService;
+    private final KeyManagementService keyService;
+    private final FileValidator fileValidator;
+    private final UserRepository userRepository;
+    private final TransactionOperations transactions;
+
+    @Value("${app.upload.session-ttl:24h}")
+    private Duration sessionTtl;
+
+    public UploadSessionDTO createSession(UploadSessionRequest request, AuthenticatedUser user) {
+        fileValidator.validateMetadata(request.getFilename(), request.getContentType(), request.getSize());
+
+        DataKey dataKey;
+        try {
+            dataKey = keyService.newDataKey();
+        } catch (CryptoException e) {
+            throw new FileStorageException("Failed to create upload session", e);
+        }
+        SegmentedFormat format = dataKey.encryption().segmentedFormat();
+        UploadSession session = UploadSession.builder()
+                .id(UUID.randomUUID().toString())
+                .originalFilename(request.getFilename())
+                .contentType(request.getContentType())
+                .totalSize(request.getSize())
+                .committedSize(0)
+                .segmentSize(format.segmentSize())
+                .createdAt(Instant.now())
+                .expiresAt(Instant.now().plus(sessionTtl))
+                .keyVersion(dataKey.version())
+                .wrappedKey(dataKey.wrappedKey())
+                .user(userRepository.getReferenceById(user.id()))
+                .build();
+
+        try {
+            Files.write(fileStorageService.resolveSpool(session.getId()), format.header(), StandardOpenOption.CREATE_NEW);
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to create upload session", e);
+        }
+        return UploadSessionDTO.fromEntity(sessionRepository.save(session));
+    }
+
+    public UploadSessionDTO getSession(String sessionId, AuthenticatedUser user) {
+        return UploadSessionDTO.fromEntity(findOwnedSession(sessionId, user, false));
+    }
+
+    /**
+     * Encrypts the chunk starting at {@code offset} and appends it to the session spool.
+     * Segments are committed one at a time; a trailing partial segment of a non-final chunk, or
+     * the remainder of a chunk whose connection dropped, is discarded and must be resent. A
+     * chunk must therefore hold at least one whole segment, or the rest of the upload.
+     *
+     * <p>The chunk is encrypted into a file of its own while it is received, without a
+     * transaction. The session is only locked afterwards, to check the offset again and append
+     * that file to the spool, so a slow client does not hold the lock or a connection.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public UploadSessionDTO appendChunk(String sessionId, long offset, InputStream body, AuthenticatedUser user) {
+        // Checked again under the lock; this only avoids reading a chunk that cannot be accepted
+        UploadSession session = findOwnedSession(sessionId, user, false);
+        checkOffset(session, offset);
+
+        SegmentedFormat format = SegmentedFormat.of(session.getSegmentSize(), SegmentedFormat.CODEC_NONE);
+        int segmentSize = format.segmentSize();
+        long total = session.getTotalSize();
+        long committed = offset;
+        boolean interrupted = false;
+        Path chunk = fileStorageService.resolveSpool(sessionId)
+                .resolveSibling(sessionId + "." + UUID.randomUUID() + ".chunk");
+
+        try {
+            try (OutputStream out = Files.newOutputStream(chunk, StandardOpenOption.CREATE_NEW)) {
+                EncryptionService encryption = dataKey(session).encryption();
+                byte[] plain = new byte[segmentSize];
+                try {
+                    while (committed < total) {
+                        int wanted = (int) Math.min(segmentSize, total - committed);
+                        int read = body.readNBytes(plain, 0, wanted);
+                        if (read < wanted) {
+                            break;
+                        }
+                        encryption.encryptSegment(format, committed / segmentSize,
+                                committed + read == total, plain, read, out);
+                        committed += read;
+                    }
+                    if (committed == total && body.read() != -1) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                                "Chunk extends past the declared size of " + total + " bytes");
+                    }
+                } catch (IOException e) {
+                    log.info("Upload session {} interrupted at offset {}: {}", sessionId, committed, e.getMessage());
+                    interrupted = true;
+                }
+            }
+            if (committed == offset && !interrupted) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Chunk must hold at least one whole segment of " + segmentSize + " bytes or the rest of the upload");
+            }
+
+            long end = committed;
+            return transactions.execute(status -> commitChunk(sessionId, offset, end, chunk, user));
+        } catch (IOException | CryptoException e) {
+            throw new FileStorageException("Failed to write upload chunk", e);
+        } finally {
+            try {
+                Files.deleteIfExists(chunk);
+            } catch (IOException e) {
+                log.warn("Could not delete chunk file {}", chunk, e);
+            }
+        }
+    }
+
+    // Runs under the session lock: appends the encrypted chunk and moves the committed offset to end
+    private UploadSessionDTO commitChunk(String sessionId, long offset, long end, Path chunk, AuthenticatedUser user) {
+        UploadSession session = findOwnedSession(sessionId, user, true);
+        checkOffset(session, offset);
+        if (end == offset) {
+            return UploadSessionDTO.fromEntity(session);
+        }
+
+        SegmentedFormat format = SegmentedFormat.of(session.getSegmentSize(), SegmentedFormat.CODEC_NONE);
+        try (FileChannel spool = FileChannel.open(fileStorageService.resolveSpool(sessionId), StandardOpenOption.WRITE);
+             FileChannel in = FileChannel.open(chunk, StandardOpenOption.READ)) {
+            // Drop anything a previous, interrupted request wrote past the committed offset
+            long committedEnd = format.segmentOffset(offset / format.segmentSize());
+            spool.truncate(committedEnd);
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, spool.position(committedEnd + position));
+            }
+        } catch (IOException e) {
+            throw new FileStorageException("Failed to write upload chunk", e);
+        }
+
+        session.setCommittedSize(end);
+        return UploadSessionDTO.fromEntity(sessionRepository.save(session));
+    }
+
+    private static void checkOffset(UploadSession session, long offset) {
+        if (offset != session.getCommittedSize()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Expected offset " + session.getCommittedSize() + " but got " + offset);
+        }
+    }
+
+    /**
+     * Validates the assembled upload and registers it as a file. A session whose content fails
+     * validation is discarded, since resending it cannot change the verdict.
+     */
+    @Transactional(noRollbackFor = FileValidator.FileValidationException.class)
+    public FileEntity complete(String sessionId, AuthenticatedUser user) {
+        UploadSession session = findOwnedSession(sessionId, user, true);
+        if (!session.isComplete()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Upload incomplete: " + session.getCommittedSize() + " of " + session.getTotalSize() + " bytes received");
+        }
+
+        Path spool = fileStorageService.resolveSpool(sessionId);
+        DataKey dataKey;
+        try {
+            dataKey = dataKey(session);
+        } catch (CryptoException e) {
+            throw new FileStorageException("Failed to open upload session key", e);
+        }
+        String contentHash;
+        try {
+            contentHash = fileValidator.validate(session.getOriginalFilename(), session.getContentType(), session.getTotalSize(),
+                    () -> dataKey.encryption().openDecryptingStream(Files.newInputStream(spool), session.getTotalSize()));
+        } catch (FileValidator.FileValidationException e) {
+            discard(session);
+            throw e;
+        }
+
+        FileEntity saved = fileStorageService.saveEncryptedSpool(spool, session.getOriginalFilename(),
+                session.getContentType(), session.getTotalSize(), contentHash, dataKey, user);
+        sessionRepository.delete(session);
+        return saved;
+    }
+
+    public void abort(String sessionId, AuthenticatedUser user) {
+        discard(findOwnedSession(sessionId, user, true));
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.session-cleanup-interval:PT1H}")
+    public void purgeExpiredSessions() {
+        for (UploadSession session : sessionRepository.findByExpiresAtBefore(Instant.now())) {
+            log.info("Purging expired upload session {}", session.getId());
+            discard(session);
+        }
+    }
+
+    private UploadSession findOwnedSession(String sessionId, AuthenticatedUser user, boolean forUpdate) {
+        UploadSession session = (forUpdate
+                ? sessionRepository.findByIdForUpdate(sessionId)
+                : sessionRepository.findById(sessionId))
+                .filter(s -> s.getUser().getId().equals(user.id()))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+        if (session.isExpired()) {
+            // Left for purgeExpiredSessions to clean up
+            throw new ResponseStatusException(HttpStatus.GONE, "Upload session expired");
+        }
+        return session;
+    }
+
+    private DataKey dataKey(UploadSession session) throws CryptoException {
+        return keyService.openDataKey(session.getKeyVersion(), session.getWrappedKey());
+    }
+
+    private void discard(UploadSession session) {
+        try {
+            Files.deleteIfExists(fileStorageService.resolveSpool(session.getId()));
+        } catch (IOException e) {
+            log.warn("Could not delete spool for upload session {}", session.getId(), e);
+        }
+        sessionRepository.delete(session);
+    }
+}
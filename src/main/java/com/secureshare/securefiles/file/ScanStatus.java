@@ -0,0 +1,13 @@
+package com.secureshare.securefiles.file;
+
+/**
+ * Where a stored file stands with the malware scanner. {@link #QUARANTINED} files may never be
+ * downloaded or shared, and files not found clean only once scanning is turned off.
+ */
+public enum ScanStatus {
+    PENDING,
+    CLEAN,
+    QUARANTINED,
+    // The scanner gave up on the file, either after repeated failures or because it is too large
+    SCAN_FAILED
+}
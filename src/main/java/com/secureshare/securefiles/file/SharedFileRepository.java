@@ -15,7 +15,7 @@ public interface SharedFileRepository extends JpaRepository<SharedFile, Long> {
 
     Optional<SharedFile> findByToken(String token);
 
-    Page<SharedFile> findBySharedBy(User user, Pageable pageable);
+    Page<SharedFile> findBySharedById(Integer userId, Pageable pageable);
 
     boolean existsByTokenAndSharedBy(String token, User user);
 
@@ -0,0 +1,50 @@
+package com.secureshare.securefiles.file;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.secureshare.securefiles.user.User;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * One encrypted ciphertext on disk, shared by every {@link FileEntity} of the same owner whose
+ * plaintext has the same SHA-256. {@code refCount} is the number of files pointing at it; the
+ * ciphertext is deleted when it drops to zero. Each blob is encrypted with its own data key.
+ */
+@Entity
+@Table(name = "stored_blob",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"owner_id", "content_hash"}))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredBlob implements WrappedKeyHolder<Long> {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    @ToString.Exclude
+    @JsonIgnore
+    private User owner;
+
+    @Column(length = 64, nullable = false)
+    private String contentHash;
+
+    @Column(nullable = false, unique = true)
+    private String storageKey;
+
+    private long size;
+    private int refCount;
+    private Instant createdAt;
+
+    // Data key wrapped under master key keyVersion; null for blobs encrypted with the secret key itself
+    private Integer keyVersion;
+
+    @ToString.Exclude
+    @JsonIgnore
+    private byte[] wrappedKey;
+}
@@ -0,0 +1,58 @@
+package com.secureshare.securefiles.file;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, Long> {
+
+    Optional<StoredBlob> findByOwnerIdAndContentHash(Integer ownerId, String contentHash);
+
+    // Does not abort the surrounding transaction when a concurrent upload registered the same content first
+    @Modifying
+    @Query(value = "INSERT INTO stored_blob (owner_id, content_hash, storage_key, size, ref_count, created_at, " +
+            "key_version, wrapped_key) " +
+            "VALUES (:ownerId, :contentHash, :storageKey, :size, 1, :createdAt, :keyVersion, :wrappedKey) " +
+            "ON CONFLICT (owner_id, content_hash) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("ownerId") Integer ownerId,
+                       @Param("contentHash") String contentHash,
+                       @Param("storageKey") String storageKey,
+                       @Param("size") long size,
+                       @Param("createdAt") Instant createdAt,
+                       @Param("keyVersion") Integer keyVersion,
+                       @Param("wrappedKey") byte[] wrappedKey);
+
+    // A blob whose count already reached zero is being deleted and must not be revived
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount + 1 WHERE b.id = :id AND b.refCount > 0")
+    int incrementRefCount(@Param("id") Long id);
+
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount - 1 WHERE b.id = :id")
+    int decrementRefCount(@Param("id") Long id);
+
+    @Modifying
+    @Query("DELETE FROM StoredBlob b WHERE b.id = :id AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("id") Long id);
+
+    // Rows whose data key is wrapped under another master key, in id order for KeyRotationService
+    @Query("SELECT b FROM StoredBlob b WHERE b.wrappedKey IS NOT NULL AND b.keyVersion <> :version " +
+            "AND b.id > :afterId ORDER BY b.id")
+    List<StoredBlob> findStaleKeys(@Param("version") int version, @Param("afterId") Long afterId, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.keyVersion = :version, b.wrappedKey = :wrappedKey " +
+            "WHERE b.id = :id AND b.keyVersion = :previousVersion")
+    int replaceWrappedKey(@Param("id") Long id, @Param("previousVersion") int previousVersion,
+                          @Param("version") int version, @Param("wrappedKey") byte[] wrappedKey);
+}
@@ -0,0 +1,81 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.dto.FileResponseDTO;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * An upload accepted for asynchronous processing. Jobs live in memory on the node that
+ * accepted the upload, since that is where the spooled content is.
+ */
+@Getter
+public class UploadJob {
+
+    public enum Status { QUEUED, PROCESSING, COMPLETED, FAILED }
+
+    private final String id;
+    private final Integer userId;
+    private final String originalFilename;
+    private final String contentType;
+    private final long size;
+    private final Instant createdAt = Instant.now();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile long bytesProcessed;
+    private volatile Instant finishedAt;
+    private volatile FileResponseDTO file;
+    private volatile String error;
+    private volatile String errorCode;
+
+    UploadJob(String id, Integer userId, String originalFilename, String contentType, long size) {
+        this.id = id;
+        this.userId = userId;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.size = size;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    /**
+     * Percentage done, from the bytes read so far. Content is read in a single pass, so this
+     * stays at 99 only while the stored file is being registered.
+     */
+    public int progress() {
+        if (isFinished()) {
+            return 100;
+        }
+        long total = Math.max(1, size);
+        return (int) Math.min(99, bytesProcessed * 100 / total);
+    }
+
+    void start(Status stage) {
+        this.status = stage;
+    }
+
+    // Called from the worker thread only; returns whether the reported percentage changed
+    boolean addProgress(long bytes) {
+        int before = progress();
+        bytesProcessed += bytes;
+        return progress() != before;
+    }
+
+    void complete(FileResponseDTO file) {
+        this.file = file;
+        finish(Status.COMPLETED);
+    }
+
+    void fail(String error, String errorCode) {
+        this.error = error;
+        this.errorCode = errorCode;
+        finish(Status.FAILED);
+    }
+
+    private void finish(Status status) {
+        this.finishedAt = Instant.now();
+        this.status = status;
+    }
+}
@@ -0,0 +1,69 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.dto.UploadJobDTO;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/files/jobs")
+@RequiredArgsConstructor
+@PreAuthorize("principal.can('file:upload')")
+public class UploadJobController {
+
+    private final UploadJobService uploadJobService;
+
+    @PostMapping
+    @RateLimiter(name = "fileUpload", fallbackMethod = "uploadRateLimitExceeded")
+    public ResponseEntity<?> submit(
+            @RequestParam("file") MultipartFile file,
+            @RequestHeader(value = FileController.CONTENT_SHA256_HEADER, required = false) String contentSha256,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        try {
+            UploadJobDTO job = uploadJobService.submit(file, contentSha256, user);
+            return ResponseEntity.accepted()
+                    .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(job.id()).toUri())
+                    .body(job);
+        } catch (FileValidator.FileValidationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage(), "code", e.getErrorCode()));
+        } catch (UploadJobService.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<UploadJobDTO> getJob(
+            @PathVariable String jobId,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        return ResponseEntity.ok(uploadJobService.getJob(jobId, user));
+    }
+
+    @GetMapping(path = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamJob(
+            @PathVariable String jobId,
+            @AuthenticationPrincipal AuthenticatedUser user) {
+        return uploadJobService.subscribe(jobId, user);
+    }
+
+    public ResponseEntity<String> uploadRateLimitExceeded(MultipartFile file, String contentSha256, AuthenticatedUser user,
+                                                          Exception ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .body("Upload rate limit exceeded. Please try again later.");
+    }
+}
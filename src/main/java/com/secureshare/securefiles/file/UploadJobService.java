@@ -0,0 +1,287 @@
+package com.secureshare.securefiles.file;
+
+import com.secureshare.securefiles.dto.FileResponseDTO;
+import com.secureshare.securefiles.dto.UploadJobDTO;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.exception.FileStorageException;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous uploads: the request only spools the upload and enqueues a job, and validation,
+ * encryption and persistence run on a bounded worker pool, in a single pass over the spool.
+ * When the queue is full new uploads are refused rather than buffered, so a burst cannot
+ * exhaust disk or memory.
+ */
+@Slf4j
+@Service
+public class UploadJobService {
+    private static final String SPOOL_SUFFIX = ".upload";
+
+    private final FileStorageService fileStorageService;
+    private final FileValidator fileValidator;
+    private final Path spoolDir;
+    private final Duration jobTtl;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public UploadJobService(FileStorageService fileStorageService,
+                            FileValidator fileValidator,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.upload.async.spool-dir:uploads/.jobs}") Path spoolDir,
+                            @Value("${app.upload.async.workers:2}") int workers,
+                            @Value("${app.upload.async.queue-capacity:16}") int queueCapacity,
+                            @Value("${app.upload.async.job-ttl:1h}") Duration jobTtl) {
+        this.fileStorageService = fileStorageService;
+        this.fileValidator = fileValidator;
+        this.spoolDir = spoolDir.toAbsolutePath();
+        this.jobTtl = jobTtl;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("upload-job-"));
+        new ExecutorServiceMetrics(executor, "uploadJobs", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(spoolDir);
+        // Jobs do not survive a restart, so neither do their spools
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(spoolDir, "*" + SPOOL_SUFFIX)) {
+            for (Path spool : leftovers) {
+                deleteQuietly(spool);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs the metadata checks, spools the upload and queues it for processing.
+     *
+     * @param contentSha256 hex SHA-256 the client declared for the content, or {@code null}
+     * @throws QueueFullException when the worker pool has no room for another job
+     */
+    public UploadJobDTO submit(MultipartFile file, String contentSha256, AuthenticatedUser user) {
+        fileValidator.validateMetadata(file.getOriginalFilename(), file.getContentType(), file.getSize());
+        if (executor.getQueue().remainingCapacity() == 0) {
+            // Cheap early refusal; the submit below is the authoritative check
+            throw new QueueFullException();
+        }
+
+        UploadJob job = new UploadJob(UUID.randomUUID().toString(), user.id(),
+                file.getOriginalFilename(), file.getContentType(), file.getSize());
+        Path spool = spoolDir.resolve(job.getId() + SPOOL_SUFFIX);
+        try {
+            // The File overload lets the container move its temp file instead of copying it
+            file.transferTo(spool.toFile());
+        } catch (IOException e) {
+            deleteQuietly(spool);
+            throw new FileStorageException("Failed to spool upload", e);
+        }
+
+        jobs.put(job.getId(), job);
+        // Snapshot before queuing, as a worker may pick the job up straight away
+        UploadJobDTO accepted = UploadJobDTO.fromJob(job);
+        try {
+            executor.execute(new DelegatingSecurityContextRunnable(() -> process(job, spool, contentSha256, user)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            deleteQuietly(spool);
+            throw new QueueFullException();
+        }
+        return accepted;
+    }
+
+    public UploadJobDTO getJob(String jobId, AuthenticatedUser user) {
+        return UploadJobDTO.fromJob(findOwnedJob(jobId, user));
+    }
+
+    /**
+     * Streams the job's state as server-sent events on every stage change and percent of
+     * progress, completing after the final state.
+     */
+    public SseEmitter subscribe(String jobId, AuthenticatedUser user) {
+        UploadJob job = findOwnedJob(jobId, user);
+        SseEmitter emitter = new SseEmitter(jobTtl.toMillis());
+        if (job.isFinished()) {
+            // Nothing more will be published, so the final state is all there is to send
+            send(emitter, UploadJobDTO.fromJob(job), true);
+            return emitter;
+        }
+        subscribers.compute(jobId, (id, emitters) -> {
+            List<SseEmitter> registered = emitters != null ? emitters : new CopyOnWriteArrayList<>();
+            registered.add(emitter);
+            return registered;
+        });
+        emitter.onCompletion(() -> unsubscribe(jobId, emitter));
+        emitter.onTimeout(() -> unsubscribe(jobId, emitter));
+
+        // A job finishing right now may also publish its final state here; clients see it twice at most
+        send(emitter, UploadJobDTO.fromJob(job), job.isFinished());
+        if (job.isFinished()) {
+            // It may have finished before the emitter was registered, leaving nobody to remove it
+            unsubscribe(jobId, emitter);
+        }
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.async.cleanup-interval:PT5M}")
+    public void purgeFinishedJobs() {
+        Instant cutoff = Instant.now().minus(jobTtl);
+        jobs.values().removeIf(job -> {
+            if (!job.isFinished() || !job.getFinishedAt().isBefore(cutoff)) {
+                return false;
+            }
+            subscribers.remove(job.getId());
+            return true;
+        });
+    }
+
+    private void process(UploadJob job, Path spool, String contentSha256, AuthenticatedUser user) {
+        InputStreamSource content = () -> new ProgressInputStream(Files.newInputStream(spool), job);
+        try {
+            advance(job, UploadJob.Status.PROCESSING);
+            FileEntity saved = fileStorageService.saveFile(job.getOriginalFilename(), job.getContentType(),
+                    job.getSize(), content, contentSha256, user);
+            job.complete(FileResponseDTO.fromEntity(saved));
+        } catch (FileValidator.FileValidationException e) {
+            job.fail(e.getMessage(), e.getErrorCode());
+        } catch (Exception e) {
+            log.warn("Upload job {} failed", job.getId(), e);
+            job.fail("File upload failed", "UPLOAD_FAILED");
+        } finally {
+            deleteQuietly(spool);
+            publish(job);
+        }
+    }
+
+    private void advance(UploadJob job, UploadJob.Status stage) {
+        job.start(stage);
+        publish(job);
+    }
+
+    private void publish(UploadJob job) {
+        List<SseEmitter> emitters = subscribers.get(job.getId());
+        if (emitters == null) {
+            return;
+        }
+        UploadJobDTO state = UploadJobDTO.fromJob(job);
+        for (SseEmitter emitter : emitters) {
+            send(emitter, state, job.isFinished());
+        }
+        if (job.isFinished()) {
+            subscribers.remove(job.getId());
+        }
+    }
+
+    // Drops the job's entry along with its last emitter
+    private void unsubscribe(String jobId, SseEmitter emitter) {
+        subscribers.computeIfPresent(jobId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+
+    private void send(SseEmitter emitter, UploadJobDTO state, boolean last) {
+        try {
+            emitter.send(SseEmitter.event().name("job").data(state));
+            if (last) {
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            // The client went away; the emitter's completion callback unsubscribes it
+            emitter.completeWithError(e);
+        }
+    }
+
+    private UploadJob findOwnedJob(String jobId, AuthenticatedUser user) {
+        UploadJob job = jobs.get(jobId);
+        if (job == null || !job.getUserId().equals(user.id())) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload job not found");
+        }
+        return job;
+    }
+
+    private static void deleteQuietly(Path spool) {
+        try {
+            Files.deleteIfExists(spool);
+        } catch (IOException e) {
+            log.warn("Could not delete upload spool {}", spool, e);
+        }
+    }
+
+    private final class ProgressInputStream extends FilterInputStream {
+        private final UploadJob job;
+
+        ProgressInputStream(InputStream in, UploadJob job) {
+            super(in);
+            this.job = job;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                record(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                record(read);
+            }
+            return read;
+        }
+
+        private void record(long bytes) {
+            if (job.addProgress(bytes)) {
+                publish(job);
+            }
+        }
+    }
+
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException() {
+            super("Upload queue is full, try again later");
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.secureshare.securefiles.file;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.secureshare.securefiles.user.User;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A resumable upload in progress. Chunks are encrypted into a spool file as they arrive;
+ * {@code committedSize} is the number of plaintext bytes durably written to it.
+ */
+@Entity
+@Table(name = "upload_sessions")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession implements WrappedKeyHolder<String> {
+
+    @Id
+    private String id;
+
+    private String originalFilename;
+    private String contentType;
+    private long totalSize;
+    private long committedSize;
+    private int segmentSize;
+    private Instant createdAt;
+    private Instant expiresAt;
+
+    // Data key the spool is encrypted with, handed to the stored blob on completion
+    private Integer keyVersion;
+
+    @ToString.Exclude
+    @JsonIgnore
+    private byte[] wrappedKey;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    @ToString.Exclude
+    @JsonIgnore
+    private User user;
+
+    public boolean isExpired() {
+        return expiresAt != null && Instant.now().isAfter(expiresAt);
+    }
+
+    public boolean isComplete() {
+        return committedSize == totalSize;
+    }
+}
@@ -0,0 +1,37 @@
+package com.secureshare.securefiles.file;
+
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    // Serializes chunk writes for one session, including across nodes
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM UploadSession s WHERE s.id = :id")
+    Optional<UploadSession> findByIdForUpdate(@Param("id") String id);
+
+    List<UploadSession> findByExpiresAtBefore(Instant cutoff);
+
+    @Query("SELECT s FROM UploadSession s WHERE s.wrappedKey IS NOT NULL AND s.keyVersion <> :version " +
+            "AND s.id > :afterId ORDER BY s.id")
+    List<UploadSession> findStaleKeys(@Param("version") int version, @Param("afterId") String afterId, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.keyVersion = :version, s.wrappedKey = :wrappedKey " +
+            "WHERE s.id = :id AND s.keyVersion = :previousVersion")
+    int replaceWrappedKey(@Param("id") String id, @Param("previousVersion") int previousVersion,
+                          @Param("version") int version, @Param("wrappedKey") byte[] wrappedKey);
+}
@@ -0,0 +1,13 @@
+package com.secureshare.securefiles.file;
+
+/**
+ * A row holding a wrapped data key, as re-wrapped by {@link KeyRotationService}.
+ */
+interface WrappedKeyHolder<ID> {
+
+    ID getId();
+
+    Integer getKeyVersion();
+
+    byte[] getWrappedKey();
+}
@@ -0,0 +1,337 @@
+package com.secureshare.securefiles.scan;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * {@link ContentScanner} speaking the clamd protocol over TCP. Every connection runs an
+ * {@code IDSESSION}, so a batch's {@code INSTREAM} requests are written back to back while a
+ * reader collects the replies, which clamd numbers by request and may send out of order. A batch
+ * is split across up to {@code maxConnections} sessions scanned in parallel, and sessions are
+ * kept open between batches unless they have been idle longer than clamd is likely to wait.
+ * <p>
+ * clamd drops the whole session when a stream exceeds its {@code StreamMaxLength}, failing every
+ * request pipelined behind it. Streams are therefore cut off at {@code maxStreamBytes}, and the
+ * content reported {@link ScanResult.Outcome#UNSCANNABLE}.
+ */
+@Slf4j
+public class ClamdScanner implements ContentScanner, Closeable {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte[] IDSESSION = command("IDSESSION");
+    private static final byte[] INSTREAM = command("INSTREAM");
+    private static final byte[] END = command("END");
+
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final long idleTimeoutNanos;
+    private final int maxConnections;
+    private final long maxStreamBytes;
+    // Held by every session in use; idle sessions hold none, so at most maxConnections are open
+    private final Semaphore permits;
+    private final Deque<Session> idle = new ConcurrentLinkedDeque<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "clamd-scanner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param timeout     for connecting, and for each wait on a reply
+     * @param idleTimeout how long a session may sit unused and still be reused; keep it below
+     *                    clamd's {@code IdleTimeout}
+     * @param maxStreamBytes the most sent for one content; keep it at or below clamd's
+     *                    {@code StreamMaxLength}
+     */
+    public ClamdScanner(String host, int port, Duration timeout, Duration idleTimeout, int maxConnections,
+                        long maxStreamBytes) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("At least one clamd connection is required");
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.timeoutMillis = (int) timeout.toMillis();
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.maxConnections = maxConnections;
+        this.maxStreamBytes = maxStreamBytes;
+        this.permits = new Semaphore(maxConnections);
+    }
+
+    @Override
+    public List<ScanResult> scan(List<? extends InputStreamSource> contents) {
+        if (contents.isEmpty()) {
+            return List.of();
+        }
+        int lanes = Math.min(maxConnections, contents.size());
+        int perLane = (contents.size() + lanes - 1) / lanes;
+        List<Integer> laneSizes = new ArrayList<>();
+        List<Future<List<ScanResult>>> futures = new ArrayList<>();
+        for (int from = 0; from < contents.size(); from += perLane) {
+            List<? extends InputStreamSource> lane = contents.subList(from, Math.min(from + perLane, contents.size()));
+            laneSizes.add(lane.size());
+            futures.add(executor.submit(() -> scanPipelined(lane)));
+        }
+
+        List<ScanResult> results = new ArrayList<>(contents.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.addAll(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.addAll(Collections.nCopies(laneSizes.get(i), ScanResult.failed("Interrupted")));
+            } catch (ExecutionException e) {
+                results.addAll(Collections.nCopies(laneSizes.get(i), ScanResult.failed(e.getCause().toString())));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public long maxContentLength() {
+        return maxStreamBytes;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        Session session;
+        while ((session = idle.poll()) != null) {
+            session.close();
+        }
+    }
+
+    private List<ScanResult> scanPipelined(List<? extends InputStreamSource> contents) throws InterruptedException {
+        Session session;
+        try {
+            session = acquire();
+        } catch (IOException e) {
+            log.warn("Cannot connect to clamd at {}: {}", address, e.getMessage());
+            return Collections.nCopies(contents.size(), ScanResult.failed("clamd unavailable"));
+        }
+
+        ScanResult[] results = new ScanResult[contents.size()];
+        // Set for content clamd did not see in full, whatever it answered
+        ScanResult[] notSent = new ScanResult[contents.size()];
+        boolean reusable = false;
+        try {
+            int firstId = session.nextId;
+            session.nextId += contents.size();
+            Future<Boolean> replies = executor.submit(() -> session.readReplies(firstId, results));
+            try {
+                for (int i = 0; i < contents.size(); i++) {
+                    notSent[i] = session.send(contents.get(i));
+                }
+                session.out.flush();
+            } catch (IOException e) {
+                log.warn("Lost connection to clamd at {}: {}", address, e.getMessage());
+                // Unblocks the reader; replies received so far are kept
+                session.close();
+            }
+            reusable = replies.get() && !session.socket.isClosed();
+        } catch (ExecutionException e) {
+            log.warn("Reading clamd replies failed", e.getCause());
+        } finally {
+            release(session, reusable);
+        }
+
+        List<ScanResult> scanned = new ArrayList<>(contents.size());
+        for (int i = 0; i < results.length; i++) {
+            if (notSent[i] != null) {
+                scanned.add(notSent[i]);
+            } else {
+                scanned.add(results[i] != null ? results[i] : ScanResult.failed("No reply from clamd"));
+            }
+        }
+        return scanned;
+    }
+
+    private Session acquire() throws IOException, InterruptedException {
+        permits.acquire();
+        try {
+            Session session;
+            while ((session = idle.pollFirst()) != null) {
+                if (System.nanoTime() - session.lastUsed < idleTimeoutNanos) {
+                    return session;
+                }
+                session.close();
+            }
+            return new Session();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Session session, boolean reusable) {
+        if (reusable) {
+            session.lastUsed = System.nanoTime();
+            idle.offerFirst(session);
+        } else {
+            session.close();
+        }
+        permits.release();
+    }
+
+    static ScanResult parseReply(String reply) {
+        String result = reply.startsWith("stream: ") ? reply.substring("stream: ".length()) : reply;
+        if (result.equals("OK")) {
+            return ScanResult.clean();
+        }
+        if (result.endsWith(" FOUND")) {
+            return ScanResult.infected(result.substring(0, result.length() - " FOUND".length()));
+        }
+        if (result.startsWith("INSTREAM size limit exceeded")) {
+            return ScanResult.unscannable(result);
+        }
+        return ScanResult.failed(result);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it
+        }
+    }
+
+    private static byte[] command(String name) {
+        return ("z" + name + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final class Session implements Closeable {
+        private final Socket socket = new Socket();
+        private final DataOutputStream out;
+        private final InputStream in;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int nextId = 1;
+        private volatile long lastUsed;
+
+        Session() throws IOException {
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE + 8));
+                in = new BufferedInputStream(socket.getInputStream());
+                out.write(IDSESSION);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Writes one {@code INSTREAM} request. Content that cannot be read, or is longer than
+         * {@code maxStreamBytes}, is cut short rather than abandoned mid-request, so the session
+         * stays usable.
+         *
+         * @return the result for content that was not sent in full, or {@code null}
+         * @throws IOException if writing to clamd failed
+         */
+        ScanResult send(InputStreamSource content) throws IOException {
+            out.write(INSTREAM);
+            ScanResult notSent = null;
+            InputStream source = null;
+            long sent = 0;
+            try {
+                source = content.getInputStream();
+                while (true) {
+                    int read;
+                    try {
+                        read = source.readNBytes(chunk, 0, CHUNK_SIZE);
+                    } catch (IOException | RuntimeException e) {
+                        notSent = ScanResult.failed("Could not read content: " + e.getMessage());
+                        break;
+                    }
+                    if (read == 0) {
+                        break;
+                    }
+                    if (sent + read > maxStreamBytes) {
+                        notSent = ScanResult.unscannable("Content exceeds the " + maxStreamBytes + " byte stream limit");
+                        break;
+                    }
+                    out.writeInt(read);
+                    out.write(chunk, 0, read);
+                    sent += read;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (source != null) {
+                    throw e;
+                }
+                notSent = ScanResult.failed("Could not open content: " + e.getMessage());
+            } finally {
+                closeQuietly(source);
+            }
+            out.writeInt(0);
+            return notSent;
+        }
+
+        /**
+         * Fills in {@code results} from the replies to requests {@code firstId} onwards.
+         *
+         * @return whether every reply arrived
+         */
+        boolean readReplies(int firstId, ScanResult[] results) {
+            try {
+                for (int received = 0; received < results.length; received++) {
+                    String reply = readReply();
+                    int separator = reply.indexOf(": ");
+                    int index = Integer.parseInt(reply.substring(0, separator)) - firstId;
+                    results[index] = parseReply(reply.substring(separator + 2));
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                log.debug("Stopped reading clamd replies: {}", e.toString());
+                return false;
+            }
+        }
+
+        private String readReply() throws IOException {
+            ByteArrayOutputStream reply = new ByteArrayOutputStream(64);
+            int b;
+            while ((b = in.read()) != 0) {
+                if (b < 0) {
+                    throw new EOFException("clamd closed the connection");
+                }
+                reply.write(b);
+            }
+            return reply.toString(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (!socket.isClosed()) {
+                    out.write(END);
+                    out.flush();
+                }
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.secureshare.securefiles.scan;
+
+import org.springframework.core.io.InputStreamSource;
+
+import java.util.List;
+
+/**
+ * An external malware scanning engine. Implementations are handed whole batches so they can
+ * pipeline requests over their connections rather than paying a round trip per file.
+ */
+public interface ContentScanner {
+
+    /**
+     * Scans each content source. A source that cannot be read or scanned yields a
+     * {@link ScanResult.Outcome#FAILED} result instead of failing the whole batch.
+     *
+     * @return one result per source, in the same order
+     */
+    List<ScanResult> scan(List<? extends InputStreamSource> contents);
+
+    /**
+     * The longest content this scanner accepts. Longer content is not scanned, so callers that
+     * know a size up front should keep it out of batches.
+     */
+    default long maxContentLength() {
+        return Long.MAX_VALUE;
+    }
+}
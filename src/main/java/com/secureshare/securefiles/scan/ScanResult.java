@@ -0,0 +1,33 @@
+package com.secureshare.securefiles.scan;
+
+/**
+ * The outcome of scanning one piece of content; {@code detail} names the signature found, or
+ * why the scan failed.
+ */
+public record ScanResult(Outcome outcome, String detail) {
+
+    public enum Outcome {
+        CLEAN,
+        INFECTED,
+        // Not scanned, e.g. the engine was unreachable; worth retrying
+        FAILED,
+        // Cannot be scanned at all, e.g. larger than the engine accepts; retrying will not help
+        UNSCANNABLE
+    }
+
+    public static ScanResult clean() {
+        return new ScanResult(Outcome.CLEAN, null);
+    }
+
+    public static ScanResult infected(String signature) {
+        return new ScanResult(Outcome.INFECTED, signature);
+    }
+
+    public static ScanResult failed(String reason) {
+        return new ScanResult(Outcome.FAILED, reason);
+    }
+
+    public static ScanResult unscannable(String reason) {
+        return new ScanResult(Outcome.UNSCANNABLE, reason);
+    }
+}
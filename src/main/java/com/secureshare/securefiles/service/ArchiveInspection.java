@@ -0,0 +1,781 @@
+package com.secureshare.securefiles.service;
+
+import com.secureshare.securefiles.service.FileValidator.FileValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inspects an archive as it streams past, without extracting anything: a ZIP archive, such as an
+ * OOXML or OpenDocument file, a tar archive, or a single-member gzip stream. Entries are inflated
+ * into a fixed scratch buffer and checked as they go: entry names for executables and macros,
+ * entry content for executable magic numbers, nested archives (inspected recursively) and, in
+ * text entries, the content rules. A ZIP archive's central directory is walked too, so entries
+ * listed only there are not missed. Nested archives in formats that cannot be inspected, such as
+ * 7z or RAR, are rejected.
+ * <p>
+ * Entry count, nesting depth, total inflated bytes and per-entry compression ratio are capped,
+ * and the upload is rejected the moment a cap is exceeded, so a zip bomb costs at most the
+ * inflated-bytes budget in CPU and nothing in memory. Content that does not start like the
+ * expected archive is left alone; type detection rejects it.
+ */
+final class ArchiveInspection {
+
+    /**
+     * Caps for one upload, shared by all archives nested in it.
+     */
+    record Limits(int maxEntries, int maxDepth, long maxInflatedBytes, int maxRatio) {
+    }
+
+    enum Container {
+        ZIP, TAR, GZIP
+    }
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int DIGITAL_SIGNATURE = 0x05054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private static final int TAR_BLOCK = 512;
+    // Long names and pax headers are read whole; legitimate ones are far smaller
+    private static final int MAX_TAR_METADATA = 64 * 1024;
+    private static final int MAX_GZIP_HEADER_STRING = 4096;
+    private static final int GZIP_FHCRC = 1 << 1;
+    private static final int GZIP_FEXTRA = 1 << 2;
+    private static final int GZIP_FNAME = 1 << 3;
+    private static final int GZIP_FCOMMENT = 1 << 4;
+    private static final int GZIP_RESERVED = 0xE0;
+
+    // Small entries may compress extremely well without being bombs
+    private static final long RATIO_GRACE_BYTES = 1 << 20;
+
+    private static final Set<String> ZIP_TYPES = Set.of("zip", "odt", "ods", "odp", "epub");
+    // Compressed formats whose entries cannot be seen without a decoder the JDK lacks
+    private static final Set<String> OPAQUE_TYPES = Set.of("bzip2", "xz", "zstd", "7z", "rar");
+    private static final Set<String> TEXT_SUFFIXES = Set.of(
+            "xml", "rels", "txt", "htm", "html", "xhtml", "svg", "vml", "json", "csv", "css");
+
+    private enum State {
+        SIGNATURE, LOCAL_HEADER, LOCAL_NAME, ENTRY_DATA, DESCRIPTOR_SIGNATURE, DESCRIPTOR,
+        CENTRAL_HEADER, CENTRAL_NAME, ZIP64_END_SIZE, SIGNATURE_SIZE, SKIP, END, NOT_AN_ARCHIVE,
+        TAR_HEADER, TAR_METADATA, TAR_END,
+        GZIP_HEADER, GZIP_EXTRA_LENGTH, GZIP_EXTRA, GZIP_NAME, GZIP_COMMENT, GZIP_HEADER_CRC, GZIP_TRAILER, GZIP_END
+    }
+
+    private static final class Budget {
+        long entries;
+        long inflatedBytes;
+    }
+
+    private final Container container;
+    private final Limits limits;
+    private final FileTypeDetector detector;
+    private final PatternScanner scanner;
+    private final Set<String> forbiddenExtensions;
+    private final Set<String> forbiddenTypes;
+    private final int depth;
+    private final Budget budget;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] scratch = new byte[64 * 1024];
+
+    private State state;
+    private byte[] pending = new byte[64];
+    private int pendingLength;
+    private int needed;
+    private long skip;
+    private boolean started;
+    private boolean inCentralDirectory;
+    private long localEntries;
+    private long centralEntries;
+
+    // The local entry being read
+    private int flags;
+    private int method;
+    private long compressedSize;
+    private int nameLength;
+    private int extraLength;
+    private boolean zip64;
+    private String entryName;
+    private long remaining;
+    private long entryCompressed;
+    private long entryInflated;
+    private final byte[] entryHead;
+    private int entryHeadLength;
+    private boolean entryHeadChecked;
+    private boolean scanning;
+    private int scanState;
+    private ArchiveInspection nested;
+
+    // Tar: a long name or pax header applying to the next entry
+    private char tarMetadataType;
+    private String tarName;
+    private long tarSize = -1;
+
+    // Gzip: header fields still to read, and the check on the inflated member
+    private int gzipFlags;
+    private String gzipName;
+    private final CRC32 crc = new CRC32();
+
+    ArchiveInspection(Container container, Limits limits, FileTypeDetector detector, PatternScanner scanner,
+                      Set<String> forbiddenExtensions, Set<String> forbiddenTypes) {
+        this(container, limits, detector, scanner, forbiddenExtensions, forbiddenTypes, 1, new Budget());
+    }
+
+    private ArchiveInspection(Container container, Limits limits, FileTypeDetector detector, PatternScanner scanner,
+                              Set<String> forbiddenExtensions, Set<String> forbiddenTypes, int depth, Budget budget) {
+        this.container = container;
+        this.limits = limits;
+        this.detector = detector;
+        this.scanner = scanner;
+        this.forbiddenExtensions = forbiddenExtensions;
+        this.forbiddenTypes = forbiddenTypes;
+        this.depth = depth;
+        this.budget = budget;
+        // Long enough for every rule, including tar's magic at offset 257
+        this.entryHead = new byte[detector.headerLength()];
+        switch (container) {
+            case ZIP -> expect(State.SIGNATURE, 4);
+            case TAR -> expect(State.TAR_HEADER, TAR_BLOCK);
+            case GZIP -> expect(State.GZIP_HEADER, 10);
+        }
+    }
+
+    /**
+     * The container a detected file type is inspected as, or {@code null} if it is not an
+     * archive that can be inspected.
+     */
+    static Container containerOf(String type) {
+        if (ZIP_TYPES.contains(type)) {
+            return Container.ZIP;
+        }
+        return switch (type) {
+            case "tar" -> Container.TAR;
+            case "gzip" -> Container.GZIP;
+            default -> null;
+        };
+    }
+
+    void update(byte[] buffer, int offset, int length) throws FileValidationException {
+        int end = offset + length;
+        while (offset < end && state != State.END && state != State.NOT_AN_ARCHIVE) {
+            if (state == State.ENTRY_DATA) {
+                offset = readEntryData(buffer, offset, end);
+            } else if (state == State.SKIP) {
+                int skipped = (int) Math.min(skip, end - offset);
+                skip -= skipped;
+                offset += skipped;
+                if (skip == 0) {
+                    nextHeader();
+                }
+            } else if (state == State.GZIP_NAME || state == State.GZIP_COMMENT) {
+                offset = readHeaderString(buffer, offset, end);
+            } else if (state == State.TAR_END) {
+                // Tar pads its end with zero blocks; anything else would be read by lenient tools only
+                for (; offset < end; offset++) {
+                    if (buffer[offset] != 0) {
+                        throw malformed("Archive has data after its end");
+                    }
+                }
+            } else if (state == State.GZIP_END) {
+                // Readers concatenate members, so a second one could hide content from this inspection
+                throw new FileValidationException("Gzip streams with more than one member are not supported",
+                        "ARCHIVE_UNSUPPORTED");
+            } else {
+                int copied = Math.min(needed - pendingLength, end - offset);
+                System.arraycopy(buffer, offset, pending, pendingLength, copied);
+                pendingLength += copied;
+                offset += copied;
+                if (pendingLength == needed) {
+                    onStructure();
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the inspection once all content has been fed in.
+     */
+    void finish() throws FileValidationException {
+        try {
+            if (state == State.NOT_AN_ARCHIVE) {
+                return;
+            }
+            boolean complete = switch (container) {
+                case ZIP -> state == State.END;
+                // The end-of-archive blocks are optional in practice, but a header must not be cut off
+                case TAR -> state == State.TAR_END || (state == State.TAR_HEADER && pendingLength == 0 && started);
+                case GZIP -> state == State.GZIP_END;
+            };
+            if (!complete) {
+                throw malformed("Archive is truncated");
+            }
+            if (container == Container.ZIP && centralEntries != localEntries) {
+                throw malformed("Archive directory lists " + centralEntries + " entries but contains " + localEntries);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void onStructure() {
+        switch (state) {
+            case SIGNATURE -> onSignature(int32(0));
+            case LOCAL_HEADER -> {
+                flags = int16(2);
+                method = int16(4);
+                compressedSize = int32(14) & UNKNOWN_SIZE;
+                nameLength = int16(22);
+                extraLength = int16(24);
+                expect(State.LOCAL_NAME, nameLength + extraLength);
+            }
+            case LOCAL_NAME -> {
+                entryName = new String(pending, 0, nameLength, StandardCharsets.UTF_8);
+                zip64 = false;
+                readZip64Extra(nameLength, extraLength);
+                startEntry();
+            }
+            case DESCRIPTOR_SIGNATURE -> {
+                int descriptorLength = zip64 ? 20 : 12;
+                // The descriptor's signature is optional; without it, these bytes were its CRC
+                expect(State.DESCRIPTOR, int32(0) == DATA_DESCRIPTOR ? descriptorLength : descriptorLength - 4);
+            }
+            case DESCRIPTOR -> expect(State.SIGNATURE, 4);
+            case CENTRAL_HEADER -> {
+                nameLength = int16(24);
+                extraLength = int16(26) + int16(28);
+                expect(State.CENTRAL_NAME, nameLength);
+            }
+            case CENTRAL_NAME -> {
+                centralEntries++;
+                checkName(new String(pending, 0, nameLength, StandardCharsets.UTF_8));
+                skip(extraLength);
+            }
+            case ZIP64_END_SIZE -> skip(int64(0));
+            case SIGNATURE_SIZE -> skip(int16(0));
+            case TAR_HEADER -> onTarHeader();
+            case TAR_METADATA -> onTarMetadata();
+            case GZIP_HEADER -> onGzipHeader();
+            case GZIP_EXTRA_LENGTH -> expect(State.GZIP_EXTRA, int16(0));
+            case GZIP_EXTRA, GZIP_HEADER_CRC -> nextGzipField();
+            case GZIP_TRAILER -> {
+                if (int32(0) != (int) crc.getValue() || int32(4) != (int) entryInflated) {
+                    throw malformed("Archive entry is corrupt");
+                }
+                state = State.GZIP_END;
+            }
+            default -> throw new IllegalStateException("Unexpected state " + state);
+        }
+    }
+
+    private void onTarHeader() {
+        boolean first = !started;
+        started = true;
+        if (isZeroBlock()) {
+            state = State.TAR_END;
+            return;
+        }
+        if (octal(148, 8) != tarChecksum()) {
+            if (first) {
+                state = State.NOT_AN_ARCHIVE;
+                return;
+            }
+            throw malformed("Archive structure is invalid");
+        }
+        long size = tarHeaderSize();
+        char type = (char) pending[156];
+        if (type == 'L' || type == 'x') {
+            if (size > MAX_TAR_METADATA) {
+                throw malformed("Archive header is too long");
+            }
+            tarMetadataType = type;
+            expect(State.TAR_METADATA, (int) size);
+            return;
+        }
+        if (type == 'g') {
+            // Global pax defaults; names and sizes are only ever set per entry
+            skip(size + padding(size));
+            return;
+        }
+
+        entryName = tarName != null ? tarName : tarHeaderName();
+        if (type == '1' || type == '2') {
+            checkName(string(157, 100));
+        }
+        flags = 0;
+        method = STORED;
+        compressedSize = tarSize >= 0 ? tarSize : size;
+        tarName = null;
+        tarSize = -1;
+        startEntry();
+    }
+
+    private void onTarMetadata() {
+        if (tarMetadataType == 'L') {
+            tarName = string(0, needed);
+        } else {
+            readPaxRecords();
+        }
+        skip(padding(needed));
+    }
+
+    // Records are "<length> <key>=<value>\n"
+    private void readPaxRecords() {
+        int offset = 0;
+        while (offset < needed) {
+            int space = offset;
+            while (space < needed && pending[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(pending, offset, space - offset, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw malformed("Archive header is invalid");
+            }
+            if (length <= space - offset || offset + length > needed) {
+                throw malformed("Archive header is invalid");
+            }
+            String record = new String(pending, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            String key = equals < 0 ? record : record.substring(0, equals);
+            String value = equals < 0 ? "" : record.substring(equals + 1);
+            switch (key) {
+                case "path" -> tarName = value;
+                case "linkpath" -> checkName(value);
+                case "size" -> {
+                    try {
+                        tarSize = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw malformed("Archive header is invalid");
+                    }
+                }
+                default -> {
+                }
+            }
+            offset += length;
+        }
+    }
+
+    private void onGzipHeader() {
+        boolean first = !started;
+        started = true;
+        if ((pending[0] & 0xFF) != 0x1F || (pending[1] & 0xFF) != 0x8B) {
+            if (first) {
+                state = State.NOT_AN_ARCHIVE;
+                return;
+            }
+            throw malformed("Archive structure is invalid");
+        }
+        if (pending[2] != DEFLATED) {
+            throw new FileValidationException("Archive uses an unsupported compression method " + pending[2],
+                    "ARCHIVE_UNSUPPORTED");
+        }
+        gzipFlags = pending[3] & 0xFF;
+        if ((gzipFlags & GZIP_RESERVED) != 0) {
+            throw malformed("Archive structure is invalid");
+        }
+        nextGzipField();
+    }
+
+    private void nextGzipField() {
+        if ((gzipFlags & GZIP_FEXTRA) != 0) {
+            gzipFlags &= ~GZIP_FEXTRA;
+            expect(State.GZIP_EXTRA_LENGTH, 2);
+        } else if ((gzipFlags & GZIP_FNAME) != 0) {
+            gzipFlags &= ~GZIP_FNAME;
+            state = State.GZIP_NAME;
+            pendingLength = 0;
+        } else if ((gzipFlags & GZIP_FCOMMENT) != 0) {
+            gzipFlags &= ~GZIP_FCOMMENT;
+            state = State.GZIP_COMMENT;
+            pendingLength = 0;
+        } else if ((gzipFlags & GZIP_FHCRC) != 0) {
+            gzipFlags &= ~GZIP_FHCRC;
+            expect(State.GZIP_HEADER_CRC, 2);
+        } else {
+            // The member's content is a single entry, named after the original file if recorded
+            entryName = gzipName == null ? "" : gzipName;
+            flags = 0;
+            method = DEFLATED;
+            startEntry();
+        }
+    }
+
+    // Reads a zero-terminated header field
+    private int readHeaderString(byte[] buffer, int offset, int end) {
+        while (offset < end) {
+            byte b = buffer[offset++];
+            if (b == 0) {
+                if (state == State.GZIP_NAME) {
+                    gzipName = new String(pending, 0, pendingLength, StandardCharsets.ISO_8859_1);
+                }
+                nextGzipField();
+                return offset;
+            }
+            if (pendingLength == MAX_GZIP_HEADER_STRING) {
+                throw malformed("Archive header is too long");
+            }
+            if (pending.length == pendingLength) {
+                pending = Arrays.copyOf(pending, Math.min(pending.length * 2, MAX_GZIP_HEADER_STRING));
+            }
+            pending[pendingLength++] = b;
+        }
+        return offset;
+    }
+
+    private void onSignature(int signature) {
+        boolean first = !started;
+        started = true;
+        switch (signature) {
+            case LOCAL_HEADER -> {
+                if (inCentralDirectory) {
+                    throw malformed("Archive has entries after its central directory");
+                }
+                expect(State.LOCAL_HEADER, 26);
+            }
+            case CENTRAL_HEADER -> {
+                inCentralDirectory = true;
+                expect(State.CENTRAL_HEADER, 42);
+            }
+            case END_OF_CENTRAL_DIRECTORY -> state = State.END;
+            case ZIP64_END_OF_CENTRAL_DIRECTORY -> expect(State.ZIP64_END_SIZE, 8);
+            case ZIP64_LOCATOR -> skip(16);
+            case DIGITAL_SIGNATURE -> expect(State.SIGNATURE_SIZE, 2);
+            // Marks a split archive that happens to fit in one part
+            case DATA_DESCRIPTOR -> {
+                if (!first) {
+                    throw malformed("Archive structure is invalid");
+                }
+                expect(State.SIGNATURE, 4);
+            }
+            default -> {
+                if (!first) {
+                    throw malformed("Archive structure is invalid");
+                }
+                state = State.NOT_AN_ARCHIVE;
+            }
+        }
+    }
+
+    private void startEntry() {
+        localEntries++;
+        if (++budget.entries > limits.maxEntries()) {
+            throw limitExceeded("Archive has more than " + limits.maxEntries() + " entries");
+        }
+        checkName(entryName);
+        if ((flags & FLAG_ENCRYPTED) != 0) {
+            throw new FileValidationException("Archive contains encrypted entries that cannot be inspected",
+                    "ARCHIVE_UNSUPPORTED");
+        }
+        if (method == STORED) {
+            if ((flags & FLAG_DATA_DESCRIPTOR) != 0) {
+                throw malformed("Stored archive entry has no size");
+            }
+            remaining = compressedSize;
+        } else if (method == DEFLATED) {
+            inflater.reset();
+        } else {
+            throw new FileValidationException("Archive uses an unsupported compression method " + method,
+                    "ARCHIVE_UNSUPPORTED");
+        }
+
+        entryCompressed = 0;
+        entryInflated = 0;
+        entryHeadLength = 0;
+        entryHeadChecked = false;
+        nested = null;
+        scanning = scanner != null && TEXT_SUFFIXES.contains(extension(entryName));
+        scanState = scanning ? scanner.initialState() : 0;
+        state = State.ENTRY_DATA;
+        if (method == STORED && remaining == 0) {
+            endEntry();
+        }
+    }
+
+    private int readEntryData(byte[] buffer, int offset, int end) {
+        if (method == STORED) {
+            int length = (int) Math.min(remaining, end - offset);
+            entryCompressed += length;
+            inflated(buffer, offset, length);
+            remaining -= length;
+            if (remaining == 0) {
+                endEntry();
+            }
+            return offset + length;
+        }
+
+        int available = end - offset;
+        inflater.setInput(buffer, offset, available);
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(scratch);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw malformed("Archive entry is corrupt");
+                    }
+                    if (inflater.needsInput()) {
+                        break;
+                    }
+                }
+                inflated(scratch, 0, length);
+                checkRatio(entryCompressed + available - inflater.getRemaining());
+            }
+        } catch (DataFormatException e) {
+            throw malformed("Archive entry is corrupt");
+        }
+        int consumed = available - inflater.getRemaining();
+        entryCompressed += consumed;
+        if (inflater.finished()) {
+            endEntry();
+        }
+        return offset + consumed;
+    }
+
+    private void inflated(byte[] buffer, int offset, int length) {
+        budget.inflatedBytes += length;
+        if (budget.inflatedBytes > limits.maxInflatedBytes()) {
+            throw limitExceeded("Archive inflates to more than " + limits.maxInflatedBytes() + " bytes");
+        }
+        entryInflated += length;
+        if (container == Container.GZIP) {
+            crc.update(buffer, offset, length);
+        }
+
+        // Type checks need the entry's first bytes, so they are held back until there are enough
+        if (!entryHeadChecked) {
+            int copied = Math.min(length, entryHead.length - entryHeadLength);
+            System.arraycopy(buffer, offset, entryHead, entryHeadLength, copied);
+            entryHeadLength += copied;
+            offset += copied;
+            length -= copied;
+            if (entryHeadLength < entryHead.length) {
+                return;
+            }
+            checkEntryHead();
+        }
+        inspectEntryContent(buffer, offset, length);
+    }
+
+    private void checkEntryHead() {
+        entryHeadChecked = true;
+        String type = detector.detect(entryHead, entryHeadLength).orElse(null);
+        if (type != null && forbiddenTypes.contains(type)) {
+            throw new FileValidationException("Archive contains executable content in " + entryName,
+                    "EXECUTABLE_CONTENT");
+        }
+        if (type != null && OPAQUE_TYPES.contains(type)) {
+            throw new FileValidationException("Archive contains a " + type + " archive that cannot be inspected in "
+                    + entryName, "ARCHIVE_UNSUPPORTED");
+        }
+        Container nestedContainer = type == null ? null : containerOf(type);
+        if (nestedContainer != null) {
+            if (depth >= limits.maxDepth()) {
+                throw limitExceeded("Archive nests archives more than " + limits.maxDepth() + " levels deep");
+            }
+            nested = new ArchiveInspection(nestedContainer, limits, detector, scanner, forbiddenExtensions,
+                    forbiddenTypes, depth + 1, budget);
+        }
+        inspectEntryContent(entryHead, 0, entryHeadLength);
+    }
+
+    private void inspectEntryContent(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (nested != null) {
+            nested.update(buffer, offset, length);
+        }
+        if (scanning) {
+            scanState = scanner.scan(scanState, buffer, offset, length);
+            if (scanState == PatternScanner.MATCHED) {
+                throw new FileValidationException("Archive entry " + entryName + " contains potentially malicious content",
+                        "MALICIOUS_CONTENT");
+            }
+        }
+    }
+
+    private void checkRatio(long compressed) {
+        if (entryInflated > RATIO_GRACE_BYTES && entryInflated > compressed * limits.maxRatio()) {
+            throw limitExceeded("Archive entry " + entryName + " compresses more than " + limits.maxRatio() + ":1");
+        }
+    }
+
+    private void endEntry() {
+        if (!entryHeadChecked) {
+            checkEntryHead();
+        }
+        if (nested != null) {
+            nested.finish();
+            nested = null;
+        }
+        switch (container) {
+            case ZIP -> expect((flags & FLAG_DATA_DESCRIPTOR) != 0 ? State.DESCRIPTOR_SIGNATURE : State.SIGNATURE, 4);
+            case TAR -> skip(padding(entryCompressed));
+            case GZIP -> expect(State.GZIP_TRAILER, 8);
+        }
+    }
+
+    // Where the container's next header starts once the current structure has been skipped
+    private void nextHeader() {
+        if (container == Container.TAR) {
+            expect(State.TAR_HEADER, TAR_BLOCK);
+        } else {
+            expect(State.SIGNATURE, 4);
+        }
+    }
+
+    private void checkName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("/") || lower.startsWith("\\") || lower.contains("../") || lower.contains("..\\")) {
+            throw malformed("Archive entry name escapes the archive: " + name);
+        }
+        if (forbiddenExtensions.contains(extension(lower))) {
+            throw new FileValidationException("Archive contains executable entry " + name, "EXECUTABLE_CONTENT");
+        }
+        // VBA projects in Office documents, Basic libraries in OpenDocument
+        if (lower.endsWith("vbaproject.bin") || lower.endsWith("vbadata.xml") || lower.startsWith("basic/")) {
+            throw new FileValidationException("Documents with macros are not allowed", "MACRO_CONTENT");
+        }
+    }
+
+    private void readZip64Extra(int offset, int length) {
+        int end = offset + length;
+        while (offset + 4 <= end) {
+            int id = int16(offset);
+            int size = int16(offset + 2);
+            if (id == 0x0001) {
+                zip64 = true;
+                // Uncompressed size comes first, then the compressed size, each only if masked
+                int field = offset + 4;
+                if (field + 16 <= end) {
+                    compressedSize = compressedSize == UNKNOWN_SIZE ? int64(field + 8) : compressedSize;
+                }
+            }
+            offset += 4 + size;
+        }
+    }
+
+    private void expect(State next, int length) {
+        state = next;
+        needed = length;
+        pendingLength = 0;
+        if (pending.length < length) {
+            pending = new byte[length];
+        }
+        if (length == 0) {
+            onStructure();
+        }
+    }
+
+    private void skip(long length) {
+        if (length == 0) {
+            nextHeader();
+        } else {
+            state = State.SKIP;
+            skip = length;
+        }
+    }
+
+    private int int16(int offset) {
+        return (pending[offset] & 0xFF) | (pending[offset + 1] & 0xFF) << 8;
+    }
+
+    private int int32(int offset) {
+        return int16(offset) | int16(offset + 2) << 16;
+    }
+
+    private long int64(int offset) {
+        return (int32(offset) & 0xFFFFFFFFL) | (long) int32(offset + 4) << 32;
+    }
+
+    private boolean isZeroBlock() {
+        for (int i = 0; i < TAR_BLOCK; i++) {
+            if (pending[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The checksum field itself counts as spaces
+    private long tarChecksum() {
+        long sum = 0;
+        for (int i = 0; i < TAR_BLOCK; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : pending[i] & 0xFF;
+        }
+        return sum;
+    }
+
+    private String tarHeaderName() {
+        String name = string(0, 100);
+        // ustar splits long paths into a prefix and a name
+        String prefix = pending[257] == 'u' ? string(345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    // Octal, or base-256 with the top bit set for sizes of 8 GiB and up
+    private long tarHeaderSize() {
+        if ((pending[124] & 0x80) == 0) {
+            return octal(124, 12);
+        }
+        long size = pending[124] & 0x7F;
+        for (int i = 125; i < 136; i++) {
+            if (size >>> 55 != 0) {
+                throw malformed("Archive entry is too large");
+            }
+            size = size << 8 | pending[i] & 0xFF;
+        }
+        return size;
+    }
+
+    private long octal(int offset, int length) {
+        int end = offset + length;
+        while (offset < end && (pending[offset] == ' ' || pending[offset] == 0)) {
+            offset++;
+        }
+        long value = 0;
+        for (; offset < end && pending[offset] >= '0' && pending[offset] <= '7'; offset++) {
+            value = value << 3 | pending[offset] - '0';
+        }
+        return value;
+    }
+
+    private String string(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && pending[end] != 0) {
+            end++;
+        }
+        return new String(pending, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long padding(long size) {
+        return (TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK;
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 || dot < name.lastIndexOf('/') ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static FileValidationException malformed(String message) {
+        return new FileValidationException(message, "ARCHIVE_MALFORMED");
+    }
+
+    private static FileValidationException limitExceeded(String message) {
+        return new FileValidationException(message, "ARCHIVE_LIMIT_EXCEEDED");
+    }
+}
@@ -1,30 +1,30 @@
 package com.secureshare.securefiles.service;
 
 import com.secureshare.securefiles.file.FileEntity;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 @Slf4j
 @Service
 public class AuditService {
-    public void logUpload(User user, FileEntity file) {
+    public void logUpload(AuthenticatedUser user, FileEntity file) {
         log.info("File upload - User: {}, FileID: {}, Filename: {}, Size: {}",
-                user.getUsername(),
+                user.email(),
                 file.getId(),
                 file.getOriginalFilename(),
                 file.getSize());
     }
 
-    public void logDownload(User user, FileEntity file) {
+    public void logDownload(AuthenticatedUser user, FileEntity file) {
         log.info("File download - User: {}, FileID: {}",
-                user.getUsername(),
+                user.email(),
                 file.getId());
     }
 
-    public void logDeletion(User user, FileEntity file) {
+    public void logDeletion(AuthenticatedUser user, FileEntity file) {
         log.info("File deletion - User: {}, FileID: {}",
-                user.getUsername(),
+                user.email(),
                 file.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.secureshare.securefiles.service;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to the whole plaintext before it is split into encrypted segments. The
+ * id is stored in the container header, so reads pick the right decoder on their own.
+ */
+public enum CompressionCodec {
+
+    NONE((byte) 0) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+
+    DEFLATE((byte) 1) {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return new DeflaterOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    },
+
+    ZSTD((byte) 2) {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new ZstdOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    };
+
+    private final byte id;
+
+    CompressionCodec(byte id) {
+        this.id = id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    /**
+     * Wraps {@code out}; closing the returned stream finishes the compressed stream and closes {@code out}.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return the codec with this header id, or {@code null} if it is unknown
+     */
+    public static CompressionCodec fromId(byte id) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,67 @@
+package com.secureshare.securefiles.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides per content type whether uploads are compressed before encryption. Every type in
+ * {@link FileValidator#allowedMimeTypes()} is compressed with the configured codec unless it is
+ * listed as incompressible or is a {@linkplain FileValidator#precompressedMimeTypes() compressed
+ * format} already, such as JPEG, ZIP-based Office documents or opaque encrypted uploads.
+ *
+ * <p>A compressed upload cannot be entered mid-way, so every Range request on it decodes from
+ * byte 0. PDFs and uncompressed audio and video, which viewers and players fetch by range, are
+ * therefore stored uncompressed by default.
+ */
+@Slf4j
+@Component
+public class CompressionPolicy {
+
+    private final CompressionCodec codec;
+    private final Set<String> compressibleTypes;
+    private final MeterRegistry registry;
+
+    public CompressionPolicy(
+            @Value("${app.compression.codec:zstd}") String codec,
+            @Value("${app.compression.incompressible-types:image/jpeg,image/png,"
+                    + "application/pdf,audio/wav,audio/x-wav,audio/aiff,audio/x-aiff,video/x-msvideo,"
+                    + "application/vnd.openxmlformats-officedocument.wordprocessingml.document,"
+                    + "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet,"
+                    + "application/octet-stream,application/x-encrypted,application/encrypted}")
+            Set<String> incompressibleTypes,
+            MeterRegistry registry) {
+        this.codec = CompressionCodec.valueOf(codec.trim().toUpperCase(Locale.ROOT));
+        this.compressibleTypes = new HashSet<>(FileValidator.allowedMimeTypes());
+        this.compressibleTypes.removeAll(incompressibleTypes);
+        this.compressibleTypes.removeAll(FileValidator.precompressedMimeTypes());
+        this.registry = registry;
+        log.info("Compressing {} with {}", compressibleTypes, this.codec);
+    }
+
+    public CompressionCodec codecFor(String contentType) {
+        return contentType != null && compressibleTypes.contains(contentType) ? codec : CompressionCodec.NONE;
+    }
+
+    /**
+     * Records how well a stored upload compressed, as {@code storage.compression.ratio}
+     * (plaintext bytes per stored byte) tagged by content type and codec.
+     */
+    public void recordRatio(String contentType, CompressionCodec codec, long plaintextBytes, long storedBytes) {
+        if (codec == CompressionCodec.NONE || storedBytes <= 0) {
+            return;
+        }
+        DistributionSummary.builder("storage.compression.ratio")
+                .description("Plaintext bytes per stored ciphertext byte")
+                .tag("content_type", contentType)
+                .tag("codec", codec.name().toLowerCase(Locale.ROOT))
+                .register(registry)
+                .record((double) plaintextBytes / storedBytes);
+    }
+}
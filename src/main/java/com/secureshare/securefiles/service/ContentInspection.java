@@ -0,0 +1,208 @@
+package com.secureshare.securefiles.service;
+
+import com.secureshare.securefiles.service.FileValidator.FileValidationException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.HexFormat;
+
+/**
+ * Content checks for one upload, fed buffer by buffer as the content streams past. File type
+ * detection, suspicious-pattern scanning, the null-byte ratio and hashing all consume the same
+ * read, so an upload can be validated while it is being encrypted, without holding it in memory.
+ * Results are only reported by {@link #verify()}, once the whole content has been seen, and
+ * recorded in the {@link VerdictCache} under the content's hash.
+ */
+public final class ContentInspection {
+    private final String extension;
+    private final FileTypeDetector detector;
+    private final Set<String> contentTypes;
+    private final PatternScanner scanner;
+    private final MalwareHashStore malwareHashes;
+    private final ArchiveInspection archive;
+    private final VerdictCache verdicts;
+    private final long ruleSetVersion;
+    private final String expectedSha256;
+    private final MessageDigest digest;
+
+    private final byte[] head;
+    private String detectedType;
+    private int scanState;
+    private long total;
+    private long nullBytes;
+
+    /**
+     * @param contentTypes detected types the extension may hold, none if it must not look like
+     *                     any known type, or {@code null} to skip type detection
+     * @param scanner      patterns to reject, or {@code null} to skip content scanning
+     * @param archive      inspection of the content as an archive, or {@code null} to skip it
+     * @param verdicts     where the outcome is recorded under the content's hash, or {@code null}
+     *                     when the content was judged before and only its hash is checked
+     * @param expectedSha256 hex SHA-256 the content must have, or {@code null}
+     */
+    ContentInspection(String extension, FileTypeDetector detector, Set<String> contentTypes,
+                      PatternScanner scanner, MalwareHashStore malwareHashes, ArchiveInspection archive,
+                      VerdictCache verdicts, long ruleSetVersion, String expectedSha256) {
+        this.extension = extension;
+        this.detector = detector;
+        this.contentTypes = contentTypes;
+        this.head = new byte[contentTypes == null ? 0 : detector.headerLength()];
+        this.scanner = scanner;
+        this.malwareHashes = malwareHashes;
+        this.archive = archive;
+        this.verdicts = verdicts;
+        this.ruleSetVersion = ruleSetVersion;
+        this.expectedSha256 = expectedSha256;
+        this.scanState = scanner == null ? 0 : scanner.initialState();
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns a stream that feeds everything read through it into this inspection.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    update(new byte[]{(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    update(b, off, read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // Read rather than skip, so skipped bytes are inspected too
+                byte[] scratch = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+                long skipped = 0;
+                int read;
+                while (skipped < n && (read = read(scratch, 0, (int) Math.min(scratch.length, n - skipped))) > 0) {
+                    skipped += read;
+                }
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Feeds the next bytes of content. Most results wait for {@link #verify()}, but archive
+     * limits are enforced here, so a zip bomb is cut off while it is still being read.
+     *
+     * @throws FileValidationException if an archive limit is exceeded
+     */
+    public void update(byte[] buffer, int offset, int length) throws FileValidationException {
+        if (total < head.length) {
+            int copied = (int) Math.min(length, head.length - total);
+            System.arraycopy(buffer, offset, head, (int) total, copied);
+        }
+        total += length;
+        digest.update(buffer, offset, length);
+        if (scanner != null) {
+            scanState = scanner.scan(scanState, buffer, offset, length);
+            countNullBytes(buffer, offset, length);
+        }
+        if (archive != null) {
+            archive.update(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Completes the inspection.
+     *
+     * @return hex SHA-256 of the inspected content
+     * @throws FileValidationException if any check failed
+     */
+    public String verify() throws FileValidationException {
+        byte[] hash = digest.digest();
+        String sha256 = HexFormat.of().formatHex(hash);
+        if (expectedSha256 != null && !expectedSha256.equals(sha256)) {
+            throw new FileValidationException(
+                    "File content doesn't match the declared SHA-256",
+                    "CONTENT_HASH_MISMATCH"
+            );
+        }
+        if (verdicts == null) {
+            checkMalware(hash);
+            return sha256;
+        }
+        try {
+            inspect();
+            checkMalware(hash);
+        } catch (FileValidationException e) {
+            verdicts.put(sha256, extension, ruleSetVersion, new VerdictCache.Verdict(e.getErrorCode(), e.getMessage()));
+            throw e;
+        }
+        verdicts.put(sha256, extension, ruleSetVersion, VerdictCache.Verdict.PASSED);
+        return sha256;
+    }
+
+    /**
+     * The file type detected from the content's first bytes, once {@link #verify()} has run;
+     * {@code null} if none was recognised or detection was skipped.
+     */
+    public String detectedType() {
+        return detectedType;
+    }
+
+    private void inspect() throws FileValidationException {
+        if (contentTypes != null) {
+            detectedType = detector.detect(head, (int) Math.min(total, head.length)).orElse(null);
+        }
+        if (contentTypes != null && (detectedType == null ? !contentTypes.isEmpty() : !contentTypes.contains(detectedType))) {
+            throw new FileValidationException(
+                    String.format("File signature doesn't match expected format for %s files", extension),
+                    "INVALID_FILE_SIGNATURE"
+            );
+        }
+        if (archive != null) {
+            archive.finish();
+        }
+        if (scanState == PatternScanner.MATCHED) {
+            throw new FileValidationException(
+                    "File contains potentially malicious content",
+                    "MALICIOUS_CONTENT"
+            );
+        }
+        if (scanner != null && nullBytes > total * 0.3) { // More than 30% null bytes
+            throw new FileValidationException(
+                    "File contains suspicious amount of null bytes",
+                    "SUSPICIOUS_CONTENT"
+            );
+        }
+    }
+
+    private void checkMalware(byte[] hash) throws FileValidationException {
+        if (malwareHashes.contains(hash)) {
+            throw new FileValidationException(
+                    "File matches known malicious file signature",
+                    "KNOWN_MALWARE"
+            );
+        }
+    }
+
+    private void countNullBytes(byte[] buffer, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (buffer[i] == 0) {
+                nullBytes++;
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.secureshare.securefiles.service;
+
+import com.secureshare.securefiles.service.exception.CryptoException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Pull-based plaintext view of an encrypted container. Holds one encrypted and one plaintext
+ * segment in memory; legacy single-blob ciphertexts are decrypted whole on construction.
+ * <p>
+ * Given an executor, up to {@code window} segments are read ahead and decrypted concurrently,
+ * and served in order.
+ */
+class DecryptingInputStream extends InputStream {
+
+    private final EncryptionService encryptionService;
+    private final InputStream in;
+    private final PushbackInputStream source;
+    private final SegmentedFormat format;
+    private final ExecutorService executor;
+    private final Slot[] slots;
+    private int head;
+    private int pending;
+    private byte[] plain;
+    private int position;
+    private int limit;
+    private long index;
+    private boolean finished;
+
+    DecryptingInputStream(EncryptionService encryptionService, InputStream in) throws IOException {
+        this(encryptionService, in, null, 1);
+    }
+
+    DecryptingInputStream(EncryptionService encryptionService, InputStream in,
+                          ExecutorService executor, int window) throws IOException {
+        this.encryptionService = encryptionService;
+        this.in = in;
+        this.executor = executor;
+        byte[] header = in.readNBytes(SegmentedFormat.HEADER_LENGTH);
+        this.format = SegmentedFormat.parse(header, header.length);
+        if (format == null) {
+            byte[] rest = in.readAllBytes();
+            byte[] blob = new byte[header.length + rest.length];
+            System.arraycopy(header, 0, blob, 0, header.length);
+            System.arraycopy(rest, 0, blob, header.length, rest.length);
+            try {
+                this.plain = encryptionService.decrypt(blob);
+            } catch (CryptoException e) {
+                throw new DecryptionFailure(e);
+            }
+            this.limit = plain.length;
+            this.finished = true;
+            this.source = null;
+            this.slots = new Slot[0];
+        } else {
+            this.source = new PushbackInputStream(in, 1);
+            this.slots = new Slot[executor == null ? 1 : window];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot(format);
+            }
+            this.plain = slots[0].plain;
+        }
+    }
+
+    /**
+     * Codec the container plaintext was compressed with before encryption.
+     */
+    CompressionCodec codec() {
+        return format == null ? CompressionCodec.NONE : CompressionCodec.fromId(format.codec());
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return plain[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, limit - position);
+        System.arraycopy(plain, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Slot slot : slots) {
+            if (slot.result != null) {
+                slot.result.cancel(false);
+                slot.result = null;
+            }
+        }
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        while (position == limit) {
+            if (executor == null) {
+                if (finished) {
+                    return false;
+                }
+                Slot slot = slots[0];
+                boolean last = readSegment(slot);
+                try {
+                    limit = encryptionService.decryptSegment(format, index++, last, slot.segment, slot.length, slot.plain);
+                } catch (CryptoException e) {
+                    throw new DecryptionFailure(e);
+                }
+                finished = last;
+            } else {
+                // The slot just served is free again, so the window can be topped up first
+                while (pending < slots.length && !finished) {
+                    Slot slot = slots[(head + pending) % slots.length];
+                    boolean last = readSegment(slot);
+                    long segmentIndex = index++;
+                    slot.result = executor.submit(() -> encryptionService.decryptSegment(format, segmentIndex, last,
+                            ByteBuffer.wrap(slot.segment, 0, slot.length), ByteBuffer.wrap(slot.plain)));
+                    pending++;
+                    finished = last;
+                }
+                if (pending == 0) {
+                    return false;
+                }
+                Slot slot = slots[head];
+                limit = await(slot);
+                plain = slot.plain;
+                head = (head + 1) % slots.length;
+                pending--;
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    private boolean readSegment(Slot slot) throws IOException {
+        slot.length = source.readNBytes(slot.segment, 0, slot.segment.length);
+        return slot.length < slot.segment.length || EncryptionService.isExhausted(source);
+    }
+
+    private int await(Slot slot) throws IOException {
+        try {
+            return slot.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decrypting");
+        } catch (ExecutionException e) {
+            CryptoException cryptoException = EncryptionService.cryptoCause(e);
+            if (cryptoException != null) {
+                throw new DecryptionFailure(cryptoException);
+            }
+            throw new IOException("Decryption failed", e.getCause());
+        } finally {
+            slot.result = null;
+        }
+    }
+
+    private static final class Slot {
+        final byte[] segment;
+        final byte[] plain;
+        int length;
+        Future<Integer> result;
+
+        Slot(SegmentedFormat format) {
+            this.segment = new byte[format.encryptedSegmentSize()];
+            this.plain = new byte[format.segmentSize()];
+        }
+    }
+
+    /**
+     * Carries an authentication failure through the {@link InputStream} contract.
+     */
+    static class DecryptionFailure extends IOException {
+        DecryptionFailure(CryptoException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized CryptoException getCause() {
+            return (CryptoException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.secureshare.securefiles.service;
+
+import com.secureshare.securefiles.service.exception.CryptoException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Push-based writer of the segmented container. A full segment is held back until more data
+ * arrives, so that {@link #close()} can flag the true final segment as last. Closing does not
+ * close the underlying stream.
+ * <p>
+ * Given an executor, segments are encrypted concurrently in a ring of slots and written in
+ * order as they complete; a slot is reused only after its segment has been written, which
+ * bounds memory to the ring size.
+ */
+class EncryptingOutputStream extends OutputStream {
+
+    private final EncryptionService encryptionService;
+    private final SegmentedFormat format;
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final Slot[] slots;
+    private int current;
+    private byte[] plain;
+    private int count;
+    private long index;
+    private boolean closed;
+
+    EncryptingOutputStream(EncryptionService encryptionService, SegmentedFormat format, OutputStream out)
+            throws IOException {
+        this(encryptionService, format, out, null, 1);
+    }
+
+    EncryptingOutputStream(EncryptionService encryptionService, SegmentedFormat format, OutputStream out,
+                           ExecutorService executor, int window) throws IOException {
+        this.encryptionService = encryptionService;
+        this.format = format;
+        this.out = out;
+        this.executor = executor;
+        this.slots = new Slot[executor == null ? 1 : window];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(format, executor != null);
+        }
+        this.plain = slots[0].plain;
+        out.write(format.header());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == plain.length) {
+            writeSegment(false);
+        }
+        plain[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (count == plain.length) {
+                writeSegment(false);
+            }
+            int chunk = Math.min(len, plain.length - count);
+            System.arraycopy(b, off, plain, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Writes the final segment. An empty plaintext still produces one, empty, last segment.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            writeSegment(true);
+            for (int i = 0; i < slots.length; i++) {
+                drain(slots[(current + i) % slots.length]);
+            }
+        }
+    }
+
+    /**
+     * Discards buffered data without writing a final segment, leaving an incomplete container
+     * that will fail authentication. Used when the producer fails mid-stream.
+     */
+    void abandon() {
+        closed = true;
+        for (Slot slot : slots) {
+            if (slot.pending != null) {
+                slot.pending.cancel(false);
+                slot.pending = null;
+            }
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        long segmentIndex = index++;
+        int length = count;
+        count = 0;
+        if (executor == null) {
+            try {
+                encryptionService.encryptSegment(format, segmentIndex, last, plain, length, out);
+            } catch (CryptoException e) {
+                throw new EncryptionFailure(e);
+            }
+            return;
+        }
+
+        Slot slot = slots[current];
+        slot.pending = executor.submit(() -> encryptionService.encryptSegment(format, segmentIndex, last,
+                ByteBuffer.wrap(slot.plain, 0, length), ByteBuffer.wrap(slot.segment)));
+        current = (current + 1) % slots.length;
+        drain(slots[current]);
+        plain = slots[current].plain;
+    }
+
+    private void drain(Slot slot) throws IOException {
+        if (slot.pending == null) {
+            return;
+        }
+        try {
+            int written = slot.pending.get();
+            out.write(slot.segment, 0, written);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encrypting");
+        } catch (ExecutionException e) {
+            CryptoException cryptoException = EncryptionService.cryptoCause(e);
+            if (cryptoException != null) {
+                throw new EncryptionFailure(cryptoException);
+            }
+            throw new IOException("Encryption failed", e.getCause());
+        } finally {
+            slot.pending = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static final class Slot {
+        final byte[] plain;
+        final byte[] segment;
+        Future<Integer> pending;
+
+        Slot(SegmentedFormat format, boolean concurrent) {
+            this.plain = new byte[format.segmentSize()];
+            // Sequential mode encrypts through the engine's own scratch buffer
+            this.segment = concurrent ? new byte[format.encryptedSegmentSize()] : null;
+        }
+    }
+
+    /**
+     * Carries an encryption failure through the {@link OutputStream} contract.
+     */
+    static class EncryptionFailure extends IOException {
+        EncryptionFailure(CryptoException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized CryptoException getCause() {
+            return (CryptoException) super.getCause();
+        }
+    }
+}
@@ -1,15 +1,31 @@
 package com.secureshare.securefiles.service;
 
-import com.secureshare.securefiles.file.FileStorageService;
 import com.secureshare.securefiles.service.exception.CryptoException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * AES-GCM encryption of stored files. Cipher instances are cached per thread and IVs come from
+ * a small set of shared DRBGs, so the hot path does not construct JCE objects per call; the
+ * {@link ByteBuffer} overloads additionally avoid intermediate arrays and accept direct buffers.
+ */
 @Service
 public class EncryptionService {
     private static final String ALGORITHM = "AES/GCM/NoPadding";
@@ -17,48 +33,500 @@ public class EncryptionService {
     private static final int IV_LENGTH = 12;
 
     private final SecretKey secretKey;
+    private final int segmentSize;
+    private final SecureRandom[] ivSources;
+    private final AtomicInteger nextIvSource;
+    private final ThreadLocal<Engine> engines;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final long parallelThreshold;
 
-    public EncryptionService(@Value("${app.encryption.secret-key}") String key) {
+    public EncryptionService(String key, int segmentSize) {
+        this(key, segmentSize, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param parallelism       worker threads for segment crypto on large files; 0 means one per core,
+     *                          1 disables parallel processing
+     * @param parallelThreshold plaintext size from which files are processed in parallel
+     */
+    @Autowired
+    public EncryptionService(@Value("${app.encryption.secret-key}") String key,
+                             @Value("${app.encryption.segment-size:65536}") int segmentSize,
+                             @Value("${app.encryption.parallelism:0}") int parallelism,
+                             @Value("${app.encryption.parallel-threshold:8388608}") long parallelThreshold) {
         this.secretKey = new SecretKeySpec(key.getBytes(), "AES");
+        this.segmentSize = segmentSize;
+        this.ivSources = createIvSources();
+        this.nextIvSource = new AtomicInteger();
+        this.engines = ThreadLocal.withInitial(this::newEngine);
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = threads > 1 ? new ForkJoinPool(threads, EncryptionService::newWorker, null, false) : null;
+        // Two segments in flight per worker keep every core busy while the caller does I/O
+        this.window = 2 * threads;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    private EncryptionService(EncryptionService base, SecretKey key) {
+        this.secretKey = key;
+        this.segmentSize = base.segmentSize;
+        this.ivSources = base.ivSources;
+        this.nextIvSource = base.nextIvSource;
+        this.engines = base.engines;
+        this.pool = base.pool;
+        this.window = base.window;
+        this.parallelThreshold = base.parallelThreshold;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns a view of this service that encrypts and decrypts with {@code key} instead of the
+     * configured secret key. The view shares the per-thread ciphers and the worker pool, so it
+     * is cheap enough to create per file.
+     */
+    public EncryptionService withKey(SecretKey key) {
+        return new EncryptionService(this, key);
     }
 
     public byte[] encrypt(byte[] data) throws CryptoException {
-        try {
-            byte[] iv = generateIv();
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        byte[] result = new byte[IV_LENGTH + data.length + SegmentedFormat.TAG_LENGTH];
+        encrypt(ByteBuffer.wrap(data), ByteBuffer.wrap(result));
+        return result;
+    }
 
-            byte[] encrypted = cipher.doFinal(data);
-            byte[] result = new byte[IV_LENGTH + encrypted.length];
-            System.arraycopy(iv, 0, result, 0, IV_LENGTH);
-            System.arraycopy(encrypted, 0, result, IV_LENGTH, encrypted.length);
+    public byte[] decrypt(byte[] encryptedData) throws CryptoException {
+        if (encryptedData.length < IV_LENGTH + SegmentedFormat.TAG_LENGTH) {
+            throw new CryptoException("Decryption failed", new IOException("Ciphertext too short"));
+        }
+        byte[] result = new byte[encryptedData.length - IV_LENGTH - SegmentedFormat.TAG_LENGTH];
+        decrypt(ByteBuffer.wrap(encryptedData), ByteBuffer.wrap(result));
+        return result;
+    }
 
-            return result;
+    /**
+     * Encrypts the remaining bytes of {@code plaintext} into {@code ciphertext} as
+     * {@code IV || ciphertext || tag}, advancing both positions. Either buffer may be direct.
+     * The IV is written before anything is encrypted, so to encrypt in place the plaintext must
+     * start exactly 12 bytes (the IV length) after the ciphertext position; any other overlap
+     * would overwrite plaintext before it is read, and is rejected for heap buffers.
+     *
+     * @return number of bytes written to {@code ciphertext}
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer ciphertext) throws CryptoException {
+        int required = IV_LENGTH + plaintext.remaining() + SegmentedFormat.TAG_LENGTH;
+        if (ciphertext.remaining() < required) {
+            throw new CryptoException("Encryption failed",
+                    new ShortBufferException("Need " + required + " bytes, have " + ciphertext.remaining()));
+        }
+        if (plaintext.hasArray() && ciphertext.hasArray() && plaintext.array() == ciphertext.array()) {
+            int plainStart = plaintext.arrayOffset() + plaintext.position();
+            int cipherStart = ciphertext.arrayOffset() + ciphertext.position();
+            boolean overlapping = plainStart < cipherStart + required && cipherStart < plainStart + plaintext.remaining();
+            if (overlapping && plainStart != cipherStart + IV_LENGTH) {
+                throw new CryptoException("Encryption failed", new IllegalArgumentException(
+                        "Overlapping plaintext must start " + IV_LENGTH + " bytes after the ciphertext position"));
+            }
+        }
+        Engine engine = engines.get();
+        try {
+            Cipher cipher = engine.initEncrypt(secretKey);
+            ciphertext.put(engine.iv);
+            return IV_LENGTH + cipher.doFinal(plaintext, ciphertext);
         } catch (GeneralSecurityException e) {
             throw new CryptoException("Encryption failed", e);
         }
     }
 
-    public byte[] decrypt(byte[] encryptedData) throws CryptoException {
+    /**
+     * Decrypts an {@code IV || ciphertext || tag} blob from the remaining bytes of
+     * {@code ciphertext} into {@code plaintext}, advancing both positions. Either buffer may be
+     * direct, and decrypting in place is supported.
+     *
+     * @return number of plaintext bytes written
+     */
+    public int decrypt(ByteBuffer ciphertext, ByteBuffer plaintext) throws CryptoException {
+        if (ciphertext.remaining() < IV_LENGTH + SegmentedFormat.TAG_LENGTH) {
+            throw new CryptoException("Decryption failed", new IOException("Ciphertext too short"));
+        }
+        Engine engine = engines.get();
+        try {
+            ciphertext.get(engine.iv);
+            return engine.initDecrypt(secretKey).doFinal(ciphertext, plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Container format used for new, uncompressed files, with the configured segment size.
+     */
+    public SegmentedFormat segmentedFormat() {
+        return SegmentedFormat.of(segmentSize, SegmentedFormat.CODEC_NONE);
+    }
+
+    /**
+     * Encrypts {@code in} into the segmented container format, one segment at a time.
+     * Memory use is bounded by the segment size regardless of the input length.
+     *
+     * @return number of plaintext bytes consumed
+     */
+    public long encrypt(InputStream in, OutputStream out) throws CryptoException, IOException {
+        return encrypt(in, out, CompressionCodec.NONE);
+    }
+
+    /**
+     * Compresses {@code in} with {@code codec}, then encrypts the compressed stream into the
+     * segmented container format. The codec is recorded in the header and undone on read.
+     *
+     * @return number of plaintext bytes consumed, before compression
+     */
+    public long encrypt(InputStream in, OutputStream out, CompressionCodec codec) throws CryptoException, IOException {
+        return encrypt(in, out, codec, 0);
+    }
+
+    /**
+     * Like {@link #encrypt(InputStream, OutputStream, CompressionCodec)}; when
+     * {@code expectedSize} reaches the parallel threshold, segments are encrypted concurrently
+     * on the crypto pool while the caller keeps reading and writing in order.
+     */
+    public long encrypt(InputStream in, OutputStream out, CompressionCodec codec, long expectedSize)
+            throws CryptoException, IOException {
+        SegmentedFormat format = SegmentedFormat.of(segmentSize, codec.id());
+        EncryptingOutputStream segments = isParallel(expectedSize)
+                ? new EncryptingOutputStream(this, format, out, pool, window)
+                : new EncryptingOutputStream(this, format, out);
+        OutputStream sink = codec.compress(segments);
+        boolean completed = false;
         try {
-            byte[] iv = new byte[IV_LENGTH];
-            System.arraycopy(encryptedData, 0, iv, 0, IV_LENGTH);
+            long total = in.transferTo(sink);
+            sink.close();
+            completed = true;
+            return total;
+        } catch (EncryptingOutputStream.EncryptionFailure e) {
+            throw e.getCause();
+        } finally {
+            // Whatever stopped the copy, including a validation failure thrown by the source
+            if (!completed) {
+                abandon(segments, sink);
+            }
+        }
+    }
 
-            byte[] data = new byte[encryptedData.length - IV_LENGTH];
-            System.arraycopy(encryptedData, IV_LENGTH, data, 0, data.length);
+    /**
+     * Encrypts one segment and writes {@code nonce || ciphertext || tag} to {@code out}. Callers
+     * that assemble a container incrementally must write {@link SegmentedFormat#header()} first
+     * and pass consecutive indexes, flagging exactly the final segment as {@code last}.
+     */
+    public void encryptSegment(SegmentedFormat format, long index, boolean last,
+                               byte[] plain, int length, OutputStream out) throws CryptoException, IOException {
+        byte[] segment = engines.get().segmentBuffer(IV_LENGTH + length + SegmentedFormat.TAG_LENGTH);
+        int written = encryptSegment(format, index, last, ByteBuffer.wrap(plain, 0, length), ByteBuffer.wrap(segment));
+        out.write(segment, 0, written);
+    }
+
+    /**
+     * Encrypts the remaining bytes of {@code plain} as one segment into {@code segment},
+     * advancing both positions.
+     *
+     * @return number of bytes written, {@code plain.remaining() + SEGMENT_OVERHEAD}
+     */
+    public int encryptSegment(SegmentedFormat format, long index, boolean last,
+                              ByteBuffer plain, ByteBuffer segment) throws CryptoException {
+        int required = plain.remaining() + SegmentedFormat.SEGMENT_OVERHEAD;
+        if (segment.remaining() < required) {
+            throw new CryptoException("Encryption failed",
+                    new ShortBufferException("Need " + required + " bytes, have " + segment.remaining()));
+        }
+        Engine engine = engines.get();
+        try {
+            Cipher cipher = engine.initEncrypt(secretKey);
+            engine.updateAad(format, index, last);
+            segment.put(engine.iv);
+            return IV_LENGTH + cipher.doFinal(plain, segment);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Encryption failed", e);
+        }
+    }
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+    /**
+     * Authenticates and decrypts one {@code nonce || ciphertext || tag} segment into {@code plain}.
+     *
+     * @return number of plaintext bytes produced
+     */
+    public int decryptSegment(SegmentedFormat format, long index, boolean last,
+                              byte[] segment, int length, byte[] plain) throws CryptoException {
+        return decryptSegment(format, index, last, ByteBuffer.wrap(segment, 0, length), ByteBuffer.wrap(plain));
+    }
 
-            return cipher.doFinal(data);
+    /**
+     * Authenticates and decrypts the segment held in the remaining bytes of {@code segment} into
+     * {@code plain}, advancing both positions. Decrypting in place is supported.
+     *
+     * @return number of plaintext bytes produced
+     */
+    public int decryptSegment(SegmentedFormat format, long index, boolean last,
+                              ByteBuffer segment, ByteBuffer plain) throws CryptoException {
+        if (segment.remaining() < SegmentedFormat.SEGMENT_OVERHEAD) {
+            throw new CryptoException("Decryption failed", new IOException("Truncated segment " + index));
+        }
+        Engine engine = engines.get();
+        try {
+            segment.get(engine.iv);
+            Cipher cipher = engine.initDecrypt(secretKey);
+            engine.updateAad(format, index, last);
+            return cipher.doFinal(segment, plain);
         } catch (GeneralSecurityException e) {
             throw new CryptoException("Decryption failed", e);
         }
     }
 
-    private byte[] generateIv() {
-        byte[] iv = new byte[IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        return iv;
+    /**
+     * Decrypts {@code in} into {@code out}. Segmented containers are processed one segment at a
+     * time; legacy single-blob ciphertexts are buffered and decrypted in one call.
+     *
+     * @return number of plaintext bytes written
+     */
+    public long decrypt(InputStream in, OutputStream out) throws CryptoException, IOException {
+        return decrypt(in, out, 0);
+    }
+
+    /**
+     * Like {@link #decrypt(InputStream, OutputStream)}, decrypting segments concurrently when
+     * {@code expectedSize} reaches the parallel threshold.
+     */
+    public long decrypt(InputStream in, OutputStream out, long expectedSize) throws CryptoException, IOException {
+        try (InputStream plain = openDecryptingStream(in, expectedSize)) {
+            return plain.transferTo(out);
+        } catch (DecryptingInputStream.DecryptionFailure e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns a stream of the plaintext of {@code in}, decrypting one segment per refill and
+     * decompressing if the container was written with a codec.
+     * Authentication failures surface as {@link IOException}s wrapping a {@link CryptoException}.
+     */
+    public InputStream openDecryptingStream(InputStream in) throws IOException {
+        return openDecryptingStream(in, 0);
+    }
+
+    /**
+     * Like {@link #openDecryptingStream(InputStream)}, reading ahead and decrypting segments
+     * concurrently when {@code expectedSize} reaches the parallel threshold.
+     */
+    public InputStream openDecryptingStream(InputStream in, long expectedSize) throws IOException {
+        DecryptingInputStream container = isParallel(expectedSize)
+                ? new DecryptingInputStream(this, in, pool, window)
+                : new DecryptingInputStream(this, in);
+        return container.codec().decompress(container);
+    }
+
+    /**
+     * Reads {@code length} bytes of a stored ciphertext starting at {@code offset}.
+     */
+    @FunctionalInterface
+    public interface RangeSource {
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    /**
+     * Decrypts plaintext bytes {@code [offset, offset + length)} of a container of
+     * {@code ciphertextLength} bytes. Only the segments covering the range are fetched, in one
+     * contiguous read, and authenticated; compressed containers are decoded from the start up
+     * to the end of the range, and legacy single-blob ciphertexts are decrypted whole.
+     */
+    public void decrypt(RangeSource source, long ciphertextLength, long offset, long length, OutputStream out)
+            throws CryptoException, IOException {
+        if (length <= 0) {
+            return;
+        }
+        byte[] header;
+        try (InputStream in = source.open(0, SegmentedFormat.HEADER_LENGTH)) {
+            header = in.readNBytes(SegmentedFormat.HEADER_LENGTH);
+        }
+        SegmentedFormat format = SegmentedFormat.parse(header, header.length);
+        if (format == null) {
+            byte[] plain;
+            try (InputStream in = source.open(0, ciphertextLength)) {
+                plain = decrypt(in.readAllBytes());
+            }
+            if (offset >= plain.length) {
+                return;
+            }
+            out.write(plain, (int) offset, (int) Math.min(length, plain.length - offset));
+            return;
+        }
+        if (format.codec() != SegmentedFormat.CODEC_NONE) {
+            decryptCompressedRange(source.open(0, ciphertextLength), offset, length, out);
+            return;
+        }
+
+        long segmentCount;
+        try {
+            segmentCount = format.segmentCount(ciphertextLength);
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Decryption failed", e);
+        }
+        int segmentSize = format.segmentSize();
+        long firstSegment = offset / segmentSize;
+        long lastSegment = Math.min((offset + length - 1) / segmentSize, segmentCount - 1);
+        if (firstSegment > lastSegment) {
+            return;
+        }
+
+        long start = format.segmentOffset(firstSegment);
+        long end = Math.min(format.segmentOffset(lastSegment + 1), ciphertextLength);
+        byte[] segment = new byte[format.encryptedSegmentSize()];
+        byte[] plain = new byte[segmentSize];
+        try (InputStream in = source.open(start, end - start)) {
+            for (long index = firstSegment; index <= lastSegment; index++) {
+                int read = in.readNBytes(segment, 0, segment.length);
+                int written = decryptSegment(format, index, index == segmentCount - 1, segment, read, plain);
+
+                long segmentStart = index * segmentSize;
+                int from = (int) Math.max(0, offset - segmentStart);
+                int to = (int) Math.min(written, offset + length - segmentStart);
+                if (to > from) {
+                    out.write(plain, from, to - from);
+                }
+            }
+        }
+    }
+
+    // A compressed stream cannot be entered mid-way, so everything before the range is decoded and skipped
+    private void decryptCompressedRange(InputStream in, long offset, long length, OutputStream out)
+            throws CryptoException, IOException {
+        try (InputStream plain = openDecryptingStream(in)) {
+            try {
+                plain.skipNBytes(offset);
+            } catch (EOFException e) {
+                return;
+            }
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = plain.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (DecryptingInputStream.DecryptionFailure e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void abandon(EncryptingOutputStream segments, OutputStream sink) {
+        segments.abandon();
+        try {
+            // Releases the compressor; the abandoned segment stream rejects what it flushes
+            sink.close();
+        } catch (IOException ignored) {
+            // nothing more to clean up
+        }
+    }
+
+    static boolean isExhausted(PushbackInputStream in) throws IOException {
+        int next = in.read();
+        if (next == -1) {
+            return true;
+        }
+        in.unread(next);
+        return false;
+    }
+
+    /**
+     * The {@link CryptoException} behind a failed segment task; the pool may wrap it more than once.
+     */
+    static CryptoException cryptoCause(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CryptoException cryptoException) {
+                return cryptoException;
+            }
+        }
+        return null;
+    }
+
+    private boolean isParallel(long expectedSize) {
+        return pool != null && expectedSize >= parallelThreshold;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("segment-crypto-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    private Engine newEngine() {
+        try {
+            // Threads are spread round-robin over the IV sources to keep DRBG contention low
+            SecureRandom random = ivSources[Math.floorMod(nextIvSource.getAndIncrement(), ivSources.length)];
+            return new Engine(Cipher.getInstance(ALGORITHM), random);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        }
+    }
+
+    private static SecureRandom[] createIvSources() {
+        SecureRandom[] sources = new SecureRandom[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1)];
+        for (int i = 0; i < sources.length; i++) {
+            try {
+                sources[i] = SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                sources[i] = new SecureRandom();
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Per-thread cipher and scratch space, shared by all {@link #withKey keyed views}. A
+     * {@link Cipher} is re-initialized for every message, which resets it even after a failed
+     * authentication.
+     */
+    private final class Engine {
+        private final Cipher cipher;
+        private final SecureRandom random;
+        private final byte[] iv = new byte[IV_LENGTH];
+        private final byte[] aad = new byte[SegmentedFormat.SEGMENT_AAD_LENGTH];
+        private byte[] segment = new byte[0];
+
+        private Engine(Cipher cipher, SecureRandom random) {
+            this.cipher = cipher;
+            this.random = random;
+        }
+
+        Cipher initEncrypt(SecretKey key) throws GeneralSecurityException {
+            random.nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher;
+        }
+
+        // Expects the IV to have been read into iv
+        Cipher initDecrypt(SecretKey key) throws GeneralSecurityException {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher;
+        }
+
+        void updateAad(SegmentedFormat format, long index, boolean last) {
+            cipher.updateAAD(format.headerBytes());
+            SegmentedFormat.writeSegmentAad(index, last, aad);
+            cipher.updateAAD(aad);
+        }
+
+        byte[] segmentBuffer(int length) {
+            if (segment.length < length) {
+                segment = new byte[Math.max(length, IV_LENGTH + segmentSize + SegmentedFormat.TAG_LENGTH)];
+            }
+            return segment;
+        }
     }
-}
\ No newline at end of file
+}
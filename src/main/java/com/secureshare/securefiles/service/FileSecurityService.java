@@ -1,45 +1,79 @@
 package com.secureshare.securefiles.service;
 
+import com.secureshare.securefiles.file.FileEntity;
 import com.secureshare.securefiles.file.FileRepository;
-import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.file.ScanStatus;
+import com.secureshare.securefiles.user.AuthenticatedUser;
 import org.springframework.stereotype.Service;
 
 @Service
 public class FileSecurityService {
 
     private final FileRepository fileRepository;
+    private final boolean scanEnabled;
 
-    public FileSecurityService(FileRepository fileRepository) {
+    public FileSecurityService(FileRepository fileRepository, boolean scanEnabled) {
         this.fileRepository = fileRepository;
+        this.scanEnabled = scanEnabled;
     }
 
     /**
      * Checks if a user can access a specific file
      * @param fileId ID of the file to check
      * @param user The user attempting access
-     * @return true if user is owner or has been shared the file
+     * @return true if user is owner or has been shared the file, and the file has been released
      */
-    public boolean canAccessFile(Long fileId, User user) {
+    public boolean canAccessFile(Long fileId, AuthenticatedUser user) {
         if (user == null) return false;
 
         return fileRepository.findById(fileId)
-                .map(file -> file.getUser().getId().equals(user.getId()) ||
+                .filter(this::isReleased)
+                .map(file -> file.getUser().getId().equals(user.id()) ||
                         file.getSharedFiles().stream()
-                                .anyMatch(sf -> sf.getSharedBy().getId().equals(user.getId())))
+                                .anyMatch(sf -> sf.getSharedBy().getId().equals(user.id())))
                 .orElse(false);
     }
 
+    /**
+     * Checks if a user can create share links for a specific file
+     * @param fileId ID of the file to check
+     * @param user The user attempting to share
+     * @return true only if user is the owner and the file has been released
+     */
+    public boolean canShareFile(Long fileId, AuthenticatedUser user) {
+        if (user == null) return false;
+
+        return fileRepository.findById(fileId)
+                .filter(this::isReleased)
+                .map(file -> file.getUser().getId().equals(user.id()))
+                .orElse(false);
+    }
+
+    /**
+     * Checks if a file's content may leave the system. Unscanned files are only held back while
+     * scanning is enabled, since nothing scans them otherwise; files stored before scanning existed
+     * have no status and are released
+     * @param file The stored file
+     * @return false if the file is quarantined, or unscanned while scanning is enabled
+     */
+    public boolean isReleased(FileEntity file) {
+        ScanStatus status = file.getScanStatus();
+        if (status == null || status == ScanStatus.CLEAN) return true;
+        if (status == ScanStatus.QUARANTINED) return false;
+        return !scanEnabled;
+    }
+
     /**
      * Checks if a user can delete a specific file
      * @param fileId ID of the file to check
      * @param user The user attempting deletion
      * @return true only if user is the owner of the file
      */
-    public boolean canDeleteFile(Long fileId, User user) {
+    public boolean canDeleteFile(Long fileId, AuthenticatedUser user) {
         if (user == null) return false;
 
         return fileRepository.findById(fileId)
-                .map(file -> file.getUser().getId().equals(user.getId()))
+                .map(file -> file.getUser().getId().equals(user.id()))
                 .orElse(false);
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package com.secureshare.securefiles.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+
+/**
+ * Detects a file's actual type from its first bytes. Magic-number rules are compiled into a
+ * byte trie, which is then made deterministic so that wildcard bytes (a RIFF chunk size, an
+ * ISO-BMFF box length) need no backtracking. Detection walks the header once, one table lookup
+ * per byte, and stops early once no rule can match any more; its cost is bounded by
+ * {@link #headerLength()} however many rules there are. The longest matching rule wins, so a
+ * specific rule such as EPUB's takes precedence over the generic ZIP rule it extends.
+ */
+public final class FileTypeDetector {
+    private static final int ALPHABET = 256;
+    private static final int DEAD = 0;
+    private static final int START = 1;
+
+    /**
+     * A magic number for {@code type}: {@code pattern} is matched {@code offset} bytes into the
+     * file, with {@code null} entries matching any byte.
+     */
+    public record Rule(String type, int offset, Integer[] pattern) {
+
+        /**
+         * Parses a pattern written as space-separated hex bytes, {@code ??} for any byte,
+         * {@code {n}} for n arbitrary bytes and single-quoted ASCII, e.g.
+         * {@code 'RIFF' ?? ?? ?? ?? 'WEBP'}.
+         */
+        public static Rule of(String type, int offset, String pattern) {
+            List<Integer> bytes = new ArrayList<>();
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i);
+                if (c == ' ') {
+                    i++;
+                } else if (c == '{') {
+                    int end = pattern.indexOf('}', i);
+                    int count = Integer.parseInt(pattern.substring(i + 1, end));
+                    for (int n = 0; n < count; n++) {
+                        bytes.add(null);
+                    }
+                    i = end + 1;
+                } else if (c == '\'') {
+                    int end = pattern.indexOf('\'', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated quote in " + pattern);
+                    }
+                    pattern.substring(i + 1, end).chars().forEach(bytes::add);
+                    i = end + 1;
+                } else {
+                    String token = pattern.substring(i, Math.min(i + 2, pattern.length()));
+                    bytes.add("??".equals(token) ? null : Integer.parseInt(token, 16));
+                    i += 2;
+                }
+            }
+            if (bytes.isEmpty()) {
+                throw new IllegalArgumentException("Empty pattern for " + type);
+            }
+            return new Rule(type, offset, bytes.toArray(Integer[]::new));
+        }
+    }
+
+    private final int[] transitions;
+    private final String[] accepted;
+    private final int headerLength;
+
+    private FileTypeDetector(int[] transitions, String[] accepted, int headerLength) {
+        this.transitions = transitions;
+        this.accepted = accepted;
+        this.headerLength = headerLength;
+    }
+
+    public static FileTypeDetector compile(List<Rule> rules) {
+        // Trie over the rules, offsets expressed as leading wildcards
+        List<int[]> exact = new ArrayList<>();
+        List<Integer> wildcard = new ArrayList<>();
+        // Index of the first rule ending at each node, or -1
+        List<Integer> ruleAt = new ArrayList<>();
+        exact.add(newEdges());
+        wildcard.add(-1);
+        ruleAt.add(-1);
+        int headerLength = 0;
+        for (int r = 0; r < rules.size(); r++) {
+            Rule rule = rules.get(r);
+            Integer[] pattern = new Integer[rule.offset() + rule.pattern().length];
+            System.arraycopy(rule.pattern(), 0, pattern, rule.offset(), rule.pattern().length);
+            headerLength = Math.max(headerLength, pattern.length);
+            int node = 0;
+            for (Integer b : pattern) {
+                int next = b == null ? wildcard.get(node) : exact.get(node)[b];
+                if (next < 0) {
+                    next = exact.size();
+                    exact.add(newEdges());
+                    wildcard.add(-1);
+                    ruleAt.add(-1);
+                    if (b == null) {
+                        wildcard.set(node, next);
+                    } else {
+                        exact.get(node)[b] = next;
+                    }
+                }
+                node = next;
+            }
+            if (ruleAt.get(node) < 0) {
+                ruleAt.set(node, r);
+            }
+        }
+
+        // Subset construction: a state is the set of trie nodes reachable by the same bytes.
+        // All of them sit at the same depth, so a state accepts the earliest rule ending there.
+        Map<List<Integer>, Integer> stateIds = new HashMap<>();
+        List<List<Integer>> states = new ArrayList<>();
+        states.add(List.of());
+        states.add(List.of(0));
+        stateIds.put(List.of(), DEAD);
+        stateIds.put(List.of(0), START);
+        List<int[]> rows = new ArrayList<>();
+        rows.add(new int[ALPHABET]);
+        Queue<Integer> queue = new ArrayDeque<>(List.of(START));
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int[] row = new int[ALPHABET];
+            for (int c = 0; c < ALPHABET; c++) {
+                List<Integer> target = new ArrayList<>();
+                for (int node : states.get(state)) {
+                    addIfPresent(target, exact.get(node)[c]);
+                    addIfPresent(target, wildcard.get(node));
+                }
+                target.sort(null);
+                Integer id = stateIds.get(target);
+                if (id == null) {
+                    id = states.size();
+                    states.add(target);
+                    stateIds.put(target, id);
+                    queue.add(id);
+                }
+                row[c] = id;
+            }
+            while (rows.size() <= state) {
+                rows.add(null);
+            }
+            rows.set(state, row);
+        }
+
+        int[] transitions = new int[states.size() * ALPHABET];
+        String[] accepted = new String[states.size()];
+        for (int state = 0; state < states.size(); state++) {
+            System.arraycopy(rows.get(state), 0, transitions, state * ALPHABET, ALPHABET);
+            accepted[state] = states.get(state).stream()
+                    .map(ruleAt::get)
+                    .filter(r -> r >= 0)
+                    .min(Integer::compare)
+                    .map(r -> rules.get(r).type())
+                    .orElse(null);
+        }
+        return new FileTypeDetector(transitions, accepted, headerLength);
+    }
+
+    /**
+     * Bytes of the file's beginning that detection may look at.
+     */
+    public int headerLength() {
+        return headerLength;
+    }
+
+    /**
+     * @return the type of the longest rule matching the first {@code length} bytes of
+     *         {@code header}, or empty if none does
+     */
+    public Optional<String> detect(byte[] header, int length) {
+        String type = null;
+        int state = START;
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * ALPHABET + (header[i] & 0xFF)];
+            if (state == DEAD) {
+                break;
+            }
+            if (accepted[state] != null) {
+                type = accepted[state];
+            }
+        }
+        return Optional.ofNullable(type);
+    }
+
+    private static int[] newEdges() {
+        int[] edges = new int[ALPHABET];
+        Arrays.fill(edges, -1);
+        return edges;
+    }
+
+    private static void addIfPresent(List<Integer> nodes, int node) {
+        if (node >= 0 && !nodes.contains(node)) {
+            nodes.add(node);
+        }
+    }
+}
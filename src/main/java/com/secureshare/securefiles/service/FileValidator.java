@@ -1,17 +1,24 @@
 package com.secureshare.securefiles.service;
 
+import com.secureshare.securefiles.scan.ContentScanner;
+import jakarta.annotation.PostConstruct;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
@@ -21,31 +28,210 @@ public class FileValidator {
     @Value("${app.file.max-size:52428800}") // 50MB default
     private long maxFileSize;
 
+    // Only present with scanning on; larger uploads could never be scanned, so never released
+    @Autowired(required = false)
+    private ContentScanner malwareScanner;
+
     @Value("${app.file.max-filename-length:255}")
     private int maxFilenameLength;
 
+    // Extra content rules, comma-separated, on top of the built-in ones
+    @Value("${app.file.content-rules:}")
+    private List<String> contentRules = List.of();
+
+    // File of extra content rules, one per line; blank lines and lines starting with # are skipped
+    @Value("${app.file.content-rules-file:}")
+    private String contentRulesFile = "";
+
+    private PatternScanner contentScanner = PatternScanner.compile(DEFAULT_CONTENT_RULES);
+    private volatile long contentRulesVersion;
+
+    // Caps for inspecting archive uploads, across all nested archives
+    @Value("${app.file.archive.max-entries:10000}")
+    private int archiveMaxEntries = 10000;
+
+    @Value("${app.file.archive.max-depth:3}")
+    private int archiveMaxDepth = 3;
+
+    @Value("${app.file.archive.max-inflated-bytes:1073741824}") // 1GB default
+    private long archiveMaxInflatedBytes = 1L << 30;
+
+    @Value("${app.file.archive.max-ratio:100}")
+    private int archiveMaxRatio = 100;
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private final MalwareHashStore malwareHashes;
+    private final VerdictCache verdicts;
+
+    public FileValidator(MalwareHashStore malwareHashes, VerdictCache verdicts) {
+        this.malwareHashes = malwareHashes;
+        this.verdicts = verdicts;
+    }
+
+    /**
+     * An accepted extension: the MIME types it may be declared with, the detected content
+     * types it may actually hold ({@code null} to skip detection, empty for formats without a
+     * magic number, which must then not look like anything else), and whether its payload is
+     * compressed already.
+     */
+    private record Format(Set<String> mimeTypes, Set<String> contentTypes, boolean compressed) {
+    }
+
+    private static Map.Entry<String, Format> format(String extension, Set<String> mimeTypes,
+                                                   Set<String> contentTypes, boolean compressed) {
+        return Map.entry(extension, new Format(mimeTypes, contentTypes, compressed));
+    }
+
+    private static final Set<String> TEXT = Set.of();
+
+    // Binary formats that can carry scripts, so their content is scanned like text
+    private static final Set<String> SCRIPTABLE_TYPES = Set.of("pdf", "rtf");
+
+    // Detected types never accepted inside an archive either
+    private static final Set<String> EXECUTABLE_TYPES = Set.of(
+            "pe-executable", "elf-executable", "mach-o", "java-class", "wasm", "script");
+
     // Comprehensive MIME type validation
-    private static final Map<String, Set<String>> ALLOWED_MIME_TYPES = Map.of(
-            "jpg", Set.of("image/jpeg"),
-            "jpeg", Set.of("image/jpeg"),
-            "png", Set.of("image/png"),
-            "pdf", Set.of("application/pdf"),
-            "txt", Set.of("text/plain"),
-            "doc", Set.of("application/msword"),
-            "docx", Set.of("application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
-            "xls", Set.of("application/vnd.ms-excel"),
-            "xlsx", Set.of("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
-            "enc", Set.of("application/octet-stream", "application/x-encrypted", "application/encrypted")
+    private static final Map<String, Format> FORMATS = Map.ofEntries(
+            // Images
+            format("jpg", Set.of("image/jpeg"), Set.of("jpeg"), true),
+            format("jpeg", Set.of("image/jpeg"), Set.of("jpeg"), true),
+            format("png", Set.of("image/png"), Set.of("png"), true),
+            format("gif", Set.of("image/gif"), Set.of("gif"), true),
+            format("bmp", Set.of("image/bmp"), Set.of("bmp"), false),
+            format("webp", Set.of("image/webp"), Set.of("webp"), true),
+            format("tif", Set.of("image/tiff"), Set.of("tiff"), false),
+            format("tiff", Set.of("image/tiff"), Set.of("tiff"), false),
+            format("ico", Set.of("image/x-icon", "image/vnd.microsoft.icon"), Set.of("ico"), false),
+            format("heic", Set.of("image/heic"), Set.of("heic"), true),
+            format("heif", Set.of("image/heif"), Set.of("heic"), true),
+            format("avif", Set.of("image/avif"), Set.of("avif"), true),
+            format("psd", Set.of("image/vnd.adobe.photoshop"), Set.of("psd"), false),
+            // Documents
+            format("pdf", Set.of("application/pdf"), Set.of("pdf"), false),
+            format("txt", Set.of("text/plain"), TEXT, false),
+            format("csv", Set.of("text/csv"), TEXT, false),
+            format("md", Set.of("text/markdown"), TEXT, false),
+            format("json", Set.of("application/json"), TEXT, false),
+            format("rtf", Set.of("application/rtf", "text/rtf"), Set.of("rtf"), false),
+            format("doc", Set.of("application/msword"), Set.of("ole2"), false),
+            format("xls", Set.of("application/vnd.ms-excel"), Set.of("ole2"), false),
+            format("ppt", Set.of("application/vnd.ms-powerpoint"), Set.of("ole2"), false),
+            format("docx", Set.of("application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+                    Set.of("zip"), true),
+            format("xlsx", Set.of("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+                    Set.of("zip"), true),
+            format("pptx", Set.of("application/vnd.openxmlformats-officedocument.presentationml.presentation"),
+                    Set.of("zip"), true),
+            format("odt", Set.of("application/vnd.oasis.opendocument.text"), Set.of("odt", "zip"), true),
+            format("ods", Set.of("application/vnd.oasis.opendocument.spreadsheet"), Set.of("ods", "zip"), true),
+            format("odp", Set.of("application/vnd.oasis.opendocument.presentation"), Set.of("odp", "zip"), true),
+            format("epub", Set.of("application/epub+zip"), Set.of("epub", "zip"), true),
+            // Archives
+            format("zip", Set.of("application/zip", "application/x-zip-compressed"), Set.of("zip"), true),
+            // Only formats ArchiveInspection can see into; others could hide executables
+            format("gz", Set.of("application/gzip", "application/x-gzip"), Set.of("gzip"), true),
+            format("tgz", Set.of("application/gzip", "application/x-gzip", "application/x-compressed-tar"),
+                    Set.of("gzip"), true),
+            format("tar", Set.of("application/x-tar"), Set.of("tar"), false),
+            // Audio
+            format("mp3", Set.of("audio/mpeg"), Set.of("mp3"), true),
+            format("wav", Set.of("audio/wav", "audio/x-wav"), Set.of("wav"), false),
+            format("flac", Set.of("audio/flac"), Set.of("flac"), true),
+            format("ogg", Set.of("audio/ogg"), Set.of("ogg"), true),
+            format("m4a", Set.of("audio/mp4", "audio/x-m4a"), Set.of("m4a", "mp4"), true),
+            format("aiff", Set.of("audio/aiff", "audio/x-aiff"), Set.of("aiff"), false),
+            format("mid", Set.of("audio/midi"), Set.of("midi"), false),
+            format("midi", Set.of("audio/midi"), Set.of("midi"), false),
+            // Video
+            format("mp4", Set.of("video/mp4"), Set.of("mp4"), true),
+            format("mov", Set.of("video/quicktime"), Set.of("mov"), true),
+            format("3gp", Set.of("video/3gpp"), Set.of("3gp"), true),
+            format("avi", Set.of("video/x-msvideo"), Set.of("avi"), false),
+            format("mkv", Set.of("video/x-matroska"), Set.of("ebml"), true),
+            format("webm", Set.of("video/webm"), Set.of("ebml"), true),
+            // Fonts
+            format("woff", Set.of("font/woff"), Set.of("woff"), true),
+            format("woff2", Set.of("font/woff2"), Set.of("woff2"), true),
+            format("ttf", Set.of("font/ttf"), Set.of("ttf"), false),
+            format("otf", Set.of("font/otf"), Set.of("otf"), false),
+            // Client-side encrypted, opaque by design
+            format("enc", Set.of("application/octet-stream", "application/x-encrypted", "application/encrypted"),
+                    null, true)
     );
 
-    // Magic number validation for file type verification
-    private static final Map<String, byte[][]> FILE_SIGNATURES = Map.of(
-            "pdf", new byte[][]{{0x25, 0x50, 0x44, 0x46}}, // %PDF
-            "jpg", new byte[][]{{(byte)0xFF, (byte)0xD8, (byte)0xFF}}, // JPEG
-            "png", new byte[][]{{(byte)0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A}}, // PNG
-            "txt", new byte[][]{}, // Text files don't have reliable magic numbers
-            "enc", new byte[][]{}
-    );
+    // Magic numbers, including types no extension accepts, such as executables, so they are
+    // recognised and rejected whatever they are named
+    private static final FileTypeDetector FILE_TYPES = FileTypeDetector.compile(List.of(
+            FileTypeDetector.Rule.of("jpeg", 0, "FF D8 FF"),
+            FileTypeDetector.Rule.of("png", 0, "89 'PNG' 0D 0A 1A 0A"),
+            FileTypeDetector.Rule.of("gif", 0, "'GIF87a'"),
+            FileTypeDetector.Rule.of("gif", 0, "'GIF89a'"),
+            FileTypeDetector.Rule.of("bmp", 0, "'BM' ?? ?? ?? ?? 00 00 00 00"),
+            FileTypeDetector.Rule.of("webp", 0, "'RIFF' ?? ?? ?? ?? 'WEBP'"),
+            FileTypeDetector.Rule.of("tiff", 0, "'II' 2A 00"),
+            FileTypeDetector.Rule.of("tiff", 0, "'MM' 00 2A"),
+            FileTypeDetector.Rule.of("ico", 0, "00 00 01 00"),
+            FileTypeDetector.Rule.of("psd", 0, "'8BPS'"),
+            FileTypeDetector.Rule.of("heic", 4, "'ftypheic'"),
+            FileTypeDetector.Rule.of("heic", 4, "'ftypheix'"),
+            FileTypeDetector.Rule.of("heic", 4, "'ftyphevc'"),
+            FileTypeDetector.Rule.of("heic", 4, "'ftypmif1'"),
+            FileTypeDetector.Rule.of("heic", 4, "'ftypmsf1'"),
+            FileTypeDetector.Rule.of("avif", 4, "'ftypavif'"),
+            FileTypeDetector.Rule.of("pdf", 0, "'%PDF-'"),
+            FileTypeDetector.Rule.of("rtf", 0, "'{\\rtf'"),
+            FileTypeDetector.Rule.of("ole2", 0, "D0 CF 11 E0 A1 B1 1A E1"),
+            FileTypeDetector.Rule.of("zip", 0, "'PK' 03 04"),
+            FileTypeDetector.Rule.of("zip", 0, "'PK' 05 06"),
+            FileTypeDetector.Rule.of("zip", 0, "'PK' 07 08"),
+            // OpenDocument and EPUB store an uncompressed "mimetype" entry first
+            FileTypeDetector.Rule.of("odt", 0, "'PK' 03 04 {26} 'mimetypeapplication/vnd.oasis.opendocument.text'"),
+            FileTypeDetector.Rule.of("ods", 0, "'PK' 03 04 {26} 'mimetypeapplication/vnd.oasis.opendocument.spreadsheet'"),
+            FileTypeDetector.Rule.of("odp", 0, "'PK' 03 04 {26} 'mimetypeapplication/vnd.oasis.opendocument.presentation'"),
+            FileTypeDetector.Rule.of("epub", 0, "'PK' 03 04 {26} 'mimetypeapplication/epub+zip'"),
+            FileTypeDetector.Rule.of("gzip", 0, "1F 8B"),
+            FileTypeDetector.Rule.of("bzip2", 0, "'BZh'"),
+            FileTypeDetector.Rule.of("xz", 0, "FD '7zXZ' 00"),
+            FileTypeDetector.Rule.of("zstd", 0, "28 B5 2F FD"),
+            FileTypeDetector.Rule.of("7z", 0, "'7z' BC AF 27 1C"),
+            FileTypeDetector.Rule.of("rar", 0, "'Rar!' 1A 07"),
+            FileTypeDetector.Rule.of("tar", 257, "'ustar'"),
+            FileTypeDetector.Rule.of("mp3", 0, "'ID3'"),
+            FileTypeDetector.Rule.of("mp3", 0, "FF FB"),
+            FileTypeDetector.Rule.of("mp3", 0, "FF F3"),
+            FileTypeDetector.Rule.of("mp3", 0, "FF F2"),
+            FileTypeDetector.Rule.of("wav", 0, "'RIFF' ?? ?? ?? ?? 'WAVE'"),
+            FileTypeDetector.Rule.of("avi", 0, "'RIFF' ?? ?? ?? ?? 'AVI '"),
+            FileTypeDetector.Rule.of("aiff", 0, "'FORM' ?? ?? ?? ?? 'AIFF'"),
+            FileTypeDetector.Rule.of("flac", 0, "'fLaC'"),
+            FileTypeDetector.Rule.of("ogg", 0, "'OggS'"),
+            FileTypeDetector.Rule.of("midi", 0, "'MThd'"),
+            FileTypeDetector.Rule.of("m4a", 4, "'ftypM4A '"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypisom'"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypiso2'"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypmp41'"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypmp42'"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypavc1'"),
+            FileTypeDetector.Rule.of("mp4", 4, "'ftypdash'"),
+            FileTypeDetector.Rule.of("mov", 4, "'ftypqt  '"),
+            FileTypeDetector.Rule.of("mov", 4, "'moov'"),
+            FileTypeDetector.Rule.of("3gp", 4, "'ftyp3g'"),
+            FileTypeDetector.Rule.of("ebml", 0, "1A 45 DF A3"),
+            FileTypeDetector.Rule.of("woff", 0, "'wOFF'"),
+            FileTypeDetector.Rule.of("woff2", 0, "'wOF2'"),
+            FileTypeDetector.Rule.of("ttf", 0, "00 01 00 00 00"),
+            FileTypeDetector.Rule.of("otf", 0, "'OTTO'"),
+            FileTypeDetector.Rule.of("pe-executable", 0, "'MZ'"),
+            FileTypeDetector.Rule.of("elf-executable", 0, "7F 'ELF'"),
+            FileTypeDetector.Rule.of("mach-o", 0, "CF FA ED FE"),
+            FileTypeDetector.Rule.of("mach-o", 0, "CE FA ED FE"),
+            FileTypeDetector.Rule.of("java-class", 0, "CA FE BA BE"),
+            FileTypeDetector.Rule.of("wasm", 0, "00 'asm'"),
+            FileTypeDetector.Rule.of("script", 0, "'#!'"),
+            FileTypeDetector.Rule.of("sqlite", 0, "'SQLite format 3' 00")
+    ));
 
     // Malicious filename patterns
     private static final Pattern MALICIOUS_FILENAME_PATTERN = Pattern.compile(
@@ -59,50 +245,161 @@ public class FileValidator {
             "app", "deb", "pkg", "dmg", "sh", "ps1", "msi", "dll"
     );
 
-    // Known malicious file hashes (simplified example)
-    private static final Set<String> MALICIOUS_HASHES = Set.of(
-            // Add known malicious file hashes here
-            "d41d8cd98f00b204e9800998ecf8427e" // Example MD5 hash
+    // Script and shell fragments that content must not contain, matched case-insensitively
+    private static final List<String> DEFAULT_CONTENT_RULES = List.of(
+            "<script", "javascript:", "vbscript:", "onload=", "onerror=",
+            "<?php", "<%", "exec(", "system(", "shell_exec",
+            "rm -rf", "format c:", "del /", "rundll32"
     );
 
-    public void validate(MultipartFile file) throws FileValidationException {
-        log.debug("Starting validation for file: {}", file.getOriginalFilename());
+    /**
+     * Compiles the built-in content rules together with the configured ones into a single
+     * scanner, so the number of rules does not affect how long scanning an upload takes.
+     */
+    @PostConstruct
+    public void loadContentRules() throws IOException {
+        List<String> rules = new ArrayList<>(DEFAULT_CONTENT_RULES);
+        rules.addAll(contentRules);
+        if (!contentRulesFile.isBlank()) {
+            try (Stream<String> lines = Files.lines(Paths.get(contentRulesFile))) {
+                lines.map(String::strip)
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .forEach(rules::add);
+            }
+        }
+        contentScanner = PatternScanner.compile(rules);
+        contentRulesVersion++;
+        log.info("Loaded {} content rules", contentScanner.patternCount());
+    }
+
+    /**
+     * @return hex SHA-256 of the file content
+     */
+    public String validate(MultipartFile file) throws FileValidationException {
+        if (file == null) {
+            throw new FileValidationException("File cannot be null", "NULL_FILE");
+        }
+        return validate(file.getOriginalFilename(), file.getContentType(), file.getSize(), file);
+    }
+
+    /**
+     * Validates content that is not held in a {@link MultipartFile}, e.g. a finalized resumable
+     * upload whose plaintext is only available as a decrypting stream. The content is read once.
+     *
+     * @return hex SHA-256 of the content
+     */
+    public String validate(String filename, String contentType, long size, InputStreamSource content)
+            throws FileValidationException {
+        log.debug("Starting validation for file: {}", filename);
 
         try {
-            validateBasicProperties(file);
-            validateFilename(file.getOriginalFilename());
-            validateFileExtension(file.getOriginalFilename());
-            validateMimeType(file);
-            validateFileSignature(file);
-            validateFileContent(file);
-            validateFileHash(file);
+            validateMetadata(filename, contentType, size);
+
+            ContentInspection inspection = newInspection(filename);
+            try (InputStream in = inspection.wrap(content.getInputStream())) {
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+                throw new FileValidationException("Cannot read file content for validation", "CONTENT_READ_ERROR");
+            }
+            String hash = inspection.verify();
 
-            log.info("File validation successful: {}", file.getOriginalFilename());
+            log.info("File validation successful: {}", filename);
+            return hash;
 
         } catch (Exception e) {
-            log.warn("File validation failed for {}: {}", file.getOriginalFilename(), e.getMessage());
+            log.warn("File validation failed for {}: {}", filename, e.getMessage());
             throw e;
         }
     }
 
-    private void validateBasicProperties(MultipartFile file) throws FileValidationException {
-        if (file == null) {
-            throw new FileValidationException("File cannot be null", "NULL_FILE");
+    /**
+     * Starts the content checks for {@code filename}, for callers that stream the content
+     * through other consumers as well, such as encryption. Run {@link #validateMetadata} first.
+     */
+    public ContentInspection newInspection(String filename) {
+        return newInspection(filename, null);
+    }
+
+    /**
+     * Like {@link #newInspection(String)}, for content whose SHA-256 the client declared up
+     * front. If the same content was judged under the current rules before, the verdict is
+     * reused: a rejection is reported straight away, and for content that passed only its hash
+     * is computed and compared with the declared one. Verdicts are only ever recorded under the
+     * computed hash, so a false declaration cannot vouch for other content.
+     *
+     * @param declaredSha256 hex SHA-256 the content must have, or {@code null}
+     * @throws FileValidationException if the declared hash is malformed or the content was
+     *                                 rejected before
+     */
+    public ContentInspection newInspection(String filename, String declaredSha256) throws FileValidationException {
+        String extension = getFileExtension(filename);
+        // Content rules and the hash feed are versioned independently; either reload retires
+        // the verdicts reached before it
+        long ruleSetVersion = contentRulesVersion << 32 | malwareHashes.version();
+        String expectedSha256 = null;
+        if (declaredSha256 != null) {
+            if (!SHA256_HEX.matcher(declaredSha256).matches()) {
+                throw new FileValidationException("Declared content hash is not a hex SHA-256 digest",
+                        "INVALID_CONTENT_HASH");
+            }
+            expectedSha256 = declaredSha256.toLowerCase(Locale.ROOT);
+            Optional<VerdictCache.Verdict> verdict = verdicts.get(expectedSha256, extension, ruleSetVersion);
+            if (verdict.isPresent() && !verdict.get().passed()) {
+                throw new FileValidationException(verdict.get().message(), verdict.get().errorCode());
+            }
+            if (verdict.isPresent()) {
+                return new ContentInspection(extension, FILE_TYPES, null, null, malwareHashes, null,
+                        null, ruleSetVersion, expectedSha256);
+            }
         }
 
-        if (file.isEmpty()) {
+        Format format = FORMATS.get(extension);
+        Set<String> contentTypes = format == null ? Set.of() : format.contentTypes();
+        // Pattern and null-byte checks are meant for text and script-capable documents; binary
+        // media and archives would trip over their random-looking bytes. Encrypted files are
+        // opaque, so only their hash is checked.
+        boolean scanned = contentTypes != null
+                && (contentTypes.isEmpty() || SCRIPTABLE_TYPES.containsAll(contentTypes));
+        ArchiveInspection.Container container = contentTypes == null ? null : contentTypes.stream()
+                .map(ArchiveInspection::containerOf)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+        ArchiveInspection archive = container != null
+                ? new ArchiveInspection(container, new ArchiveInspection.Limits(archiveMaxEntries, archiveMaxDepth,
+                        archiveMaxInflatedBytes, archiveMaxRatio), FILE_TYPES, contentScanner,
+                        DANGEROUS_EXTENSIONS, EXECUTABLE_TYPES)
+                : null;
+        return new ContentInspection(extension, FILE_TYPES, contentTypes,
+                scanned ? contentScanner : null, malwareHashes, archive,
+                verdicts, ruleSetVersion, expectedSha256);
+    }
+
+    /**
+     * Runs the checks that only need the declared metadata, without reading any content.
+     */
+    public void validateMetadata(String filename, String contentType, long size) throws FileValidationException {
+        validateBasicProperties(size);
+        validateFilename(filename);
+        validateFileExtension(filename);
+        validateMimeType(filename, contentType);
+    }
+
+    private void validateBasicProperties(long size) throws FileValidationException {
+        if (size == 0) {
             throw new FileValidationException("File cannot be empty", "EMPTY_FILE");
         }
 
-        if (file.getSize() > maxFileSize) {
+        long limit = malwareScanner == null ? maxFileSize : Math.min(maxFileSize, malwareScanner.maxContentLength());
+        if (size > limit) {
             throw new FileValidationException(
                     String.format("File size (%d bytes) exceeds maximum limit (%d bytes)",
-                            file.getSize(), maxFileSize),
+                            size, limit),
                     "FILE_TOO_LARGE"
             );
         }
 
-        if (file.getSize() == 0) {
+        if (size < 0) {
             throw new FileValidationException("File has zero bytes", "ZERO_SIZE_FILE");
         }
     }
@@ -164,25 +461,24 @@ public class FileValidator {
         }
 
         // Check if extension is in allowed list
-        if (!ALLOWED_MIME_TYPES.containsKey(extension)) {
+        if (!FORMATS.containsKey(extension)) {
             throw new FileValidationException(
                     String.format("File extension '%s' is not allowed. Allowed extensions: %s",
-                            extension, ALLOWED_MIME_TYPES.keySet()),
+                            extension, new TreeSet<>(FORMATS.keySet())),
                     "EXTENSION_NOT_ALLOWED"
             );
         }
     }
 
-    private void validateMimeType(MultipartFile file) throws FileValidationException {
-        String contentType = file.getContentType();
-        String filename = file.getOriginalFilename();
+    private void validateMimeType(String filename, String contentType) throws FileValidationException {
 
         if (contentType == null || contentType.trim().isEmpty()) {
             throw new FileValidationException("File content type cannot be determined", "UNKNOWN_CONTENT_TYPE");
         }
 
         String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
-        Set<String> allowedMimeTypes = ALLOWED_MIME_TYPES.get(extension);
+        Format format = FORMATS.get(extension);
+        Set<String> allowedMimeTypes = format == null ? null : format.mimeTypes();
 
         if (allowedMimeTypes != null && !allowedMimeTypes.contains(contentType)) {
             throw new FileValidationException(
@@ -198,129 +494,6 @@ public class FileValidator {
         }
     }
 
-    private void validateFileSignature(MultipartFile file) throws FileValidationException {
-        try {
-            byte[] fileBytes = file.getBytes();
-            if (fileBytes.length < 8) {
-                return; // Skip signature validation for very small files
-            }
-
-            String filename = file.getOriginalFilename();
-            String extension = filename.substring(filename.lastIndexOf(".") + 1).toLowerCase();
-
-            byte[][] signatures = FILE_SIGNATURES.get(extension);
-            if (signatures == null || signatures.length == 0) {
-                return; // No signature validation for this file type
-            }
-
-            boolean signatureMatches = false;
-            for (byte[] signature : signatures) {
-                if (matchesSignature(fileBytes, signature)) {
-                    signatureMatches = true;
-                    break;
-                }
-            }
-
-            if (!signatureMatches) {
-                throw new FileValidationException(
-                        String.format("File signature doesn't match expected format for %s files", extension),
-                        "INVALID_FILE_SIGNATURE"
-                );
-            }
-
-        } catch (IOException e) {
-            throw new FileValidationException("Cannot read file for signature validation", "FILE_READ_ERROR");
-        }
-    }
-
-    private boolean matchesSignature(byte[] fileBytes, byte[] signature) {
-        if (fileBytes.length < signature.length) {
-            return false;
-        }
-
-        for (int i = 0; i < signature.length; i++) {
-            if (fileBytes[i] != signature[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private void validateFileContent(MultipartFile file) throws FileValidationException {
-        try {
-
-            String filename = file.getOriginalFilename();
-            String extension = getFileExtension(filename);
-
-            // Skip content validation for encrypted files
-            if ("enc".equals(extension)) {
-                return;
-            }
-
-            byte[] content = file.getBytes();
-
-            // Check for embedded executables or scripts
-            String contentStr = new String(content).toLowerCase();
-
-            // Detect potential script injections
-            String[] suspiciousPatterns = {
-                    "<script", "javascript:", "vbscript:", "onload=", "onerror=",
-                    "<?php", "<%", "exec(", "system(", "shell_exec",
-                    "rm -rf", "format c:", "del /", "rundll32"
-            };
-
-            for (String pattern : suspiciousPatterns) {
-                if (contentStr.contains(pattern)) {
-                    throw new FileValidationException(
-                            "File contains potentially malicious content",
-                            "MALICIOUS_CONTENT"
-                    );
-                }
-            }
-
-            // Check for excessive null bytes (potential for hiding content)
-            int nullByteCount = 0;
-            for (byte b : content) {
-                if (b == 0) nullByteCount++;
-            }
-
-            if (nullByteCount > content.length * 0.3) { // More than 30% null bytes
-                throw new FileValidationException(
-                        "File contains suspicious amount of null bytes",
-                        "SUSPICIOUS_CONTENT"
-                );
-            }
-
-        } catch (IOException e) {
-            throw new FileValidationException("Cannot read file content for validation", "CONTENT_READ_ERROR");
-        }
-    }
-
-    private void validateFileHash(MultipartFile file) throws FileValidationException {
-        try {
-            byte[] content = file.getBytes();
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] hash = md.digest(content);
-
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            String fileHash = sb.toString();
-
-            if (MALICIOUS_HASHES.contains(fileHash)) {
-                throw new FileValidationException(
-                        "File matches known malicious file signature",
-                        "KNOWN_MALWARE"
-                );
-            }
-
-        } catch (IOException | NoSuchAlgorithmException e) {
-            log.warn("Could not calculate file hash for validation", e);
-            // Don't fail validation if hash calculation fails
-        }
-    }
-
     // Custom exception class
     @Getter
     public static class FileValidationException extends RuntimeException {
@@ -348,6 +521,21 @@ public class FileValidator {
 
     // Method to check if file type is allowed
     public boolean isAllowedFileType(String extension) {
-        return ALLOWED_MIME_TYPES.containsKey(extension.toLowerCase());
+        return FORMATS.containsKey(extension.toLowerCase());
+    }
+
+    // Every content type an accepted upload can carry
+    public static Set<String> allowedMimeTypes() {
+        return FORMATS.values().stream()
+                .flatMap(format -> format.mimeTypes().stream())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    // Content types whose payload is compressed already, so compressing it again gains nothing
+    public static Set<String> precompressedMimeTypes() {
+        return FORMATS.values().stream()
+                .filter(Format::compressed)
+                .flatMap(format -> format.mimeTypes().stream())
+                .collect(Collectors.toUnmodifiableSet());
     }
-}
\ No newline at end of file
+}
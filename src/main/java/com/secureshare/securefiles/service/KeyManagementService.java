@@ -0,0 +1,134 @@
+package com.secureshare.securefiles.service;
+
+import com.secureshare.securefiles.service.exception.CryptoException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Envelope encryption. Every stored file gets its own AES-256 data key, which is kept only in
+ * wrapped form (RFC 3394 key wrap) under a versioned master key. Rotating the master key
+ * therefore means re-wrapping data keys, not re-encrypting files.
+ * <p>
+ * Master keys come from {@code app.encryption.master-keys} as {@code version:key} pairs
+ * separated by commas; version 1 defaults to {@code app.encryption.secret-key}. Files stored
+ * before envelope encryption carry no wrapped key and stay encrypted with the secret key itself.
+ */
+@Service
+public class KeyManagementService {
+    private static final String WRAP_ALGORITHM = "AESWrap";
+    private static final int DATA_KEY_BITS = 256;
+
+    private final EncryptionService encryptionService;
+    private final Map<Integer, SecretKey> masterKeys = new HashMap<>();
+    private final int activeVersion;
+    private final KeyGenerator keyGenerator;
+
+    public KeyManagementService(EncryptionService encryptionService,
+                                @Value("${app.encryption.secret-key}") String secretKey,
+                                @Value("${app.encryption.master-keys:}") String masterKeys,
+                                @Value("${app.encryption.master-key-version:1}") int activeVersion) {
+        this.encryptionService = encryptionService;
+        this.masterKeys.put(1, new SecretKeySpec(secretKey.getBytes(), "AES"));
+        for (String entry : masterKeys.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.indexOf(':');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Master keys must be given as version:key");
+            }
+            int version = Integer.parseInt(entry.substring(0, separator).trim());
+            this.masterKeys.put(version, new SecretKeySpec(entry.substring(separator + 1).trim().getBytes(), "AES"));
+        }
+        if (!this.masterKeys.containsKey(activeVersion)) {
+            throw new IllegalArgumentException("No master key configured for active version " + activeVersion);
+        }
+        this.activeVersion = activeVersion;
+        try {
+            this.keyGenerator = KeyGenerator.getInstance("AES");
+            this.keyGenerator.init(DATA_KEY_BITS, new SecureRandom());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES not available", e);
+        }
+    }
+
+    /**
+     * A data key in both forms: {@code encryption} encrypts and decrypts with it, while
+     * {@code version} and {@code wrappedKey} are what gets persisted. Both are {@code null} for
+     * legacy files encrypted directly with the secret key.
+     */
+    public record DataKey(Integer version, byte[] wrappedKey, EncryptionService encryption) {
+    }
+
+    public int activeVersion() {
+        return activeVersion;
+    }
+
+    /**
+     * Generates a fresh data key wrapped under the active master key.
+     */
+    public DataKey newDataKey() throws CryptoException {
+        SecretKey key;
+        synchronized (keyGenerator) {
+            key = keyGenerator.generateKey();
+        }
+        return new DataKey(activeVersion, wrap(activeVersion, key), encryptionService.withKey(key));
+    }
+
+    /**
+     * Unwraps a persisted data key; a {@code null} wrapped key selects the legacy secret key.
+     */
+    public DataKey openDataKey(Integer version, byte[] wrappedKey) throws CryptoException {
+        if (wrappedKey == null) {
+            return new DataKey(null, null, encryptionService);
+        }
+        return new DataKey(version, wrappedKey, encryptionService.withKey(unwrap(version, wrappedKey)));
+    }
+
+    /**
+     * Re-wraps a data key under the active master key. The data key itself, and so every
+     * ciphertext encrypted with it, is unchanged.
+     */
+    public byte[] rewrap(int version, byte[] wrappedKey) throws CryptoException {
+        return wrap(activeVersion, unwrap(version, wrappedKey));
+    }
+
+    private byte[] wrap(int version, SecretKey key) throws CryptoException {
+        try {
+            Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+            cipher.init(Cipher.WRAP_MODE, masterKey(version));
+            return cipher.wrap(key);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Key wrapping failed", e);
+        }
+    }
+
+    private SecretKey unwrap(int version, byte[] wrappedKey) throws CryptoException {
+        try {
+            Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+            cipher.init(Cipher.UNWRAP_MODE, masterKey(version));
+            return (SecretKey) cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Key unwrapping failed", e);
+        }
+    }
+
+    private SecretKey masterKey(int version) throws CryptoException {
+        SecretKey key = masterKeys.get(version);
+        if (key == null) {
+            throw new CryptoException("Key unwrapping failed",
+                    new IllegalStateException("Master key version " + version + " is not configured"));
+        }
+        return key;
+    }
+}
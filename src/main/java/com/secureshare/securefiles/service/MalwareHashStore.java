@@ -0,0 +1,129 @@
+package com.secureshare.securefiles.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * SHA-256 reputation list of known malicious files. The feed named by
+ * {@code app.file.malware-hashes-file} holds one hex digest per line; anything after the digest
+ * (as in {@code sha256sum} output) and lines starting with # are ignored.
+ * <p>
+ * Digests are held off-heap in a {@link Sha256Set}, about 43 bytes per entry, so feeds with tens
+ * of millions of entries fit without growing the heap. The feed is re-read whenever its
+ * modification time changes: the new set is built on the side and swapped in, so validations
+ * never wait for a reload, and a feed that fails to load leaves the current set in place.
+ * During a reload both sets are allocated, and the old one is only freed once it has been
+ * collected, so {@code -XX:MaxDirectMemorySize} must leave room for twice the table: a 50 million
+ * entry feed needs over 4 GiB of direct memory.
+ */
+@Slf4j
+@Service
+public class MalwareHashStore {
+
+    // Always present, whatever the feed holds: the SHA-256 of empty content
+    private static final List<String> BUILT_IN_HASHES = List.of(
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855"
+    );
+    private static final int HEX_DIGEST_LENGTH = Sha256Set.DIGEST_LENGTH * 2;
+
+    private final Path feedFile;
+    private volatile Sha256Set hashes;
+    private volatile FileTime loadedVersion;
+    private volatile long version;
+
+    public MalwareHashStore(@Value("${app.file.malware-hashes-file:}") String feedFile) {
+        this.feedFile = feedFile.isBlank() ? null : Paths.get(feedFile);
+        Sha256Set builtIn = new Sha256Set(BUILT_IN_HASHES.size());
+        BUILT_IN_HASHES.forEach(hash -> builtIn.add(HexFormat.of().parseHex(hash)));
+        this.hashes = builtIn;
+    }
+
+    /**
+     * Loads the feed at startup; unlike a scheduled reload, a missing or unreadable feed fails
+     * here rather than silently running without it.
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        if (feedFile != null) {
+            reload();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.file.malware-hashes-reload-interval:PT5M}")
+    public void reloadIfChanged() {
+        if (feedFile == null) {
+            return;
+        }
+        try {
+            if (!Files.getLastModifiedTime(feedFile).equals(loadedVersion)) {
+                reload();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not reload malware hash feed {}, keeping {} known hashes", feedFile, size(), e);
+        }
+    }
+
+    public boolean contains(byte[] sha256) {
+        return hashes.contains(sha256);
+    }
+
+    public long size() {
+        return hashes.size();
+    }
+
+    /**
+     * Incremented on every successful load, so results derived from the feed can be discarded.
+     */
+    public long version() {
+        return version;
+    }
+
+    private synchronized void reload() throws IOException {
+        FileTime version = Files.getLastModifiedTime(feedFile);
+        // Every entry takes at least a digest and a line break, which bounds the count
+        long expected = Files.size(feedFile) / (HEX_DIGEST_LENGTH + 1) + 1 + BUILT_IN_HASHES.size();
+        Sha256Set loaded = new Sha256Set(expected);
+        BUILT_IN_HASHES.forEach(hash -> loaded.add(HexFormat.of().parseHex(hash)));
+
+        long skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(feedFile, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String digest = line.length() > HEX_DIGEST_LENGTH && Character.isWhitespace(line.charAt(HEX_DIGEST_LENGTH))
+                        ? line.substring(0, HEX_DIGEST_LENGTH)
+                        : line;
+                try {
+                    if (digest.length() != HEX_DIGEST_LENGTH) {
+                        throw new IllegalArgumentException("Not a SHA-256 digest");
+                    }
+                    loaded.add(HexFormat.of().parseHex(digest));
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                }
+            }
+        }
+
+        hashes = loaded;
+        loadedVersion = version;
+        this.version++;
+        log.info("Loaded {} malware hashes from {}{}", loaded.size(), feedFile,
+                skipped > 0 ? ", skipped " + skipped + " malformed lines" : "");
+    }
+}
@@ -0,0 +1,162 @@
+package com.secureshare.securefiles.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton over bytes that finds any of a set of patterns in a single linear pass,
+ * however many patterns there are. ASCII letters match case-insensitively; other bytes match
+ * exactly, with patterns encoded as UTF-8.
+ * <p>
+ * The automaton is compiled to a dense transition table, 1 KiB per state, so scanning costs one
+ * array lookup per input byte. Scanning is resumable: the state returned for one buffer is
+ * passed in with the next, so patterns spanning buffer boundaries are found. Instances are
+ * immutable and may be shared between threads.
+ */
+public final class PatternScanner {
+    /**
+     * State returned once any pattern has matched; scanning from it is a no-op.
+     */
+    public static final int MATCHED = -1;
+
+    private static final int ALPHABET = 256;
+
+    private final int[] transitions;
+    private final boolean[] accepting;
+    private final int patternCount;
+
+    private PatternScanner(int[] transitions, boolean[] accepting, int patternCount) {
+        this.transitions = transitions;
+        this.accepting = accepting;
+        this.patternCount = patternCount;
+    }
+
+    /**
+     * Compiles {@code patterns}; blank patterns are ignored, since they would match anything.
+     */
+    public static PatternScanner compile(Collection<String> patterns) {
+        Set<String> folded = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            if (pattern != null && !pattern.isBlank()) {
+                folded.add(foldAscii(pattern));
+            }
+        }
+
+        // Trie of the lower-cased patterns, with -1 marking missing edges
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        trie.add(newState());
+        terminal.add(false);
+        for (String pattern : folded) {
+            int state = 0;
+            for (byte b : pattern.getBytes(StandardCharsets.UTF_8)) {
+                int next = trie.get(state)[b & 0xFF];
+                if (next < 0) {
+                    next = trie.size();
+                    trie.add(newState());
+                    terminal.add(false);
+                    trie.get(state)[b & 0xFF] = next;
+                }
+                state = next;
+            }
+            terminal.set(state, true);
+        }
+
+        // Breadth-first over the trie, filling missing edges from the failure state's, which
+        // turns the trie into a DFA; a state accepts if its failure state does
+        int states = trie.size();
+        int[] transitions = new int[states * ALPHABET];
+        boolean[] accepting = new boolean[states];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = trie.get(0)[c];
+            transitions[c] = Math.max(child, 0);
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        accepting[0] = terminal.get(0);
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            accepting[state] = terminal.get(state) || accepting[failure[state]];
+            int[] edges = trie.get(state);
+            for (int c = 0; c < ALPHABET; c++) {
+                int fallback = transitions[failure[state] * ALPHABET + c];
+                if (edges[c] < 0) {
+                    transitions[state * ALPHABET + c] = fallback;
+                } else {
+                    failure[edges[c]] = fallback;
+                    transitions[state * ALPHABET + c] = edges[c];
+                    queue.add(edges[c]);
+                }
+            }
+        }
+
+        // Upper-case letters behave as their lower-case counterparts
+        for (int state = 0; state < states; state++) {
+            int row = state * ALPHABET;
+            for (int c = 'A'; c <= 'Z'; c++) {
+                transitions[row + c] = transitions[row + c + ('a' - 'A')];
+            }
+        }
+        return new PatternScanner(transitions, accepting, folded.size());
+    }
+
+    public int initialState() {
+        return 0;
+    }
+
+    public int patternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Advances the automaton over {@code length} bytes of {@code buffer}.
+     *
+     * @return the state to resume from, or {@link #MATCHED} once a pattern has been found
+     */
+    public int scan(int state, byte[] buffer, int offset, int length) {
+        if (state == MATCHED) {
+            return MATCHED;
+        }
+        int[] table = transitions;
+        boolean[] accept = accepting;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            state = table[state * ALPHABET + (buffer[i] & 0xFF)];
+            if (accept[state]) {
+                return MATCHED;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Whether {@code content} contains any of the patterns.
+     */
+    public boolean matches(byte[] content) {
+        return scan(initialState(), content, 0, content.length) == MATCHED;
+    }
+
+    private static int[] newState() {
+        int[] edges = new int[ALPHABET];
+        Arrays.fill(edges, -1);
+        return edges;
+    }
+
+    private static String foldAscii(String pattern) {
+        StringBuilder folded = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            folded.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        return folded.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.secureshare.securefiles.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the segmented AES-GCM container written by {@link EncryptionService}.
+ *
+ * <pre>
+ * header  (12 bytes)
+ *   0  4  magic "SSEG"
+ *   4  1  format version (1)
+ *   5  1  codec applied to the plaintext before encryption, see {@link CompressionCodec}
+ *   6  2  reserved, always 0
+ *   8  4  plaintext segment size S, big-endian
+ * segment i (repeated, i = 0..n-1)
+ *   12      nonce, random per segment
+ *   len     ciphertext, len = S for every segment except the last (0..S)
+ *   16      GCM tag
+ * </pre>
+ *
+ * Each segment is authenticated with the AAD {@code header || i (8 bytes, big-endian) || last (1 byte)},
+ * so segments cannot be reordered or dropped from the end without failing authentication. The AAD
+ * does not identify the file: segments stay bound to their file only because every blob has its
+ * own data key. Files encrypted under the shared legacy key can have segments with the same index
+ * and last flag swapped between them undetected. An empty plaintext is stored as a single, empty,
+ * last segment.
+ * <p>
+ * With a codec other than none, the segments hold the compressed stream; segment boundaries
+ * then no longer map to plaintext offsets.
+ * <p>
+ * Files written before this format existed are a single blob of {@code IV || ciphertext || tag}.
+ * They are recognised by the absence of a valid header; the chance of a random IV looking like
+ * a valid header is below 2^-40.
+ */
+public final class SegmentedFormat {
+
+    public static final int HEADER_LENGTH = 12;
+    public static final int NONCE_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final int SEGMENT_OVERHEAD = NONCE_LENGTH + TAG_LENGTH;
+    static final int SEGMENT_AAD_LENGTH = Long.BYTES + 1;
+
+    public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = {'S', 'S', 'E', 'G'};
+    private static final byte VERSION = 1;
+
+    public static final byte CODEC_NONE = 0;
+
+    private final byte codec;
+    private final int segmentSize;
+    private final byte[] headerBytes;
+
+    private SegmentedFormat(byte codec, int segmentSize) {
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.headerBytes = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put(VERSION)
+                .put(codec)
+                .putShort((short) 0)
+                .putInt(segmentSize)
+                .array();
+    }
+
+    public static SegmentedFormat of(int segmentSize, byte codec) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size out of range: " + segmentSize);
+        }
+        return new SegmentedFormat(codec, segmentSize);
+    }
+
+    /**
+     * Parses a header, returning {@code null} when the bytes are not a valid segmented header
+     * (i.e. the data is a legacy single-blob ciphertext).
+     */
+    public static SegmentedFormat parse(byte[] bytes, int length) {
+        if (length < HEADER_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, HEADER_LENGTH);
+        buffer.position(MAGIC.length);
+        byte version = buffer.get();
+        byte codec = buffer.get();
+        short reserved = buffer.getShort();
+        int segmentSize = buffer.getInt();
+        if (version != VERSION || reserved != 0 || CompressionCodec.fromId(codec) == null
+                || segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            return null;
+        }
+        return new SegmentedFormat(codec, segmentSize);
+    }
+
+    public byte codec() {
+        return codec;
+    }
+
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    public int encryptedSegmentSize() {
+        return segmentSize + SEGMENT_OVERHEAD;
+    }
+
+    public byte[] header() {
+        return headerBytes.clone();
+    }
+
+    /**
+     * Number of segments in a container whose total ciphertext length (header included) is
+     * {@code ciphertextLength}.
+     */
+    public long segmentCount(long ciphertextLength) {
+        long body = ciphertextLength - HEADER_LENGTH;
+        if (body < SEGMENT_OVERHEAD) {
+            throw new IllegalArgumentException("Ciphertext too short: " + ciphertextLength);
+        }
+        long segments = (body + encryptedSegmentSize() - 1) / encryptedSegmentSize();
+        long remainder = body - (segments - 1) * encryptedSegmentSize();
+        if (remainder < SEGMENT_OVERHEAD) {
+            throw new IllegalArgumentException("Ciphertext has a truncated final segment: " + ciphertextLength);
+        }
+        return segments;
+    }
+
+    public long plaintextLength(long ciphertextLength) {
+        return ciphertextLength - HEADER_LENGTH - segmentCount(ciphertextLength) * SEGMENT_OVERHEAD;
+    }
+
+    /**
+     * Position of segment {@code index} within the container.
+     */
+    public long segmentOffset(long index) {
+        return HEADER_LENGTH + index * encryptedSegmentSize();
+    }
+
+    /**
+     * Header bytes without a defensive copy, for feeding into a cipher as AAD.
+     */
+    byte[] headerBytes() {
+        return headerBytes;
+    }
+
+    /**
+     * Writes the per-segment AAD suffix into {@code target}: segment index followed by the
+     * last-segment flag.
+     */
+    static void writeSegmentAad(long index, boolean last, byte[] target) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            target[i] = (byte) (index >>> (56 - 8 * i));
+        }
+        target[Long.BYTES] = (byte) (last ? 1 : 0);
+    }
+}
@@ -0,0 +1,186 @@
+package com.secureshare.securefiles.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-capacity set of SHA-256 digests stored off-heap, 32 bytes per slot in an open-addressing
+ * table with linear probing. Digests are uniformly distributed already, so their own bytes serve
+ * as the table index and the Bloom filter's hash functions.
+ * <p>
+ * The table is sized to the expected count at 75% load, not rounded to a power of two, so it
+ * takes about 43 bytes of direct memory per expected digest: 2 GiB for 50 million. It is split
+ * into shards of at most 1 GiB, since a direct buffer is limited to 2 GiB. The on-heap Bloom
+ * filter, 10 bits per digest, answers most misses without touching the table. Fill it with
+ * {@link #add} from one thread, then share it read-only.
+ */
+final class Sha256Set {
+    static final int DIGEST_LENGTH = 32;
+
+    private static final int MAX_SHARD_SLOTS = 1 << 25;
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private final ByteBuffer[] shards;
+    private final int shardShift;
+    private final long slots;
+    private final long[] bloom;
+    private final long bloomBits;
+    private final long capacity;
+    private long size;
+    // The all-zero digest marks an empty slot, so it is tracked separately
+    private boolean containsZero;
+
+    /**
+     * @param expected upper bound on the number of digests that will be added
+     */
+    Sha256Set(long expected) {
+        this.slots = Math.max(16, (expected * 4 + 2) / 3);
+        this.shards = new ByteBuffer[(int) ((slots + MAX_SHARD_SLOTS - 1) / MAX_SHARD_SLOTS)];
+        for (int i = 0; i < shards.length; i++) {
+            long shardSlots = Math.min(MAX_SHARD_SLOTS, slots - (long) i * MAX_SHARD_SLOTS);
+            shards[i] = ByteBuffer.allocateDirect((int) shardSlots * DIGEST_LENGTH);
+        }
+        this.shardShift = Integer.numberOfTrailingZeros(MAX_SHARD_SLOTS);
+        this.capacity = slots * 3 / 4;
+
+        this.bloom = new long[(int) ((Math.max(64, expected * BLOOM_BITS_PER_ENTRY) + 63) >>> 6)];
+        this.bloomBits = (long) bloom.length << 6;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return whether the digest was not present yet
+     */
+    boolean add(byte[] digest) {
+        checkLength(digest);
+        if (isZero(digest)) {
+            boolean added = !containsZero;
+            containsZero = true;
+            size += added ? 1 : 0;
+            return added;
+        }
+        for (long slot = indexOf(digest); ; slot = next(slot)) {
+            ByteBuffer shard = shard(slot);
+            int offset = offset(slot);
+            if (slotEquals(shard, offset, digest)) {
+                return false;
+            }
+            if (slotEmpty(shard, offset)) {
+                if (size >= capacity) {
+                    throw new IllegalStateException("Digest set is full at " + size + " entries");
+                }
+                shard.put(offset, digest);
+                addToBloom(digest);
+                size++;
+                return true;
+            }
+        }
+    }
+
+    boolean contains(byte[] digest) {
+        checkLength(digest);
+        if (isZero(digest)) {
+            return containsZero;
+        }
+        if (!mightContain(digest)) {
+            return false;
+        }
+        for (long slot = indexOf(digest); ; slot = next(slot)) {
+            ByteBuffer shard = shard(slot);
+            int offset = offset(slot);
+            if (slotEquals(shard, offset, digest)) {
+                return true;
+            }
+            if (slotEmpty(shard, offset)) {
+                return false;
+            }
+        }
+    }
+
+    private boolean mightContain(byte[] digest) {
+        long h1 = readLong(digest, 8);
+        long h2 = readLong(digest, 16) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = reduce(h1 + i * h2, bloomBits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToBloom(byte[] digest) {
+        long h1 = readLong(digest, 8);
+        long h2 = readLong(digest, 16) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = reduce(h1 + i * h2, bloomBits);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private long indexOf(byte[] digest) {
+        return reduce(readLong(digest, 0), slots);
+    }
+
+    private long next(long slot) {
+        return slot + 1 == slots ? 0 : slot + 1;
+    }
+
+    // Maps a uniformly distributed hash onto [0, bound) with a multiply instead of a division
+    private static long reduce(long hash, long bound) {
+        return Math.multiplyHigh(hash >>> 1, bound << 1);
+    }
+
+    private ByteBuffer shard(long slot) {
+        return shards[(int) (slot >>> shardShift)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1L << shardShift) - 1)) * DIGEST_LENGTH;
+    }
+
+    private static boolean slotEquals(ByteBuffer shard, int offset, byte[] digest) {
+        for (int i = 0; i < DIGEST_LENGTH; i += Long.BYTES) {
+            if (shard.getLong(offset + i) != readLong(digest, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean slotEmpty(ByteBuffer shard, int offset) {
+        for (int i = 0; i < DIGEST_LENGTH; i += Long.BYTES) {
+            if (shard.getLong(offset + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(byte[] digest) {
+        for (byte b : digest) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Big-endian, matching ByteBuffer's default order
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void checkLength(byte[] digest) {
+        if (digest.length != DIGEST_LENGTH) {
+            throw new IllegalArgumentException("Expected a " + DIGEST_LENGTH + "-byte SHA-256 digest");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.secureshare.securefiles.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Validation outcomes of content seen before, keyed by its SHA-256, the extension it was
+ * uploaded under (type checks depend on it) and the version of the rules that judged it. A
+ * reload of the content rules or the malware hash feed changes the version, so earlier verdicts
+ * stop matching and are dropped. Caffeine's W-TinyLFU policy keeps the content that is uploaded
+ * most often.
+ * <p>
+ * Metrics are published as {@code cache.*} with {@code cache=validationVerdicts}.
+ */
+@Component
+public class VerdictCache {
+
+    /**
+     * The outcome of validating some content: passed when {@code errorCode} is {@code null}.
+     */
+    public record Verdict(String errorCode, String message) {
+        static final Verdict PASSED = new Verdict(null, null);
+
+        public boolean passed() {
+            return errorCode == null;
+        }
+    }
+
+    private record Key(String sha256, String extension, long ruleSetVersion) {
+    }
+
+    private final Cache<Key, Verdict> cache;
+    private volatile long ruleSetVersion;
+
+    public VerdictCache(@Value("${app.file.verdict-cache.max-entries:100000}") long maxEntries,
+                        MeterRegistry registry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "validationVerdicts");
+    }
+
+    public Optional<Verdict> get(String sha256, String extension, long ruleSetVersion) {
+        return Optional.ofNullable(cache.getIfPresent(new Key(sha256, extension, ruleSetVersion)));
+    }
+
+    /**
+     * Records a verdict. Rule set versions only grow: a verdict under a newer version drops all
+     * older ones, and a verdict reached under rules already replaced is not kept.
+     */
+    public void put(String sha256, String extension, long ruleSetVersion, Verdict verdict) {
+        if (ruleSetVersion != this.ruleSetVersion) {
+            synchronized (this) {
+                if (ruleSetVersion < this.ruleSetVersion) {
+                    return;
+                }
+                if (ruleSetVersion > this.ruleSetVersion) {
+                    this.ruleSetVersion = ruleSetVersion;
+                    cache.invalidateAll();
+                }
+            }
+        }
+        cache.put(new Key(sha256, extension, ruleSetVersion), verdict);
+    }
+}
@@ -0,0 +1,49 @@
+package com.secureshare.securefiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Storage backend for encrypted blobs. Keys are opaque, flat strings chosen by the caller.
+ * Reads of a missing key fail with {@link NoSuchFileException}.
+ */
+public interface BlobStore {
+
+    /**
+     * Opens a stream that writes a new blob under {@code key}. The blob is complete once the
+     * stream is closed; if writing fails the caller is expected to {@link #delete} the key.
+     */
+    OutputStream put(String key) throws IOException;
+
+    /**
+     * Stores the content of a local file under {@code key} and removes the file. Backends on the
+     * same volume can override this with a rename.
+     */
+    default void putFile(String key, Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = put(key)) {
+            in.transferTo(out);
+        }
+        Files.delete(source);
+    }
+
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Streams bytes {@code [offset, offset + length)} of the blob, truncated at its end.
+     */
+    InputStream getRange(String key, long offset, long length) throws IOException;
+
+    long size(String key) throws IOException;
+
+    /**
+     * @return whether a blob was removed
+     */
+    boolean delete(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+}
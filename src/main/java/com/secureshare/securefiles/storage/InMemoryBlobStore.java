@@ -0,0 +1,75 @@
+package com.secureshare.securefiles.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heap-backed store for tests and benchmarks. Contents are lost on restart.
+ */
+public class InMemoryBlobStore implements BlobStore {
+
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+    @Override
+    public OutputStream put(String key) throws IOException {
+        if (blobs.containsKey(key)) {
+            throw new FileAlreadyExistsException(key);
+        }
+        return new ByteArrayOutputStream() {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    if (blobs.putIfAbsent(key, toByteArray()) != null) {
+                        throw new FileAlreadyExistsException(key);
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return new ByteArrayInputStream(content(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        byte[] content = content(key);
+        int from = (int) Math.min(offset, content.length);
+        int to = (int) Math.min(content.length, offset + length);
+        return new ByteArrayInputStream(content, from, to - from);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return content(key).length;
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return blobs.remove(key) != null;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return blobs.containsKey(key);
+    }
+
+    private byte[] content(String key) throws NoSuchFileException {
+        byte[] content = blobs.get(key);
+        if (content == null) {
+            throw new NoSuchFileException(key);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,180 @@
+package com.secureshare.securefiles.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+/**
+ * Records latency and throughput of any {@link BlobStore}. Streaming operations are timed
+ * from open until the stream is closed, so the timers cover the full transfer.
+ * <ul>
+ *   <li>{@code blobstore.requests} timer, tagged by backend, operation and outcome</li>
+ *   <li>{@code blobstore.bytes} counter, tagged by backend and direction</li>
+ * </ul>
+ */
+public class InstrumentedBlobStore implements BlobStore {
+
+    private final BlobStore delegate;
+    private final String backend;
+    private final MeterRegistry registry;
+    private final Counter bytesRead;
+    private final Counter bytesWritten;
+
+    public InstrumentedBlobStore(BlobStore delegate, String backend, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.backend = backend;
+        this.registry = registry;
+        this.bytesRead = bytesCounter("read");
+        this.bytesWritten = bytesCounter("write");
+    }
+
+    @Override
+    public OutputStream put(String key) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        OutputStream out = record(sample, "put", () -> delegate.put(key), false);
+        return new FilterOutputStream(out) {
+            private boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten.increment(len);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten.increment();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                record(sample, "put", () -> {
+                    out.close();
+                    return null;
+                }, true);
+            }
+        };
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        record(Timer.start(registry), "put", () -> {
+            delegate.putFile(key, source);
+            return null;
+        }, true);
+        bytesWritten.increment(size);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        return counting(sample, "get", record(sample, "get", () -> delegate.get(key), false));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        Timer.Sample sample = Timer.start(registry);
+        return counting(sample, "get-range", record(sample, "get-range", () -> delegate.getRange(key, offset, length), false));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return record(Timer.start(registry), "size", () -> delegate.size(key), true);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return record(Timer.start(registry), "delete", () -> delegate.delete(key), true);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        return record(Timer.start(registry), "exists", () -> delegate.exists(key), true);
+    }
+
+    private InputStream counting(Timer.Sample sample, String operation, InputStream in) {
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                int b = in.read();
+                if (b >= 0) {
+                    bytesRead.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = in.read(b, off, len);
+                if (read > 0) {
+                    bytesRead.increment(read);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                record(sample, operation, () -> {
+                    in.close();
+                    return null;
+                }, true);
+            }
+        };
+    }
+
+    /**
+     * Runs {@code call}, stopping {@code sample} if it fails or if {@code finish} is set.
+     */
+    private <T> T record(Timer.Sample sample, String operation, Callable<T> call, boolean finish) throws IOException {
+        try {
+            T result = call.call();
+            if (finish) {
+                sample.stop(timer(operation, "success"));
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            sample.stop(timer(operation, "failure"));
+            throw e;
+        } catch (Exception e) {
+            sample.stop(timer(operation, "failure"));
+            throw new IOException(e);
+        }
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return Timer.builder("blobstore.requests")
+                .tag("backend", backend)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private Counter bytesCounter(String direction) {
+        return Counter.builder("blobstore.bytes")
+                .baseUnit("bytes")
+                .tag("backend", backend)
+                .tag("direction", direction)
+                .register(registry);
+    }
+}
@@ -0,0 +1,100 @@
+package com.secureshare.securefiles.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+
+/**
+ * Blobs as files under a root directory, sharded two levels deep by the first four characters
+ * of the key so no single directory grows unbounded. Files written before sharding was
+ * introduced live directly under the root and are still found there.
+ */
+public class LocalFileBlobStore implements BlobStore {
+
+    private final Path root;
+
+    public LocalFileBlobStore(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+    }
+
+    @Override
+    public OutputStream put(String key) throws IOException {
+        Path path = shardedPath(key);
+        Files.createDirectories(path.getParent());
+        return Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        Path path = shardedPath(key);
+        Files.createDirectories(path.getParent());
+        try {
+            Files.move(source, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Source is on another volume
+            Files.move(source, path);
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        SeekableByteChannel channel = Files.newByteChannel(resolve(key), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(resolve(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    private Path resolve(String key) {
+        Path sharded = shardedPath(key);
+        if (!Files.exists(sharded)) {
+            Path flat = checked(root.resolve(key));
+            if (Files.exists(flat)) {
+                return flat;
+            }
+        }
+        return sharded;
+    }
+
+    private Path shardedPath(String key) {
+        if (key.length() < 4) {
+            return checked(root.resolve(key));
+        }
+        return checked(root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key));
+    }
+
+    private Path checked(Path path) {
+        Path normalized = path.normalize();
+        if (!normalized.startsWith(root) || normalized.equals(root)) {
+            throw new IllegalArgumentException("Invalid blob key");
+        }
+        return normalized;
+    }
+}
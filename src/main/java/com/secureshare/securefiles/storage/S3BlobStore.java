@@ -0,0 +1,227 @@
+package com.secureshare.securefiles.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Blobs as objects in an S3-compatible bucket (AWS S3, MinIO, ...). Writes are buffered one
+ * part at a time: small blobs go up in a single PUT, larger ones as a multipart upload, so
+ * memory use is bounded by the part size.
+ */
+@Slf4j
+public class S3BlobStore implements BlobStore {
+
+    // S3 rejects multipart parts smaller than 5 MiB, except the last
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final int partSize;
+
+    public S3BlobStore(S3Client s3, String bucket, int partSize) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.partSize = partSize;
+    }
+
+    /**
+     * Creates the bucket if it does not exist yet, which is convenient against a local stand-in.
+     */
+    public void createBucketIfMissing() throws IOException {
+        try {
+            s3.headBucket(request -> request.bucket(bucket));
+        } catch (NoSuchBucketException e) {
+            log.info("Creating bucket {}", bucket);
+            try {
+                s3.createBucket(request -> request.bucket(bucket));
+            } catch (SdkException createFailure) {
+                throw new IOException("Failed to create bucket " + bucket, createFailure);
+            }
+        } catch (SdkException e) {
+            throw new IOException("Failed to access bucket " + bucket, e);
+        }
+    }
+
+    @Override
+    public OutputStream put(String key) {
+        return new PartUploadOutputStream(key);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return s3.getObject(request -> request.bucket(bucket).key(key));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(key);
+        } catch (SdkException e) {
+            throw new IOException("Failed to read blob " + key, e);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        try {
+            return s3.getObject(request -> request.bucket(bucket).key(key)
+                    .range("bytes=" + offset + "-" + (offset + length - 1)));
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(key);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 416) {
+                // Range starts past the end of the object
+                return InputStream.nullInputStream();
+            }
+            throw new IOException("Failed to read blob " + key, e);
+        } catch (SdkException e) {
+            throw new IOException("Failed to read blob " + key, e);
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        try {
+            return s3.headObject(request -> request.bucket(bucket).key(key)).contentLength();
+        } catch (NoSuchKeyException e) {
+            throw new NoSuchFileException(key);
+        } catch (SdkException e) {
+            throw new IOException("Failed to stat blob " + key, e);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        // DeleteObject succeeds for missing keys, so existence has to be checked separately
+        if (!exists(key)) {
+            return false;
+        }
+        try {
+            s3.deleteObject(request -> request.bucket(bucket).key(key));
+            return true;
+        } catch (SdkException e) {
+            throw new IOException("Failed to delete blob " + key, e);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        try {
+            s3.headObject(request -> request.bucket(bucket).key(key));
+            return true;
+        } catch (NoSuchKeyException e) {
+            return false;
+        } catch (SdkException e) {
+            throw new IOException("Failed to stat blob " + key, e);
+        }
+    }
+
+    private class PartUploadOutputStream extends OutputStream {
+        private final String key;
+        private final byte[] buffer = new byte[partSize];
+        private final List<CompletedPart> parts = new ArrayList<>();
+        private int count;
+        private String uploadId;
+        private boolean closed;
+
+        PartUploadOutputStream(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                uploadPart();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                if (count == buffer.length) {
+                    uploadPart();
+                }
+                int chunk = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (uploadId == null) {
+                    s3.putObject(request -> request.bucket(bucket).key(key),
+                            RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, count), count));
+                    return;
+                }
+                if (count > 0) {
+                    uploadPart();
+                }
+                s3.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                        .multipartUpload(upload -> upload.parts(parts)));
+            } catch (SdkException e) {
+                abort();
+                throw new IOException("Failed to write blob " + key, e);
+            }
+        }
+
+        private void uploadPart() throws IOException {
+            try {
+                if (uploadId == null) {
+                    uploadId = s3.createMultipartUpload(request -> request.bucket(bucket).key(key)).uploadId();
+                }
+                int partNumber = parts.size() + 1;
+                UploadPartResponse response = s3.uploadPart(
+                        request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber),
+                        RequestBody.fromInputStream(new ByteArrayInputStream(buffer, 0, count), count));
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+                count = 0;
+            } catch (SdkException e) {
+                abort();
+                closed = true;
+                throw new IOException("Failed to write blob " + key, e);
+            }
+        }
+
+        private void abort() {
+            if (uploadId == null) {
+                return;
+            }
+            try {
+                s3.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+            } catch (SdkException e) {
+                log.warn("Could not abort multipart upload {} for blob {}", uploadId, key, e);
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+}
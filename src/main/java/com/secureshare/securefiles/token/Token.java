@@ -8,18 +8,26 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+@Table(indexes = {
+    @Index(columnList = "user_id, revoked"),
+    @Index(columnList = "expiresAt")
+})
 public class Token {
 
   @Id
@@ -29,6 +37,11 @@ public class Token {
   @Column(unique = true)
   public String token;
 
+  // The token's jti, under which it is revoked
+  public String tokenId;
+
+  public Instant expiresAt;
+
   @Enumerated(EnumType.STRING)
   public TokenType tokenType = TokenType.BEARER;
 
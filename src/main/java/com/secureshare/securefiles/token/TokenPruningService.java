@@ -0,0 +1,79 @@
+package com.secureshare.securefiles.token;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Deletes stored tokens and revocations once they have expired, in batches of bounded size so no
+ * single statement holds locks for long.
+ * <p>
+ * Publishes {@code tokens.pruned} (a counter, whose rate is the prune rate) and
+ * {@code tokens.rows} (as counted after the last run), both tagged with the table.
+ */
+@Slf4j
+@Service
+public class TokenPruningService {
+  private static final String TOKENS = "token";
+  private static final String REVOCATIONS = "token_revocation";
+
+  private final TokenRepository tokenRepository;
+  private final TokenRevocationRepository revocationRepository;
+  private final int batchSize;
+  private final Counter prunedTokens;
+  private final Counter prunedRevocations;
+  private final AtomicLong tokenRows = new AtomicLong();
+  private final AtomicLong revocationRows = new AtomicLong();
+
+  public TokenPruningService(TokenRepository tokenRepository,
+                             TokenRevocationRepository revocationRepository,
+                             @Value("${application.security.jwt.prune-batch-size:1000}") int batchSize,
+                             MeterRegistry registry) {
+    this.tokenRepository = tokenRepository;
+    this.revocationRepository = revocationRepository;
+    this.batchSize = batchSize;
+    this.prunedTokens = prunedCounter(registry, TOKENS);
+    this.prunedRevocations = prunedCounter(registry, REVOCATIONS);
+    Gauge.builder("tokens.rows", tokenRows, AtomicLong::get).tag("table", TOKENS).register(registry);
+    Gauge.builder("tokens.rows", revocationRows, AtomicLong::get).tag("table", REVOCATIONS).register(registry);
+  }
+
+  @Scheduled(fixedDelayString = "${application.security.jwt.prune-interval:PT1H}")
+  public void prune() {
+    Instant cutoff = Instant.now();
+    long tokens = drain(() -> tokenRepository.deleteExpired(cutoff, batchSize), prunedTokens);
+    long revocations = drain(() -> revocationRepository.deleteExpired(cutoff, batchSize), prunedRevocations);
+    tokenRows.set(tokenRepository.count());
+    revocationRows.set(revocationRepository.count());
+    if (tokens > 0 || revocations > 0) {
+      log.info("Pruned {} expired tokens and {} expired revocations", tokens, revocations);
+    }
+  }
+
+  // Each batch commits on its own; a short batch means nothing expired is left
+  private long drain(IntSupplier batch, Counter pruned) {
+    long total = 0;
+    int deleted;
+    do {
+      deleted = batch.getAsInt();
+      pruned.increment(deleted);
+      total += deleted;
+    } while (deleted == batchSize);
+    return total;
+  }
+
+  private static Counter prunedCounter(MeterRegistry registry, String table) {
+    return Counter.builder("tokens.pruned")
+        .description("Expired rows deleted")
+        .tag("table", table)
+        .register(registry);
+  }
+}
@@ -1,18 +1,30 @@
 package com.secureshare.securefiles.token;
 
-import java.util.List;
+import java.time.Instant;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface TokenRepository extends JpaRepository<Token, Integer> {
 
+  @Transactional
+  @Modifying
+  @Query("update Token t set t.revoked = true, t.expired = true where t.user.id = :userId and t.revoked = false")
+  int revokeAllByUser(@Param("userId") Integer userId);
+
+  // Rows from before tokens recorded their expiry are only pruned once revoked
+  @Transactional
+  @Modifying
   @Query(value = """
-      select t from Token t inner join User u\s
-      on t.user.id = u.id\s
-      where u.id = :id and (t.expired = false or t.revoked = false)\s
-      """)
-  List<Token> findAllValidTokenByUser(Integer id);
+      delete from token where id in (
+        select id from token
+        where expires_at < :cutoff or (expires_at is null and revoked)
+        limit :limit)
+      """, nativeQuery = true)
+  int deleteExpired(@Param("cutoff") Instant cutoff, @Param("limit") int limit);
 
   Optional<Token> findByToken(String token);
 }
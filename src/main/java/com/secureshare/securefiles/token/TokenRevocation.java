@@ -0,0 +1,46 @@
+package com.secureshare.securefiles.token;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A revocation, either of one of {@code subject}'s tokens by its {@code jti}, or of every token
+ * issued to {@code subject} before {@code issuedBefore}. Rows are only inserted, so the table doubles as
+ * the change feed other nodes poll to keep their {@link TokenRevocationIndex} current.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = {
+    @Index(columnList = "revokedAt"),
+    @Index(columnList = "expiresAt")
+})
+public class TokenRevocation {
+
+  @Id
+  @GeneratedValue
+  private Long id;
+
+  // Set for a single token
+  private String tokenId;
+
+  private String subject;
+  // Set for all of the subject's tokens
+  private Instant issuedBefore;
+
+  private Instant revokedAt;
+
+  // Once past, every token the revocation covers has expired anyway
+  private Instant expiresAt;
+}
@@ -0,0 +1,180 @@
+package com.secureshare.securefiles.token;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.secureshare.securefiles.config.JwtService;
+import com.secureshare.securefiles.config.JwtService.VerifiedClaims;
+import com.secureshare.securefiles.user.UserPrincipalCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Revoked tokens held in memory, so authenticating a request needs no database round trip. Only
+ * revocations are kept: single tokens by {@code jti}, and per-user token epochs. Revoking all of
+ * a user's tokens moves their epoch on, and tokens from an earlier epoch are revoked. Each entry
+ * is dropped once the tokens it covers have expired.
+ * <p>
+ * The {@link TokenRevocation} table is the source of truth. The index is rebuilt from it at
+ * startup and polls it for revocations made on other nodes; polls overlap so that rows committed
+ * late, or stamped by a node whose clock lags, are still picked up. The poll runs on its own
+ * thread, so a logout elsewhere is not held up behind slow scheduled jobs such as scans.
+ */
+@Slf4j
+@Component
+public class TokenRevocationIndex {
+  private static final Duration POLL_OVERLAP = Duration.ofMinutes(1);
+
+  private final TokenRevocationRepository repository;
+  private final UserPrincipalCache userCache;
+  private final Duration maxTokenLifetime;
+  private final Duration pollInterval;
+  private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "token-revocation-poll");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // jti -> expiry of the token
+  private final Cache<String, Instant> revokedTokens = Caffeine.newBuilder()
+      .expireAfter(Expiry.writing((String id, Instant expiresAt) -> remaining(expiresAt)))
+      .build();
+  // subject -> token epoch; tokens issued before it, and not carrying it, are revoked
+  private final Cache<String, Instant> revokedBefore;
+  private volatile Instant lastPoll = Instant.EPOCH;
+
+  public TokenRevocationIndex(TokenRevocationRepository repository, UserPrincipalCache userCache,
+                              JwtService jwtService,
+                              @Value("${application.security.jwt.revocation-poll-interval:PT5S}") Duration pollInterval) {
+    this.repository = repository;
+    this.userCache = userCache;
+    this.maxTokenLifetime = jwtService.maxTokenLifetime();
+    this.pollInterval = pollInterval;
+    this.revokedBefore = Caffeine.newBuilder()
+        .expireAfter(Expiry.writing((String subject, Instant before) -> remaining(before.plus(maxTokenLifetime))))
+        .build();
+  }
+
+  @PostConstruct
+  public void start() {
+    load();
+    poller.scheduleWithFixedDelay(() -> {
+      try {
+        poll();
+      } catch (RuntimeException e) {
+        // A failure would otherwise cancel every later poll
+        log.warn("Polling token revocations failed", e);
+      }
+    }, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    poller.shutdownNow();
+  }
+
+  public void load() {
+    Instant started = Instant.now();
+    List<TokenRevocation> active = repository.findByExpiresAtAfter(started);
+    active.forEach(this::apply);
+    lastPoll = started;
+    log.info("Loaded {} token revocations", active.size());
+  }
+
+  public void poll() {
+    Instant started = Instant.now();
+    // Applying a revocation twice is harmless, so overlapping polls are fine
+    repository.findByRevokedAtAfter(lastPoll.minus(POLL_OVERLAP)).forEach(this::apply);
+    lastPoll = started;
+  }
+
+  /**
+   * @return whether the token has been revoked, either by itself or with all of its user's
+   *         tokens; tokens without an id or issue time cannot be checked and count as revoked
+   */
+  public boolean isRevoked(VerifiedClaims claims) {
+    if (claims.id() == null || claims.issuedAt() == null) {
+      return true;
+    }
+    if (revokedTokens.getIfPresent(claims.id()) != null) {
+      return true;
+    }
+    Instant before = claims.subject() == null ? null : revokedBefore.getIfPresent(claims.subject());
+    if (before == null) {
+      return false;
+    }
+    // The epoch lets a token issued right after the revocation, within the same second, survive it
+    Instant issued = claims.epoch() != null && claims.epoch().isAfter(claims.issuedAt())
+        ? claims.epoch() : claims.issuedAt();
+    return issued.isBefore(before);
+  }
+
+  /**
+   * The subject's current token epoch, for new tokens to carry.
+   */
+  public Instant epoch(String subject) {
+    Instant epoch = revokedBefore.getIfPresent(subject);
+    return epoch == null ? Instant.EPOCH : epoch;
+  }
+
+  /**
+   * Revokes a single token of {@code subject} until it expires.
+   */
+  public void revoke(String tokenId, String subject, Instant expiresAt) {
+    record(TokenRevocation.builder()
+        .tokenId(tokenId)
+        .subject(subject)
+        .revokedAt(Instant.now())
+        .expiresAt(expiresAt)
+        .build());
+  }
+
+  /**
+   * Revokes every token issued to {@code subject} up to now.
+   *
+   * @return the subject's new token epoch
+   */
+  public Instant revokeAll(String subject) {
+    Instant now = Instant.now();
+    // Issue times have second precision, so tokens from the current second are covered too
+    Instant before = now.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1);
+    record(TokenRevocation.builder()
+        .subject(subject)
+        .issuedBefore(before)
+        .revokedAt(now)
+        .expiresAt(before.plus(maxTokenLifetime))
+        .build());
+    return epoch(subject);
+  }
+
+  private void record(TokenRevocation revocation) {
+    repository.save(revocation);
+    apply(revocation);
+  }
+
+  private void apply(TokenRevocation revocation) {
+    if (revocation.getTokenId() != null) {
+      revokedTokens.put(revocation.getTokenId(), revocation.getExpiresAt());
+    } else if (revocation.getSubject() != null && revocation.getIssuedBefore() != null) {
+      revokedBefore.asMap().merge(revocation.getSubject(), revocation.getIssuedBefore(),
+          (current, next) -> next.isAfter(current) ? next : current);
+    }
+    // Revocations follow account changes such as a new password, including those made on other nodes
+    userCache.evict(revocation.getSubject());
+  }
+
+  private static Duration remaining(Instant until) {
+    Duration remaining = Duration.between(Instant.now(), until);
+    return remaining.isNegative() ? Duration.ZERO : remaining;
+  }
+}
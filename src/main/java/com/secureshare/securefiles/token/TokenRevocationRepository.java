@@ -0,0 +1,26 @@
+package com.secureshare.securefiles.token;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface TokenRevocationRepository extends JpaRepository<TokenRevocation, Long> {
+
+  List<TokenRevocation> findByExpiresAtAfter(Instant now);
+
+  List<TokenRevocation> findByRevokedAtAfter(Instant since);
+
+  // Once the tokens a revocation covers have expired, nothing reads it again
+  @Transactional
+  @Modifying
+  @Query(value = """
+      delete from token_revocation where id in (
+        select id from token_revocation where expires_at < :cutoff limit :limit)
+      """, nativeQuery = true)
+  int deleteExpired(@Param("cutoff") Instant cutoff, @Param("limit") int limit);
+}
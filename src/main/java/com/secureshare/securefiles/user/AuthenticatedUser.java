@@ -0,0 +1,45 @@
+package com.secureshare.securefiles.user;
+
+import org.springframework.security.core.AuthenticatedPrincipal;
+
+/**
+ * The principal of an authenticated request, built from the token's claims. Unlike the
+ * {@link User} entity it is immutable and detached from any persistence context, so it can be
+ * passed around freely; services that write to the user load the entity themselves.
+ * <p>
+ * The role is the one the token was issued with. A changed role applies to tokens issued
+ * afterwards; revoking the user's tokens applies it at once.
+ *
+ * @param authorities the role's permissions as a bitmask of {@link Permission#mask()}
+ */
+public record AuthenticatedUser(Integer id, String email, Role role, long authorities)
+        implements AuthenticatedPrincipal {
+
+    public AuthenticatedUser(Integer id, String email, Role role) {
+        this(id, email, role, role.getPermissionMask());
+    }
+
+    public static AuthenticatedUser of(User user) {
+        return new AuthenticatedUser(user.getId(), user.getEmail(), user.getRole());
+    }
+
+    public static AuthenticatedUser of(UserAccount account) {
+        return new AuthenticatedUser(account.id(), account.email(), account.role());
+    }
+
+    public boolean can(Permission permission) {
+        return (authorities & permission.mask()) != 0;
+    }
+
+    /**
+     * For {@code @PreAuthorize} expressions, e.g. {@code principal.can('file:upload')}.
+     */
+    public boolean can(String permission) {
+        return can(Permission.of(permission));
+    }
+
+    @Override
+    public String getName() {
+        return email;
+    }
+}
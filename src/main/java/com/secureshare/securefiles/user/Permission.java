@@ -3,6 +3,11 @@ package com.secureshare.securefiles.user;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 @RequiredArgsConstructor
 public enum Permission {
 
@@ -21,6 +26,27 @@ public enum Permission {
     ADMIN_DELETE("admin:delete"),
     ;
 
+    private static final Map<String, Permission> BY_NAME = Arrays.stream(values())
+            .collect(Collectors.toUnmodifiableMap(Permission::getPermission, Function.identity()));
+
     @Getter
     private final String permission;
+
+    /**
+     * This permission's bit in a role's or principal's authority mask.
+     */
+    public long mask() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no permission of that name, such as {@code file:read}
+     */
+    public static Permission of(String permission) {
+        Permission found = BY_NAME.get(permission);
+        if (found == null) {
+            throw new IllegalArgumentException("Unknown permission: " + permission);
+        }
+        return found;
+    }
 }
@@ -1,17 +1,14 @@
 package com.secureshare.securefiles.user;
 
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import static com.secureshare.securefiles.user.Permission.*;
 
-@RequiredArgsConstructor
 public enum Role {
 
         USER(Set.of(
@@ -38,13 +35,24 @@ public enum Role {
 
         @Getter
         private final Set<Permission> permissions;
+        @Getter
+        private final long permissionMask;
+        private final List<SimpleGrantedAuthority> authorities;
 
-        public List<SimpleGrantedAuthority> getAuthorities() {
-                var authorities = getPermissions()
+        Role(Set<Permission> permissions) {
+                this.permissions = permissions;
+                this.permissionMask = permissions.stream()
+                                .mapToLong(Permission::mask)
+                                .reduce(0L, (mask, bit) -> mask | bit);
+                var authorities = permissions
                                 .stream()
                                 .map(permission -> new SimpleGrantedAuthority(permission.getPermission()))
                                 .collect(Collectors.toList());
                 authorities.add(new SimpleGrantedAuthority("ROLE_" + this.name()));
+                this.authorities = List.copyOf(authorities);
+        }
+
+        public List<SimpleGrantedAuthority> getAuthorities() {
                 return authorities;
         }
 }
@@ -0,0 +1,48 @@
+package com.secureshare.securefiles.user;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+
+/**
+ * Immutable snapshot of a {@link User}'s account fields, as held by the
+ * {@link UserPrincipalCache}. Unlike the entity it has no lazy associations and no persistence
+ * context, so one instance can be shared by concurrent requests.
+ *
+ * @param password the password hash
+ */
+public record UserAccount(Integer id, String email, String password, String firstname, String lastname,
+                          Role role, boolean enabled) implements UserDetails {
+
+    public static UserAccount of(User user) {
+        return new UserAccount(user.getId(), user.getEmail(), user.getPassword(), user.getFirstname(),
+                user.getLastname(), user.getRole(), user.isEnabled());
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return role.getAuthorities();
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return email;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Keeps the password hash out of logs
+    @Override
+    public String toString() {
+        return "UserAccount[id=" + id + ", email=" + email + ", role=" + role + "]";
+    }
+}
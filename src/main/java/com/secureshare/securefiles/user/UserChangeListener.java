@@ -0,0 +1,27 @@
+package com.secureshare.securefiles.user;
+
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Drops users from the {@link UserPrincipalCache} whenever their row is updated or deleted,
+ * whatever the change: password, role or anything else.
+ * <p>
+ * Hibernate creates this listener while the EntityManagerFactory is still being built, before
+ * the repositories the cache depends on can exist, so the cache is only looked up when needed.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserChangeListener {
+
+    private final ObjectProvider<UserPrincipalCache> userCache;
+
+    @PostUpdate
+    @PostRemove
+    public void evict(User user) {
+        userCache.getObject().evict(user.getEmail());
+    }
+}
@@ -2,13 +2,12 @@ package com.secureshare.securefiles.user;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.security.Principal;
-
 @RestController
 @RequestMapping("/api/v1/users")
 @RequiredArgsConstructor
@@ -19,7 +18,7 @@ public class UserController {
     @PatchMapping
     public ResponseEntity<?> changePassword(
             @RequestBody ChangePasswordRequest request,
-            Principal connectedUser) {
+            @AuthenticationPrincipal AuthenticatedUser connectedUser) {
         service.changePassword(request, connectedUser);
         return ResponseEntity.ok().build();
     }
@@ -0,0 +1,58 @@
+package com.secureshare.securefiles.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Users resolved for authentication, keyed by email, so a request carrying a known token needs
+ * no user query. Entries are evicted when the user row changes ({@link UserChangeListener}) and
+ * when the user's tokens are revoked, which is how password changes made on other nodes arrive
+ * here; the short TTL bounds how stale anything else, such as a role changed elsewhere, can be.
+ * Entries are {@link UserAccount} snapshots, never the entity, so they can be shared across
+ * requests.
+ * <p>
+ * Metrics are published as {@code cache.*} with {@code cache=userPrincipals}.
+ */
+@Component
+public class UserPrincipalCache {
+
+    private final UserRepository repository;
+    private final Cache<String, UserAccount> cache;
+
+    public UserPrincipalCache(UserRepository repository,
+                              @Value("${app.cache.users.max-entries:10000}") long maxEntries,
+                              @Value("${app.cache.users.ttl:PT1M}") Duration ttl,
+                              MeterRegistry registry) {
+        this.repository = repository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "userPrincipals");
+    }
+
+    /**
+     * @throws UsernameNotFoundException if no user has this email; misses are not cached
+     */
+    public UserAccount get(String email) {
+        UserAccount user = cache.get(email, key -> repository.findByEmail(key).map(UserAccount::of).orElse(null));
+        if (user == null) {
+            throw new UsernameNotFoundException("User not found");
+        }
+        return user;
+    }
+
+    public void evict(String email) {
+        if (email != null) {
+            cache.invalidate(email);
+        }
+    }
+}
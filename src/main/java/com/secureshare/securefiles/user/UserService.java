@@ -1,22 +1,24 @@
 package com.secureshare.securefiles.user;
 
+import com.secureshare.securefiles.token.TokenRevocationIndex;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
-import java.security.Principal;
-
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
     private final PasswordEncoder passwordEncoder;
     private final UserRepository repository;
+    private final TokenRevocationIndex revocationIndex;
 
-    public void changePassword(ChangePasswordRequest request, Principal connectedUser) {
+    public void changePassword(ChangePasswordRequest request, AuthenticatedUser connectedUser) {
 
-        var user = (User) ((UsernamePasswordAuthenticationToken) connectedUser).getPrincipal();
+        // the principal carries no password, so the user is loaded to check and update it
+        var user = repository.findById(connectedUser.id())
+                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
 
         // check if the current password is correct
         if (!passwordEncoder.matches(request.getCurrentPassword(), user.getPassword())) {
@@ -32,5 +34,8 @@ public class UserService {
 
         // save the new password
         repository.save(user);
+
+        // sessions opened with the old password end here, on every node
+        revocationIndex.revokeAll(user.getUsername());
     }
 }
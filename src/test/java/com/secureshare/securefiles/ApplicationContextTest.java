@@ -0,0 +1,47 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.UserPrincipalCache;
+import com.secureshare.securefiles.user.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:securefiles;DB_CLOSE_DELAY=-1;MODE=PostgreSQL",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.database=h2",
+        "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.show-sql=false",
+        "application.security.jwt.secret-key=MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWYwMTIzNDU2Nzg5YWJjZGVm",
+        "application.security.jwt.expiration=3600000",
+        "application.security.jwt.refresh-token.expiration=86400000",
+        "app.encryption.secret-key=0123456789abcdef0123456789abcdef",
+        "app.storage.backend=memory",
+        "app.upload.spool-dir=${java.io.tmpdir}/securefiles-test/sessions",
+        "app.upload.async.spool-dir=${java.io.tmpdir}/securefiles-test/jobs"
+})
+class ApplicationContextTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserPrincipalCache userCache;
+
+    @Test
+    void shouldStartAndEvictChangedUsers() {
+        // The admin is registered at startup
+        assertEquals("Admin", userCache.get("admin@mail.com").firstname());
+
+        User admin = userRepository.findByEmail("admin@mail.com").orElseThrow();
+        admin.setFirstname("Root");
+        userRepository.save(admin);
+
+        assertEquals("Root", userCache.get("admin@mail.com").firstname());
+    }
+}
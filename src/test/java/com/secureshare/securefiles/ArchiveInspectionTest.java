@@ -0,0 +1,267 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.ContentInspection;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.MalwareHashStore;
+import com.secureshare.securefiles.service.VerdictCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchiveInspectionTest {
+
+    private final FileValidator fileValidator = new FileValidator(new MalwareHashStore(""),
+            new VerdictCache(1000, new SimpleMeterRegistry()));
+
+    @Test
+    void shouldAcceptCleanOfficeDocument() throws Exception {
+        ContentInspection inspection = fileValidator.newInspection("report.docx");
+
+        inspect(inspection, officeDocument(Map.of()));
+
+        assertNotNull(inspection.verify());
+        assertEquals("zip", inspection.detectedType());
+    }
+
+    @Test
+    void shouldRejectMacros() {
+        byte[] docm = officeDocument(Map.of("word/vbaProject.bin", new byte[]{1, 2, 3}));
+
+        assertEquals("MACRO_CONTENT", rejection("report.docx", docm));
+    }
+
+    @Test
+    void shouldRejectExecutablesByNameAndContent() {
+        assertEquals("EXECUTABLE_CONTENT",
+                rejection("bundle.zip", zip(Map.of("setup.exe", "anything".getBytes()), false)));
+        assertEquals("EXECUTABLE_CONTENT",
+                rejection("bundle.zip", zip(Map.of("readme.dat", "MZ\u0090\u0000 program".getBytes()), false)));
+    }
+
+    @Test
+    void shouldScanTextEntries() {
+        byte[] docx = officeDocument(Map.of("word/footer1.xml", "<w:t><SCRIPT>alert(1)</w:t>".getBytes()));
+
+        assertEquals("MALICIOUS_CONTENT", rejection("report.docx", docx));
+    }
+
+    @Test
+    void shouldAbortZipBombWhileReading() {
+        byte[] bomb = zip(Map.of("zeros.txt", new byte[64 << 20]), false);
+        ContentInspection inspection = fileValidator.newInspection("bomb.zip");
+
+        FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                () -> inspect(inspection, bomb));
+
+        assertEquals("ARCHIVE_LIMIT_EXCEEDED", exception.getErrorCode());
+    }
+
+    @Test
+    void shouldInspectNestedArchivesUpToTheDepthLimit() {
+        byte[] inner = zip(Map.of("inner/run.sh", "echo".getBytes()), false);
+        assertEquals("EXECUTABLE_CONTENT", rejection("outer.zip", zip(Map.of("inner.zip", inner), false)));
+
+        byte[] nested = zip(Map.of("notes.txt", "hello".getBytes()), false);
+        for (int level = 0; level < 3; level++) {
+            nested = zip(Map.of("level" + level + ".zip", nested), level % 2 == 0);
+        }
+        assertEquals("ARCHIVE_LIMIT_EXCEEDED", rejection("nested.zip", nested));
+    }
+
+    @Test
+    void shouldCapEntryCount() {
+        ReflectionTestUtils.setField(fileValidator, "archiveMaxEntries", 2);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            entries.put("file" + i + ".txt", "text".getBytes());
+        }
+
+        assertEquals("ARCHIVE_LIMIT_EXCEEDED", rejection("many.zip", zip(entries, false)));
+    }
+
+    @Test
+    void shouldRejectTruncatedArchive() {
+        byte[] docx = officeDocument(Map.of());
+
+        assertEquals("ARCHIVE_MALFORMED", rejection("report.docx", Arrays.copyOf(docx, docx.length - 30)));
+    }
+
+    @Test
+    void shouldInspectTarEntries() throws Exception {
+        ContentInspection inspection = fileValidator.newInspection("bundle.tar");
+        inspect(inspection, tar(Map.of("docs/notes.txt", "hello".getBytes(), "docs/image.png", new byte[700])));
+        assertNotNull(inspection.verify());
+        assertEquals("tar", inspection.detectedType());
+
+        assertEquals("EXECUTABLE_CONTENT", rejection("bundle.tar", tar(Map.of("payload.exe", "anything".getBytes()))));
+        assertEquals("EXECUTABLE_CONTENT",
+                rejection("bundle.tar", tar(Map.of("readme.dat", "MZ\u0090\u0000 program".getBytes()))));
+        assertEquals("MALICIOUS_CONTENT",
+                rejection("bundle.tar", tar(Map.of("index.html", "<SCRIPT>alert(1)".getBytes()))));
+    }
+
+    @Test
+    void shouldReadTarLongNamesAndRejectTrailingData() {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("PaxHeaders/entry", "20 path=payload.exe\n".getBytes());
+        entries.put("innocent.txt", "anything".getBytes());
+        assertEquals("EXECUTABLE_CONTENT", rejection("bundle.tar", tar(entries, 'x')));
+
+        byte[] tar = tar(Map.of("notes.txt", "hello".getBytes()));
+        byte[] trailing = Arrays.copyOf(tar, tar.length + 512);
+        trailing[tar.length + 10] = 'X';
+        assertEquals("ARCHIVE_MALFORMED", rejection("bundle.tar", trailing));
+    }
+
+    @Test
+    void shouldInspectGzipAndTarWithin() throws Exception {
+        ContentInspection inspection = fileValidator.newInspection("bundle.tgz");
+        inspect(inspection, gzip("bundle.tar", tar(Map.of("notes.txt", "hello".getBytes()))));
+        assertNotNull(inspection.verify());
+        assertEquals("gzip", inspection.detectedType());
+
+        assertEquals("EXECUTABLE_CONTENT",
+                rejection("bundle.tar.gz", gzip(null, tar(Map.of("payload.exe", "anything".getBytes())))));
+        assertEquals("EXECUTABLE_CONTENT", rejection("payload.gz", gzip("payload.exe", "anything".getBytes())));
+        assertEquals("MALICIOUS_CONTENT", rejection("notes.gz", gzip("notes.txt", "<script>".getBytes())));
+
+        byte[] member = gzip(null, "hello".getBytes());
+        byte[] twoMembers = Arrays.copyOf(member, member.length * 2);
+        System.arraycopy(member, 0, twoMembers, member.length, member.length);
+        assertEquals("ARCHIVE_UNSUPPORTED", rejection("notes.gz", twoMembers));
+    }
+
+    @Test
+    void shouldRejectArchivesThatCannotBeInspected() {
+        byte[] sevenZip = {'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C, 0, 4, 1, 2, 3};
+
+        assertEquals("ARCHIVE_UNSUPPORTED", rejection("bundle.zip", zip(Map.of("inner.7z", sevenZip), false)));
+        assertThrows(FileValidator.FileValidationException.class,
+                () -> fileValidator.validateMetadata("bundle.7z", "application/x-7z-compressed", 10));
+    }
+
+    private String rejection(String filename, byte[] content) {
+        ContentInspection inspection = fileValidator.newInspection(filename);
+        return assertThrows(FileValidator.FileValidationException.class, () -> {
+            inspect(inspection, content);
+            inspection.verify();
+        }).getErrorCode();
+    }
+
+    private static void inspect(ContentInspection inspection, byte[] content) throws IOException {
+        try (InputStream in = inspection.wrap(new ByteArrayInputStream(content))) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static byte[] officeDocument(Map<String, byte[]> extra) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("[Content_Types].xml", "<Types xmlns=\"http://schemas.openxmlformats.org/\"/>".getBytes());
+        entries.put("word/document.xml", "<w:document><w:t>Quarterly report</w:t></w:document>".getBytes());
+        entries.put("word/media/image1.png", new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0});
+        entries.putAll(extra);
+        return zip(entries, false);
+    }
+
+    private static byte[] tar(Map<String, byte[]> entries) {
+        return tar(entries, '0');
+    }
+
+    // ustar, with the first entry's type set to firstType
+    private static byte[] tar(Map<String, byte[]> entries, char firstType) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        char type = firstType;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            byte[] header = new byte[512];
+            put(header, 0, entry.getKey());
+            put(header, 100, "0000644");
+            put(header, 108, "0000000");
+            put(header, 116, "0000000");
+            put(header, 124, String.format("%011o", entry.getValue().length));
+            put(header, 136, "00000000000");
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            header[156] = (byte) type;
+            put(header, 257, "ustar");
+            put(header, 263, "00");
+            int checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xFF;
+            }
+            put(header, 148, String.format("%06o", checksum));
+            out.writeBytes(header);
+            out.writeBytes(entry.getValue());
+            out.writeBytes(new byte[(512 - entry.getValue().length % 512) % 512]);
+            type = '0';
+        }
+        out.writeBytes(new byte[1024]);
+        return out.toByteArray();
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    // GZIPOutputStream cannot record the original name, so the member is written by hand
+    private static byte[] gzip(String name, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x1F, (byte) 0x8B, 8, (byte) (name == null ? 0 : 8), 0, 0, 0, 0, 0, (byte) 255});
+        if (name != null) {
+            out.writeBytes(name.getBytes(StandardCharsets.ISO_8859_1));
+            out.write(0);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        out.writeBytes(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue()).putInt(content.length).array());
+        return out.toByteArray();
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries, boolean stored) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,35 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Permission;
+import com.secureshare.securefiles.user.Role;
+import com.secureshare.securefiles.user.User;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuthenticatedUserTest {
+
+    @Test
+    void shouldTestPermissionsAgainstTheRoleMask() {
+        AuthenticatedUser user = new AuthenticatedUser(1, "alice@example.com", Role.USER);
+        AuthenticatedUser admin = AuthenticatedUser.of(
+                User.builder().id(2).email("admin@example.com").role(Role.ADMIN).build());
+
+        for (Permission permission : Permission.values()) {
+            assertEquals(Role.USER.getPermissions().contains(permission), user.can(permission), permission.name());
+            assertEquals(Role.ADMIN.getPermissions().contains(permission), admin.can(permission), permission.name());
+        }
+        assertTrue(user.can("file:upload"));
+        assertFalse(user.can("admin:read"));
+        assertTrue(admin.can("admin:read"));
+        assertEquals("admin@example.com", admin.getName());
+    }
+
+    @Test
+    void shouldRejectUnknownPermissionNames() {
+        AuthenticatedUser user = new AuthenticatedUser(1, "alice@example.com", Role.USER);
+
+        assertThrows(IllegalArgumentException.class, () -> user.can("file:everything"));
+    }
+}
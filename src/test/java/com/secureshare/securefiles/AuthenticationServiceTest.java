@@ -7,6 +7,7 @@ import com.secureshare.securefiles.auth.RegisterRequest;
 import com.secureshare.securefiles.config.JwtService;
 import com.secureshare.securefiles.token.Token;
 import com.secureshare.securefiles.token.TokenRepository;
+import com.secureshare.securefiles.token.TokenRevocationIndex;
 import com.secureshare.securefiles.token.TokenType;
 import com.secureshare.securefiles.user.Role;
 import com.secureshare.securefiles.user.User;
@@ -18,7 +19,9 @@ import org.mockito.*;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Instant;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -44,6 +47,9 @@ class AuthenticationServiceTest {
     @Mock
     private AuthenticationManager authenticationManager;
 
+    @Mock
+    private TokenRevocationIndex revocationIndex;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -69,8 +75,9 @@ class AuthenticationServiceTest {
 
         when(passwordEncoder.encode("password123")).thenReturn("encodedPassword");
         when(userRepository.save(any(User.class))).thenReturn(savedUser);
-        when(jwtService.generateToken(any(User.class))).thenReturn("access-token");
-        when(jwtService.generateRefreshToken(any(User.class))).thenReturn("refresh-token");
+        when(revocationIndex.epoch("john@example.com")).thenReturn(Instant.EPOCH);
+        when(jwtService.generateToken(any(User.class), eq(Instant.EPOCH))).thenReturn("access-token");
+        when(jwtService.generateRefreshToken(any(User.class), eq(Instant.EPOCH))).thenReturn("refresh-token");
 
         // Act
         AuthenticationResponse response = authenticationService.register(request);
@@ -91,14 +98,17 @@ class AuthenticationServiceTest {
                 .build();
 
         User user = User.builder()
+                .id(1)
                 .email("john@example.com")
                 .password("encodedPassword")
                 .role(Role.USER)
                 .build();
+        Instant epoch = Instant.now();
 
         when(userRepository.findByEmail("john@example.com")).thenReturn(Optional.of(user));
-        when(jwtService.generateToken(user)).thenReturn("access-token");
-        when(jwtService.generateRefreshToken(user)).thenReturn("refresh-token");
+        when(revocationIndex.revokeAll("john@example.com")).thenReturn(epoch);
+        when(jwtService.generateToken(user, epoch)).thenReturn("access-token");
+        when(jwtService.generateRefreshToken(user, epoch)).thenReturn("refresh-token");
 
         // Act
         AuthenticationResponse response = authenticationService.authenticate(request);
@@ -109,5 +119,30 @@ class AuthenticationServiceTest {
         assertEquals("refresh-token", response.getRefreshToken());
         verify(authenticationManager, times(1)).authenticate(any(UsernamePasswordAuthenticationToken.class));
         verify(tokenRepository, times(1)).save(any(Token.class));
+        verify(revocationIndex, never()).revoke(any(), any(), any());
+        verify(tokenRepository).revokeAllByUser(1);
+        verify(tokenRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void testAuthenticate_StatelessMovesTheEpochInsteadOfWritingTokens() {
+        ReflectionTestUtils.setField(authenticationService, "stateless", true);
+        AuthenticationRequest request = AuthenticationRequest.builder()
+                .email("john@example.com")
+                .password("password123")
+                .build();
+        User user = User.builder().id(1).email("john@example.com").role(Role.USER).build();
+        Instant epoch = Instant.now();
+
+        when(userRepository.findByEmail("john@example.com")).thenReturn(Optional.of(user));
+        when(revocationIndex.revokeAll("john@example.com")).thenReturn(epoch);
+        when(jwtService.generateToken(user, epoch)).thenReturn("access-token");
+        when(jwtService.generateRefreshToken(user, epoch)).thenReturn("refresh-token");
+
+        AuthenticationResponse response = authenticationService.authenticate(request);
+
+        assertEquals("access-token", response.getAccessToken());
+        assertEquals("refresh-token", response.getRefreshToken());
+        verifyNoInteractions(tokenRepository);
     }
 }
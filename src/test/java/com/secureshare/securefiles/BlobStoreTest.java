@@ -0,0 +1,92 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.storage.BlobStore;
+import com.secureshare.securefiles.storage.InMemoryBlobStore;
+import com.secureshare.securefiles.storage.InstrumentedBlobStore;
+import com.secureshare.securefiles.storage.LocalFileBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void localStoreShouldShardKeysAndServeRanges() throws Exception {
+        BlobStore store = new LocalFileBlobStore(root);
+
+        write(store, "abcdef.blob", "0123456789");
+
+        assertTrue(Files.exists(root.resolve("ab").resolve("cd").resolve("abcdef.blob")));
+        assertEquals(10, store.size("abcdef.blob"));
+        assertEquals("3456", read(store.getRange("abcdef.blob", 3, 4)));
+        assertEquals("89", read(store.getRange("abcdef.blob", 8, 100)));
+        assertTrue(store.delete("abcdef.blob"));
+        assertFalse(store.exists("abcdef.blob"));
+    }
+
+    @Test
+    void localStoreShouldFindFilesWrittenBeforeSharding() throws Exception {
+        Files.writeString(root.resolve("legacy_123_report.txt"), "legacy");
+        BlobStore store = new LocalFileBlobStore(root);
+
+        assertEquals("legacy", read(store.get("legacy_123_report.txt")));
+        assertTrue(store.delete("legacy_123_report.txt"));
+    }
+
+    @Test
+    void localStoreShouldRejectKeysEscapingTheRoot() throws Exception {
+        BlobStore store = new LocalFileBlobStore(root);
+
+        assertThrows(IllegalArgumentException.class, () -> store.get("../outside"));
+    }
+
+    @Test
+    void localStoreShouldMoveSpooledFiles() throws Exception {
+        BlobStore store = new LocalFileBlobStore(root.resolve("blobs"));
+        Path spool = Files.writeString(root.resolve("upload.part"), "spooled");
+
+        store.putFile("spooled.blob", spool);
+
+        assertFalse(Files.exists(spool));
+        assertEquals("spooled", read(store.get("spooled.blob")));
+    }
+
+    @Test
+    void instrumentedStoreShouldRecordLatencyAndBytes() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BlobStore store = new InstrumentedBlobStore(new InMemoryBlobStore(), "memory", registry);
+
+        write(store, "key", "hello");
+        assertEquals("hello", read(store.get("key")));
+        assertThrows(NoSuchFileException.class, () -> store.get("missing"));
+
+        assertEquals(5, registry.get("blobstore.bytes").tag("direction", "write").counter().count());
+        assertEquals(5, registry.get("blobstore.bytes").tag("direction", "read").counter().count());
+        assertEquals(1, registry.get("blobstore.requests").tag("operation", "get").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get("blobstore.requests").tag("operation", "get").tag("outcome", "failure").timer().count());
+    }
+
+    private static void write(BlobStore store, String key, String content) throws IOException {
+        try (OutputStream out = store.put(key)) {
+            out.write(content.getBytes());
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes());
+        }
+    }
+}
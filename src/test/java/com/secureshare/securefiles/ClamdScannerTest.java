@@ -0,0 +1,193 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.scan.ClamdScanner;
+import com.secureshare.securefiles.scan.ScanResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClamdScannerTest {
+
+    private static final String EICAR = "X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*";
+
+    private StubClamd clamd;
+    private ClamdScanner scanner;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clamd = new StubClamd();
+        scanner = new ClamdScanner("localhost", clamd.port(), Duration.ofSeconds(5), Duration.ofSeconds(20), 2,
+                1_000_000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        scanner.close();
+        clamd.close();
+    }
+
+    @Test
+    void shouldReportResultsInRequestOrder() {
+        List<ScanResult> results = scanner.scan(List.of(
+                content("hello"), content(EICAR), content(new String(new char[200_000]).replace('\0', 'a')),
+                content("more " + EICAR), content("")));
+
+        assertEquals(List.of(ScanResult.Outcome.CLEAN, ScanResult.Outcome.INFECTED, ScanResult.Outcome.CLEAN,
+                ScanResult.Outcome.INFECTED, ScanResult.Outcome.CLEAN), results.stream().map(ScanResult::outcome).toList());
+        assertEquals("Eicar-Signature", results.get(1).detail());
+    }
+
+    @Test
+    void shouldPipelineBatchesOverPooledSessions() {
+        for (int batch = 0; batch < 3; batch++) {
+            List<ScanResult> results = scanner.scan(List.of(content("a"), content("b"), content("c"), content("d")));
+            assertTrue(results.stream().allMatch(result -> result.outcome() == ScanResult.Outcome.CLEAN));
+        }
+
+        assertTrue(clamd.connections.get() <= 2, "sessions are reused between batches");
+        assertEquals(12, clamd.scans.get());
+    }
+
+    @Test
+    void shouldFailUnreadableContentWithoutDroppingTheSession() {
+        InputStreamSource unreadable = () -> {
+            throw new IOException("blob missing");
+        };
+
+        List<ScanResult> results = scanner.scan(List.of(content("a"), unreadable, content(EICAR)));
+        scanner.scan(List.of(content("b"), content("c"), content("d")));
+
+        assertEquals(ScanResult.Outcome.CLEAN, results.get(0).outcome());
+        assertEquals(ScanResult.Outcome.FAILED, results.get(1).outcome());
+        assertEquals(ScanResult.Outcome.INFECTED, results.get(2).outcome());
+        assertTrue(clamd.connections.get() <= 2);
+    }
+
+    @Test
+    void shouldCutOffOversizeContentWithoutDroppingTheSession() {
+        String oversize = new String(new char[2_000_000]).replace('\0', 'a');
+
+        List<ScanResult> results = scanner.scan(List.of(content("a"), content(oversize), content(EICAR)));
+        scanner.scan(List.of(content("b"), content("c")));
+
+        assertEquals(ScanResult.Outcome.CLEAN, results.get(0).outcome());
+        assertEquals(ScanResult.Outcome.UNSCANNABLE, results.get(1).outcome());
+        assertEquals(ScanResult.Outcome.INFECTED, results.get(2).outcome());
+        assertEquals(1_000_000, scanner.maxContentLength());
+        assertTrue(clamd.connections.get() <= 2);
+    }
+
+    @Test
+    void shouldFailWhenClamdIsUnreachable() throws IOException {
+        clamd.close();
+        ClamdScanner unreachable = new ClamdScanner("localhost", clamd.port(), Duration.ofSeconds(1), Duration.ofSeconds(1), 1,
+                1_000_000);
+
+        List<ScanResult> results = unreachable.scan(List.of(content("a"), content("b")));
+
+        assertTrue(results.stream().allMatch(result -> result.outcome() == ScanResult.Outcome.FAILED));
+        unreachable.close();
+    }
+
+    private static InputStreamSource content(String text) {
+        return () -> new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Just enough of clamd's IDSESSION and INSTREAM protocol: content containing the EICAR
+     * string is reported infected.
+     */
+    private static final class StubClamd implements AutoCloseable {
+        private final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger scans = new AtomicInteger();
+
+        StubClamd() throws IOException {
+            Thread acceptor = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        connections.incrementAndGet();
+                        Thread session = new Thread(() -> serve(socket));
+                        session.setDaemon(true);
+                        session.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private void serve(Socket socket) {
+            try (socket; DataInputStream in = new DataInputStream(socket.getInputStream());
+                 OutputStream out = socket.getOutputStream()) {
+                int id = 0;
+                String command;
+                while ((command = readCommand(in)) != null) {
+                    switch (command) {
+                        case "zIDSESSION" -> id = 0;
+                        case "zEND" -> {
+                            return;
+                        }
+                        case "zINSTREAM" -> {
+                            ByteArrayOutputStream content = new ByteArrayOutputStream();
+                            int length;
+                            while ((length = in.readInt()) > 0) {
+                                content.write(in.readNBytes(length));
+                            }
+                            scans.incrementAndGet();
+                            String verdict = content.toString(StandardCharsets.US_ASCII).contains(EICAR)
+                                    ? "Eicar-Signature FOUND" : "OK";
+                            out.write((++id + ": stream: " + verdict + "\0").getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                        }
+                        default -> {
+                            out.write("UNKNOWN COMMAND\0".getBytes(StandardCharsets.US_ASCII));
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Client went away
+            }
+        }
+
+        private static String readCommand(DataInputStream in) throws IOException {
+            ByteArrayOutputStream command = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != 0) {
+                if (b < 0) {
+                    return null;
+                }
+                command.write(b);
+            }
+            return command.toString(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
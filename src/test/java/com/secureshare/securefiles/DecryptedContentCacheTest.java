@@ -0,0 +1,86 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.file.DecryptedContentCache;
+import com.secureshare.securefiles.file.FileEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecryptedContentCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void shouldLoadOnceAndServeIndependentViews() throws Exception {
+        DecryptedContentCache cache = new DecryptedContentCache(true, 1024, 100, registry);
+        FileEntity file = file(1L, "hello");
+
+        ByteBuffer first = cache.get(file, this::load).orElseThrow();
+        first.position(3);
+        ByteBuffer second = cache.get(file, this::load).orElseThrow();
+
+        assertEquals(1, loads.get());
+        assertTrue(second.isDirect());
+        assertEquals("hello", text(second));
+        assertEquals(1, registry.get("cache.gets").tag("cache", "decryptedContent").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void shouldSkipEntriesOverTheSizeCap() throws Exception {
+        DecryptedContentCache cache = new DecryptedContentCache(true, 1024, 4, registry);
+
+        assertEquals(Optional.empty(), cache.get(file(1L, "hello"), this::load));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void shouldReloadAfterInvalidation() throws Exception {
+        DecryptedContentCache cache = new DecryptedContentCache(true, 1024, 100, registry);
+        FileEntity file = file(1L, "hello");
+
+        cache.get(file, this::load);
+        cache.invalidate(1L);
+        cache.get(file, this::load);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void shouldRejectContentNotMatchingRecordedSize() {
+        DecryptedContentCache cache = new DecryptedContentCache(true, 1024, 100, registry);
+        FileEntity file = FileEntity.builder().id(1L).size(3).build();
+
+        assertThrows(IOException.class, () -> cache.get(file, out -> out.write("hello".getBytes())));
+    }
+
+    @Test
+    void shouldDoNothingWhenDisabled() throws Exception {
+        DecryptedContentCache cache = new DecryptedContentCache(false, 1024, 100, registry);
+
+        assertEquals(Optional.empty(), cache.get(file(1L, "hello"), this::load));
+    }
+
+    private FileEntity file(Long id, String content) {
+        return FileEntity.builder().id(id).size(content.length()).originalFilename(content).build();
+    }
+
+    private void load(OutputStream out) throws IOException {
+        loads.incrementAndGet();
+        out.write("hello".getBytes());
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+}
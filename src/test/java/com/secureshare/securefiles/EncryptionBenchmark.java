@@ -0,0 +1,64 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.CompressionCodec;
+import com.secureshare.securefiles.service.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming encryption throughput by worker count. Each operation processes {@value #SIZE_MB} MiB,
+ * so MiB/s is the reported ops/s times {@value #SIZE_MB}. Parallelism 1 is the sequential path.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final int SIZE_MB = 64;
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private EncryptionService encryptionService;
+    private byte[] plain;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        encryptionService = new EncryptionService(KEY, 65536, parallelism, 0);
+        plain = new byte[SIZE_MB << 20];
+        new Random(42).nextBytes(plain);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length + (plain.length >> 8));
+        encryptionService.encrypt(new ByteArrayInputStream(plain), out, CompressionCodec.NONE, plain.length);
+        encrypted = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        encryptionService.shutdown();
+    }
+
+    @Benchmark
+    public long encrypt() throws Exception {
+        return encryptionService.encrypt(new ByteArrayInputStream(plain), OutputStream.nullOutputStream(),
+                CompressionCodec.NONE, plain.length);
+    }
+
+    @Benchmark
+    public long decrypt() throws Exception {
+        return encryptionService.decrypt(new ByteArrayInputStream(encrypted), OutputStream.nullOutputStream(),
+                plain.length);
+    }
+}
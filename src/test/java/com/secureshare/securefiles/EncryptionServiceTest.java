@@ -0,0 +1,261 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.CompressionCodec;
+import com.secureshare.securefiles.service.EncryptionService;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.SegmentedFormat;
+import com.secureshare.securefiles.service.exception.CryptoException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EncryptionServiceTest {
+
+    private static final String KEY = "0123456789abcdef0123456789abcdef";
+    private static final int SEGMENT_SIZE = SegmentedFormat.MIN_SEGMENT_SIZE;
+
+    private EncryptionService encryptionService;
+
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService(KEY, SEGMENT_SIZE);
+    }
+
+    @Test
+    void shouldRoundTripSegmentedStreams() throws Exception {
+        for (int length : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 5 * SEGMENT_SIZE + 17}) {
+            byte[] plain = randomBytes(length);
+
+            byte[] encrypted = encryptStream(plain);
+            int segments = Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            assertEquals(SegmentedFormat.HEADER_LENGTH + length + segments * SegmentedFormat.SEGMENT_OVERHEAD,
+                    encrypted.length, "ciphertext length for " + length);
+
+            assertArrayEquals(plain, decryptStream(encrypted), "round trip for " + length);
+        }
+    }
+
+    @Test
+    void shouldReadLegacySingleBlobCiphertext() throws Exception {
+        byte[] plain = randomBytes(3 * SEGMENT_SIZE);
+
+        byte[] legacy = encryptionService.encrypt(plain);
+
+        assertArrayEquals(plain, decryptStream(legacy));
+    }
+
+    @Test
+    void shouldEncryptIntoDirectBuffersCompatibleWithByteArrayApi() throws Exception {
+        byte[] plain = randomBytes(1000);
+        ByteBuffer source = ByteBuffer.allocateDirect(plain.length).put(plain).flip();
+        ByteBuffer target = ByteBuffer.allocateDirect(plain.length + 28);
+
+        assertEquals(plain.length + 28, encryptionService.encrypt(source, target));
+        assertFalse(source.hasRemaining());
+
+        byte[] encrypted = new byte[target.flip().remaining()];
+        target.get(encrypted);
+        assertArrayEquals(plain, encryptionService.decrypt(encrypted));
+    }
+
+    @Test
+    void shouldDecryptInPlace() throws Exception {
+        byte[] plain = randomBytes(SEGMENT_SIZE);
+        ByteBuffer buffer = ByteBuffer.wrap(encryptionService.encrypt(plain));
+
+        int length = encryptionService.decrypt(buffer.duplicate(), buffer.duplicate());
+
+        assertArrayEquals(plain, Arrays.copyOf(buffer.array(), length));
+    }
+
+    @Test
+    void shouldEncryptInPlaceWhenPlaintextFollowsTheIv() throws Exception {
+        byte[] plain = randomBytes(1000);
+        byte[] buffer = new byte[plain.length + 28];
+        System.arraycopy(plain, 0, buffer, 12, plain.length);
+
+        int length = encryptionService.encrypt(ByteBuffer.wrap(buffer, 12, plain.length), ByteBuffer.wrap(buffer));
+
+        assertEquals(buffer.length, length);
+        assertArrayEquals(plain, encryptionService.decrypt(buffer));
+    }
+
+    @Test
+    void shouldRejectOtherwiseOverlappingBuffers() {
+        byte[] buffer = new byte[1028];
+
+        assertThrows(CryptoException.class, () ->
+                encryptionService.encrypt(ByteBuffer.wrap(buffer, 0, 1000), ByteBuffer.wrap(buffer)));
+    }
+
+    @Test
+    void shouldRejectTooSmallOutputBuffer() {
+        assertThrows(CryptoException.class, () ->
+                encryptionService.encrypt(ByteBuffer.allocate(100), ByteBuffer.allocate(100)));
+    }
+
+    @Test
+    void shouldRejectTamperedSegment() throws Exception {
+        byte[] encrypted = encryptStream(randomBytes(2 * SEGMENT_SIZE + 5));
+        encrypted[SegmentedFormat.HEADER_LENGTH + SEGMENT_SIZE] ^= 1;
+
+        assertThrows(CryptoException.class, () -> decryptStream(encrypted));
+    }
+
+    @Test
+    void shouldRejectTruncationAtSegmentBoundary() throws Exception {
+        byte[] encrypted = encryptStream(randomBytes(3 * SEGMENT_SIZE));
+        byte[] truncated = Arrays.copyOf(encrypted,
+                SegmentedFormat.HEADER_LENGTH + 2 * (SEGMENT_SIZE + SegmentedFormat.SEGMENT_OVERHEAD));
+
+        assertThrows(CryptoException.class, () -> decryptStream(truncated));
+    }
+
+    @Test
+    void shouldDecryptArbitraryRangesFromSegmentedFile() throws Exception {
+        byte[] plain = randomBytes(4 * SEGMENT_SIZE + 123);
+        byte[] file = encryptStream(plain);
+
+        long[][] ranges = {{0, 1}, {0, plain.length}, {SEGMENT_SIZE - 3, 7}, {SEGMENT_SIZE, SEGMENT_SIZE},
+                {3 * SEGMENT_SIZE + 10, SEGMENT_SIZE + 113}, {plain.length - 1, 1}};
+        for (long[] range : ranges) {
+            assertArrayEquals(
+                    Arrays.copyOfRange(plain, (int) range[0], (int) (range[0] + range[1])),
+                    decryptRange(file, range[0], range[1]),
+                    "range " + range[0] + "+" + range[1]);
+        }
+    }
+
+    @Test
+    void shouldCompressTransparently() throws Exception {
+        byte[] plain = "compressible line of text\n".repeat(2000).getBytes();
+
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(plain.length, encryptionService.encrypt(new ByteArrayInputStream(plain), out, codec));
+            byte[] encrypted = out.toByteArray();
+
+            if (codec != CompressionCodec.NONE) {
+                assertTrue(encrypted.length < plain.length / 10, codec + " should shrink repetitive text");
+            }
+            assertArrayEquals(plain, decryptStream(encrypted), "round trip with " + codec);
+            assertArrayEquals(Arrays.copyOfRange(plain, 30_000, 30_100), decryptRange(encrypted, 30_000, 100),
+                    "range with " + codec);
+        }
+    }
+
+    @Test
+    void shouldProduceInterchangeableCiphertextInParallel() throws Exception {
+        EncryptionService parallel = new EncryptionService(KEY, SEGMENT_SIZE, 4, 0);
+        try {
+            byte[] plain = randomBytes(37 * SEGMENT_SIZE + 5);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(plain.length, parallel.encrypt(new ByteArrayInputStream(plain), out,
+                    CompressionCodec.NONE, plain.length));
+            byte[] encrypted = out.toByteArray();
+            assertArrayEquals(plain, decryptStream(encrypted));
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            parallel.decrypt(new ByteArrayInputStream(encryptStream(plain)), decrypted, plain.length);
+            assertArrayEquals(plain, decrypted.toByteArray());
+
+            encrypted[SegmentedFormat.HEADER_LENGTH + 20 * SEGMENT_SIZE] ^= 1;
+            assertThrows(CryptoException.class, () -> parallel.decrypt(new ByteArrayInputStream(encrypted),
+                    new ByteArrayOutputStream(), plain.length));
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    void shouldCancelQueuedSegmentsWhenTheSourceFailsMidStream() throws Exception {
+        int segmentSize = 256 * 1024;
+        EncryptionService parallel = spy(new EncryptionService(KEY, segmentSize, 2, 0));
+        ForkJoinPool pool = (ForkJoinPool) ReflectionTestUtils.getField(parallel, "pool");
+        CountDownLatch busy = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Occupy both workers so the segments submitted before the failure stay queued
+            for (int i = 0; i < 2; i++) {
+                pool.execute(() -> {
+                    busy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+            // Rejected by inspection after a few compressed segments have gone out
+            InputStream failing = new SequenceInputStream(new ByteArrayInputStream(randomBytes(3 * segmentSize)),
+                    new InputStream() {
+                        @Override
+                        public int read() {
+                            throw new FileValidator.FileValidationException("Too many entries", "ARCHIVE_TOO_LARGE");
+                        }
+                    });
+
+            assertThrows(FileValidator.FileValidationException.class, () -> parallel.encrypt(failing,
+                    new ByteArrayOutputStream(), CompressionCodec.ZSTD, Long.MAX_VALUE));
+            assertTrue(pool.getQueuedSubmissionCount() > 0, "segments were queued");
+
+            release.countDown();
+            assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+            verify(parallel, never()).encryptSegment(any(), anyLong(), anyBoolean(),
+                    any(ByteBuffer.class), any(ByteBuffer.class));
+        } finally {
+            release.countDown();
+            parallel.shutdown();
+        }
+    }
+
+    @Test
+    void shouldDecryptRangesFromLegacyFile() throws Exception {
+        byte[] plain = randomBytes(1000);
+        byte[] file = encryptionService.encrypt(plain);
+
+        assertArrayEquals(Arrays.copyOfRange(plain, 100, 300), decryptRange(file, 100, 200));
+    }
+
+    private byte[] decryptRange(byte[] file, long offset, long length) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decrypt((from, count) -> new ByteArrayInputStream(file, (int) from,
+                (int) Math.min(count, file.length - from)), file.length, offset, length, out);
+        return out.toByteArray();
+    }
+
+    private byte[] encryptStream(byte[] plain) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(plain.length, encryptionService.encrypt(new ByteArrayInputStream(plain), out));
+        return out.toByteArray();
+    }
+
+    private byte[] decryptStream(byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryptionService.decrypt(new ByteArrayInputStream(encrypted), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
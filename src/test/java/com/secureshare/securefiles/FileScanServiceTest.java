@@ -0,0 +1,128 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.file.*;
+import com.secureshare.securefiles.scan.ContentScanner;
+import com.secureshare.securefiles.scan.ScanResult;
+import com.secureshare.securefiles.service.FileSecurityService;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Role;
+import com.secureshare.securefiles.user.User;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FileScanServiceTest {
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final ContentScanner scanner = mock(ContentScanner.class);
+    private final FileScanService scanService =
+            new FileScanService(fileRepository, fileStorageService, scanner, 10, 3, Duration.ofMinutes(1));
+
+    @Test
+    void shouldScanSharedContentOnceAndRecordOutcomes() {
+        FileEntity first = pending(1L, "a.blob");
+        FileEntity duplicate = pending(2L, "a.blob");
+        FileEntity infected = pending(3L, "b.blob");
+        FileEntity unreachable = pending(4L, "c.blob");
+        when(fileRepository.findDueForScan(any(), eq(0L), any()))
+                .thenReturn(List.of(first, duplicate, infected, unreachable));
+        when(fileRepository.findDueForScan(any(), eq(4L), any())).thenReturn(List.of());
+        when(scanner.maxContentLength()).thenReturn(Long.MAX_VALUE);
+        when(scanner.scan(argThat(contents -> contents.size() == 3))).thenReturn(List.of(
+                ScanResult.clean(), ScanResult.infected("Eicar-Signature"), ScanResult.failed("clamd unavailable")));
+
+        scanService.scanPending();
+
+        verify(fileRepository).completeScan(eq(List.of(1L, 2L)), eq(ScanStatus.CLEAN), any());
+        verify(fileRepository).completeScan(eq(List.of(3L)), eq(ScanStatus.QUARANTINED), any());
+        verify(fileRepository, never()).completeScan(eq(List.of(4L)), any(), any());
+        verify(fileRepository).retryScan(eq(List.of(4L)), eq(1), any());
+    }
+
+    @Test
+    void shouldBackOffAndEventuallyGiveUp() {
+        FileEntity retried = pending(1L, "a.blob");
+        retried.setScanAttempts(1);
+        FileEntity exhausted = pending(2L, "b.blob");
+        exhausted.setScanAttempts(2);
+        when(fileRepository.findDueForScan(any(), eq(0L), any())).thenReturn(List.of(retried, exhausted));
+        when(fileRepository.findDueForScan(any(), eq(2L), any())).thenReturn(List.of());
+        when(scanner.maxContentLength()).thenReturn(Long.MAX_VALUE);
+        when(scanner.scan(any())).thenReturn(List.of(ScanResult.failed("timeout"), ScanResult.failed("timeout")));
+
+        LocalDateTime before = LocalDateTime.now();
+        scanService.scanPending();
+
+        ArgumentCaptor<LocalDateTime> next = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(fileRepository).retryScan(eq(List.of(1L)), eq(2), next.capture());
+        assertFalse(next.getValue().isBefore(before.plusMinutes(2)), "the backoff doubles per attempt");
+        verify(fileRepository).completeScan(eq(List.of(2L)), eq(ScanStatus.SCAN_FAILED), any());
+    }
+
+    @Test
+    void shouldNotSendFilesLargerThanTheScannerAccepts() {
+        FileEntity large = pending(1L, "a.blob");
+        large.setSize(2_000);
+        FileEntity small = pending(2L, "b.blob");
+        small.setSize(1_000);
+        FileEntity tooLargeOnceSent = pending(3L, "c.blob");
+        when(fileRepository.findDueForScan(any(), eq(0L), any())).thenReturn(List.of(large, small, tooLargeOnceSent));
+        when(fileRepository.findDueForScan(any(), eq(3L), any())).thenReturn(List.of());
+        when(scanner.maxContentLength()).thenReturn(1_000L);
+        when(scanner.scan(argThat(contents -> contents.size() == 2)))
+                .thenReturn(List.of(ScanResult.clean(), ScanResult.unscannable("too large")));
+
+        scanService.scanPending();
+
+        verify(fileRepository).completeScan(eq(List.of(1L)), eq(ScanStatus.SCAN_FAILED), any());
+        verify(fileRepository).completeScan(eq(List.of(2L)), eq(ScanStatus.CLEAN), any());
+        verify(fileRepository).completeScan(eq(List.of(3L)), eq(ScanStatus.SCAN_FAILED), any());
+    }
+
+    @Test
+    void shouldOnlyReleaseCleanFiles() {
+        FileEntity file = pending(1L, "a.blob");
+        file.setUser(User.builder().id(7).build());
+        AuthenticatedUser owner = new AuthenticatedUser(7, "owner@example.com", Role.USER);
+        when(fileRepository.findById(1L)).thenReturn(Optional.of(file));
+        FileSecurityService securityService = new FileSecurityService(fileRepository, true);
+
+        assertFalse(securityService.canAccessFile(1L, owner));
+        assertFalse(securityService.canShareFile(1L, owner));
+
+        file.setScanStatus(ScanStatus.QUARANTINED);
+        assertFalse(securityService.canAccessFile(1L, owner));
+
+        file.setScanStatus(ScanStatus.SCAN_FAILED);
+        assertFalse(securityService.canAccessFile(1L, owner));
+
+        file.setScanStatus(ScanStatus.CLEAN);
+        assertTrue(securityService.canAccessFile(1L, owner));
+        assertTrue(securityService.canShareFile(1L, owner));
+
+        file.setScanStatus(null);
+        assertTrue(securityService.canAccessFile(1L, owner), "files stored before scanning are released");
+    }
+
+    @Test
+    void shouldReleaseUnscannedFilesOnceScanningIsOff() {
+        FileSecurityService securityService = new FileSecurityService(fileRepository, false);
+
+        assertTrue(securityService.isReleased(pending(1L, "a.blob")));
+        assertFalse(securityService.isReleased(
+                FileEntity.builder().id(2L).scanStatus(ScanStatus.QUARANTINED).build()));
+    }
+
+    private static FileEntity pending(Long id, String storedFilename) {
+        return FileEntity.builder().id(id).storedFilename(storedFilename).scanStatus(ScanStatus.PENDING).build();
+    }
+}
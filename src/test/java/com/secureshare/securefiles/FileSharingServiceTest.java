@@ -2,7 +2,10 @@ package com.secureshare.securefiles;
 
 import com.secureshare.securefiles.dto.*;
 import com.secureshare.securefiles.file.*;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Role;
 import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -31,6 +34,8 @@ public class FileSharingServiceTest {
     private FileRepository fileRepository;
     private PasswordEncoder passwordEncoder;
     private ShareTokenService tokenService;
+    private DecryptedContentCache contentCache;
+    private UserRepository userRepository;
     private FileSharingService fileSharingService;
 
     @BeforeEach
@@ -39,11 +44,15 @@ public class FileSharingServiceTest {
         fileRepository = mock(FileRepository.class);
         passwordEncoder = new BCryptPasswordEncoder();
         tokenService = mock(ShareTokenService.class);
+        contentCache = mock(DecryptedContentCache.class);
+        userRepository = mock(UserRepository.class);
         fileSharingService = new FileSharingService(
                 sharedFileRepository,
                 fileRepository,
                 passwordEncoder,
-                tokenService
+                tokenService,
+                contentCache,
+                userRepository
         );
     }
 
@@ -59,13 +68,14 @@ public class FileSharingServiceTest {
 
         when(fileRepository.findById(fileId)).thenReturn(Optional.of(file));
         when(tokenService.generateSecureToken()).thenReturn("secure-token-123");
+        when(userRepository.getReferenceById(1)).thenReturn(user);
 
         ShareRequestDTO request = new ShareRequestDTO();
         request.setPassword("secret123");
         request.setExpiryMinutes(60L);
 
         // Act
-        ShareResponseDTO response = fileSharingService.createShare(fileId, request.getPassword(), request.getExpiryMinutes(), user);
+        ShareResponseDTO response = fileSharingService.createShare(fileId, request.getPassword(), request.getExpiryMinutes(), principal(user));
 
         // Assert
         assertNotNull(response);
@@ -96,7 +106,7 @@ public class FileSharingServiceTest {
         when(tokenService.generateSecureToken()).thenReturn("no-pw-token");
 
         // Act
-        ShareResponseDTO response = fileSharingService.createShare(fileId, null, 30L, user);
+        ShareResponseDTO response = fileSharingService.createShare(fileId, null, 30L, principal(user));
 
         // Assert
         assertNotNull(response);
@@ -111,7 +121,7 @@ public class FileSharingServiceTest {
 
         // Act & Assert
         assertThrows(ResponseStatusException.class, () ->
-                fileSharingService.createShare(fileId, null, 10L, mock(User.class))
+                fileSharingService.createShare(fileId, null, 10L, principal(User.builder().id(1).build()))
         );
     }
 
@@ -188,11 +198,11 @@ public class FileSharingServiceTest {
                 .createdAt(LocalDateTime.now())
                 .build();
 
-        when(sharedFileRepository.findBySharedBy(user, pageable))
+        when(sharedFileRepository.findBySharedById(1, pageable))
                 .thenReturn(new PageImpl<>(List.of(sharedFile)));
 
         // Act
-        Page<SharedFileDTO> result = fileSharingService.getUserSharedFiles(user, pageable);
+        Page<SharedFileDTO> result = fileSharingService.getUserSharedFiles(principal(user), pageable);
 
         // Assert
         assertEquals(1, result.getTotalElements());
@@ -210,6 +220,7 @@ public class FileSharingServiceTest {
         User user = User.builder().id(1).build();
         SharedFile share = SharedFile.builder()
                 .token(token)
+                .file(FileEntity.builder().id(42L).build())
                 .sharedBy(user)
                 .active(true)
                 .build();
@@ -217,11 +228,12 @@ public class FileSharingServiceTest {
         when(sharedFileRepository.findByToken(token)).thenReturn(Optional.of(share));
 
         // Act
-        fileSharingService.revokeShare(token, user);
+        fileSharingService.revokeShare(token, principal(user));
 
         // Assert
         assertFalse(share.isActive());
         verify(sharedFileRepository).save(share); // Verify soft delete (update)
+        verify(contentCache).invalidate(42L);
     }
 
     @Test
@@ -232,7 +244,7 @@ public class FileSharingServiceTest {
 
         // Act & Assert
         ResponseStatusException exception = assertThrows(ResponseStatusException.class,
-                () -> fileSharingService.revokeShare(token, mock(User.class)));
+                () -> fileSharingService.revokeShare(token, principal(User.builder().id(1).build())));
 
         assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
     }
@@ -252,7 +264,7 @@ public class FileSharingServiceTest {
 
         // Act & Assert
         ResponseStatusException exception = assertThrows(ResponseStatusException.class,
-                () -> fileSharingService.revokeShare(token, user));
+                () -> fileSharingService.revokeShare(token, principal(user)));
 
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, exception.getStatusCode());
     }
@@ -283,4 +295,8 @@ public class FileSharingServiceTest {
         assertEquals("http://localhost:5173/share/access/test-token", dto.getShareUrl());
         assertEquals("http://localhost:8080/api/v1/share/qr/test-token", dto.getQrCodeUrl());
     }
-}
\ No newline at end of file
+
+    private static AuthenticatedUser principal(User user) {
+        return new AuthenticatedUser(user.getId(), "owner@example.com", Role.USER);
+    }
+}
@@ -1,23 +1,31 @@
 package com.secureshare.securefiles;
 
+import com.secureshare.securefiles.file.DecryptedContentCache;
 import com.secureshare.securefiles.file.FileEntity;
 import com.secureshare.securefiles.file.FileRepository;
 import com.secureshare.securefiles.file.FileStorageService;
 import com.secureshare.securefiles.file.SharedFileRepository;
+import com.secureshare.securefiles.file.StoredBlob;
+import com.secureshare.securefiles.file.StoredBlobRepository;
 import com.secureshare.securefiles.service.*;
 import com.secureshare.securefiles.service.exception.*;
+import com.secureshare.securefiles.storage.BlobStore;
+import com.secureshare.securefiles.storage.InMemoryBlobStore;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Role;
 import com.secureshare.securefiles.user.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.*;
 import org.mockito.*;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.Optional;
 
@@ -35,43 +43,41 @@ class FileStorageServiceTest {
     @Mock
     private SharedFileRepository sharedFileRepository;
 
+    @Mock
+    private StoredBlobRepository blobRepository;
+
     @Mock
     private EncryptionService encryptionService;
 
+    @Mock
+    private KeyManagementService keyService;
+
+    private final byte[] wrappedKey = new byte[40];
+
     @Mock
     private FileValidator fileValidator;
 
     @Mock
     private AuditService auditService;
 
-    private static final String TEST_UPLOAD_DIR = "test-uploads";
-
-    @BeforeEach
-    void setUp() throws IOException {
-        MockitoAnnotations.openMocks(this);
+    @Mock
+    private CompressionPolicy compressionPolicy;
 
-        // Initialize test upload directory
-        Path uploadDir = Path.of(TEST_UPLOAD_DIR);
-        if (!Files.exists(uploadDir)) {
-            Files.createDirectories(uploadDir);
-        }
+    @Mock
+    private DecryptedContentCache contentCache;
 
-        // Set test upload directory
-        ReflectionTestUtils.setField(fileStorageService, "uploadDir", uploadDir);
-    }
+    @Spy
+    private BlobStore blobStore = new InMemoryBlobStore();
 
-    @AfterEach
-    void tearDown() throws IOException {
-        // Clean up test files
-        Files.walk(Path.of(TEST_UPLOAD_DIR))
-                .filter(Files::isRegularFile)
-                .forEach(path -> {
-                    try {
-                        Files.delete(path);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                });
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(keyService.newDataKey()).thenReturn(new KeyManagementService.DataKey(1, wrappedKey, encryptionService));
+        when(keyService.openDataKey(any(), any())).thenReturn(new KeyManagementService.DataKey(null, null, encryptionService));
+        FileValidator realValidator = new FileValidator(new MalwareHashStore(""),
+                new VerdictCache(1000, new SimpleMeterRegistry()));
+        when(fileValidator.newInspection(anyString(), nullable(String.class)))
+                .thenAnswer(invocation -> realValidator.newInspection(invocation.getArgument(0), invocation.getArgument(1)));
     }
 
     @Test
@@ -89,7 +95,11 @@ class FileStorageServiceTest {
         byte[] encryptedData = "encrypted-data".getBytes();
 
         // When
-        when(encryptionService.encrypt(any())).thenReturn(encryptedData);
+        when(encryptionService.encrypt(any(InputStream.class), any(OutputStream.class), any(), anyLong())).thenAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).readAllBytes();
+            invocation.getArgument(1, OutputStream.class).write(encryptedData);
+            return 11L;
+        });
 
         FileEntity savedFile = FileEntity.builder()
                 .id(1L)
@@ -102,14 +112,192 @@ class FileStorageServiceTest {
                 .build();
 
         when(fileRepository.save(any())).thenReturn(savedFile);
+        when(blobRepository.insertIfAbsent(eq(1), anyString(), anyString(), eq(11L), any(), eq(1), same(wrappedKey)))
+                .thenReturn(1);
+        when(blobRepository.findByOwnerIdAndContentHash(eq(1), anyString())).thenReturn(
+                Optional.empty(),
+                Optional.of(StoredBlob.builder().id(1L).storageKey("blob-key").refCount(1).build()));
 
         // Then
-        FileEntity result = fileStorageService.saveFile(mockFile, user);
+        FileEntity result = fileStorageService.saveFile(mockFile, principal(user));
 
         assertNotNull(result);
         assertEquals("test.txt", result.getOriginalFilename());
-        verify(encryptionService).encrypt(mockFile.getBytes());
-        verify(auditService).logUpload(user, result);
+        verify(encryptionService).encrypt(any(InputStream.class), any(OutputStream.class), any(), anyLong());
+        verify(auditService).logUpload(principal(user), result);
+    }
+
+    @Test
+    void testSaveFile_duplicateContentSharesBlob() throws Exception {
+        // Given
+        MockMultipartFile mockFile = new MockMultipartFile(
+                "file", "copy.txt", "text/plain", "Hello World".getBytes()
+        );
+
+        User user = new User();
+        user.setId(1);
+
+        StoredBlob blob = StoredBlob.builder()
+                .id(7L)
+                .storageKey("existing.blob")
+                .contentHash("a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e")
+                .refCount(1)
+                .keyVersion(3)
+                .wrappedKey(wrappedKey)
+                .build();
+
+        when(encryptionService.encrypt(any(InputStream.class), any(OutputStream.class), any(), anyLong())).thenAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).readAllBytes();
+            invocation.getArgument(1, OutputStream.class).write("speculative".getBytes());
+            return 11L;
+        });
+        when(blobRepository.findByOwnerIdAndContentHash(1, blob.getContentHash())).thenReturn(Optional.of(blob));
+        when(blobRepository.incrementRefCount(7L)).thenReturn(1);
+        when(fileRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // When
+        FileEntity result = fileStorageService.saveFile(mockFile, principal(user));
+
+        // Then
+        assertEquals("existing.blob", result.getStoredFilename());
+        assertSame(blob, result.getBlob());
+        assertEquals(3, result.getKeyVersion());
+        assertSame(wrappedKey, result.getWrappedKey());
+        verify(blobRepository, never()).insertIfAbsent(any(), any(), any(), anyLong(), any(), any(), any());
+        // The hash is only known after encrypting, so the speculative ciphertext is dropped
+        ArgumentCaptor<String> speculative = ArgumentCaptor.forClass(String.class);
+        verify(blobStore).put(speculative.capture());
+        assertFalse(blobStore.exists(speculative.getValue()));
+    }
+
+    @Test
+    void testSaveFile_declaredDuplicateIsNotEncrypted() throws Exception {
+        // Given
+        MockMultipartFile mockFile = new MockMultipartFile(
+                "file", "copy.txt", "text/plain", "Hello World".getBytes()
+        );
+
+        User user = new User();
+        user.setId(1);
+
+        StoredBlob blob = StoredBlob.builder()
+                .id(7L)
+                .storageKey("existing.blob")
+                .contentHash("a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e")
+                .refCount(1)
+                .keyVersion(3)
+                .wrappedKey(wrappedKey)
+                .build();
+
+        when(blobRepository.findByOwnerIdAndContentHash(1, blob.getContentHash())).thenReturn(Optional.of(blob));
+        when(blobRepository.incrementRefCount(7L)).thenReturn(1);
+        when(fileRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // When
+        FileEntity result = fileStorageService.saveFile(mockFile, blob.getContentHash().toUpperCase(), principal(user));
+
+        // Then
+        assertSame(blob, result.getBlob());
+        verifyNoInteractions(encryptionService, keyService);
+        verify(blobStore, never()).put(anyString());
+        verify(blobRepository, never()).decrementRefCount(any());
+    }
+
+    @Test
+    void testSaveFile_declaredDuplicateWithWrongContentTakesNoReference() throws Exception {
+        // Given
+        MockMultipartFile mockFile = new MockMultipartFile(
+                "file", "copy.txt", "text/plain", "Hello Mars".getBytes()
+        );
+
+        User user = new User();
+        user.setId(1);
+
+        StoredBlob blob = StoredBlob.builder()
+                .id(7L)
+                .storageKey("existing.blob")
+                .contentHash("a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e")
+                .refCount(1)
+                .build();
+
+        when(blobRepository.findByOwnerIdAndContentHash(1, blob.getContentHash())).thenReturn(Optional.of(blob));
+
+        // When
+        FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                () -> fileStorageService.saveFile(mockFile, blob.getContentHash(), principal(user)));
+
+        // Then
+        assertEquals("CONTENT_HASH_MISMATCH", exception.getErrorCode());
+        verify(blobRepository, never()).incrementRefCount(any());
+        verify(blobRepository, never()).decrementRefCount(any());
+        verifyNoInteractions(encryptionService, fileRepository);
+        verify(blobStore, never()).put(anyString());
+    }
+
+    @Test
+    void testSaveFile_declaredDuplicateReleasedMeanwhileIsStored() throws Exception {
+        // Given
+        MockMultipartFile mockFile = new MockMultipartFile(
+                "file", "copy.txt", "text/plain", "Hello World".getBytes()
+        );
+
+        User user = new User();
+        user.setId(1);
+
+        String contentHash = "a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e";
+        StoredBlob released = StoredBlob.builder()
+                .id(7L)
+                .storageKey("existing.blob")
+                .contentHash(contentHash)
+                .refCount(0)
+                .build();
+
+        StoredBlob stored = StoredBlob.builder().id(8L).storageKey("new.blob").contentHash(contentHash).refCount(1).build();
+        when(blobRepository.findByOwnerIdAndContentHash(1, contentHash))
+                .thenReturn(Optional.of(released), Optional.empty(), Optional.of(stored));
+        when(blobRepository.incrementRefCount(7L)).thenReturn(0);
+        when(blobRepository.insertIfAbsent(eq(1), eq(contentHash), anyString(), eq(11L), any(), eq(1), same(wrappedKey)))
+                .thenReturn(1);
+        when(encryptionService.encrypt(any(InputStream.class), any(OutputStream.class), any(), anyLong())).thenAnswer(invocation -> {
+            invocation.getArgument(0, InputStream.class).transferTo(invocation.getArgument(1, OutputStream.class));
+            return 11L;
+        });
+        when(fileRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // When
+        FileEntity result = fileStorageService.saveFile(mockFile, contentHash, principal(user));
+
+        // Then
+        assertSame(stored, result.getBlob());
+        verify(blobStore).put(anyString());
+        verify(blobRepository, never()).decrementRefCount(any());
+    }
+
+    @Test
+    void testSaveFile_rejectsMaliciousContentWithoutKeepingBlob() throws Exception {
+        // Given
+        MockMultipartFile mockFile = new MockMultipartFile(
+                "file", "page.txt", "text/plain", "hello <SCRIPT>alert(1)</script>".getBytes()
+        );
+        User user = new User();
+        user.setId(1);
+
+        when(encryptionService.encrypt(any(InputStream.class), any(OutputStream.class), any(), anyLong())).thenAnswer(invocation -> {
+            byte[] plain = invocation.getArgument(0, InputStream.class).readAllBytes();
+            invocation.getArgument(1, OutputStream.class).write(plain);
+            return (long) plain.length;
+        });
+
+        // When
+        FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                () -> fileStorageService.saveFile(mockFile, principal(user)));
+
+        // Then
+        assertEquals("MALICIOUS_CONTENT", exception.getErrorCode());
+        ArgumentCaptor<String> written = ArgumentCaptor.forClass(String.class);
+        verify(blobStore).put(written.capture());
+        assertFalse(blobStore.exists(written.getValue()));
+        verifyNoInteractions(fileRepository);
     }
 
     @Test
@@ -122,17 +310,44 @@ class FileStorageServiceTest {
         byte[] encryptedData = "encrypted-data".getBytes();
         byte[] decryptedData = "Hello World".getBytes();
 
-        Path filePath = Path.of(TEST_UPLOAD_DIR, file.getStoredFilename());
-        Files.write(filePath, encryptedData);
+        storeBlob(file.getStoredFilename(), encryptedData);
 
         // When
-        when(encryptionService.decrypt(encryptedData)).thenReturn(decryptedData);
+        when(encryptionService.decrypt(any(InputStream.class), any(OutputStream.class), anyLong())).thenAnswer(invocation -> {
+            assertArrayEquals(encryptedData, invocation.getArgument(0, InputStream.class).readAllBytes());
+            invocation.getArgument(1, OutputStream.class).write(decryptedData);
+            return (long) decryptedData.length;
+        });
 
         // Then
         byte[] result = fileStorageService.getFileContent(file);
         assertArrayEquals(decryptedData, result);
     }
 
+    @Test
+    void testWriteFileContent_streamsDecryptedContent() throws Exception {
+        // Given
+        FileEntity file = FileEntity.builder()
+                .storedFilename("stream.txt")
+                .build();
+
+        byte[] encryptedData = "encrypted-data".getBytes();
+        byte[] decryptedData = "Hello World".getBytes();
+        storeBlob(file.getStoredFilename(), encryptedData);
+
+        when(encryptionService.decrypt(any(InputStream.class), any(OutputStream.class), anyLong())).thenAnswer(invocation -> {
+            invocation.getArgument(1, OutputStream.class).write(decryptedData);
+            return (long) decryptedData.length;
+        });
+
+        // When
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileStorageService.writeFileContent(file, out);
+
+        // Then
+        assertArrayEquals(decryptedData, out.toByteArray());
+    }
+
     @Test
     void testDeleteFile_success() throws Exception {
         // Given
@@ -145,19 +360,46 @@ class FileStorageServiceTest {
                 .user(user)
                 .build();
 
-        Path filePath = Path.of(TEST_UPLOAD_DIR, file.getStoredFilename());
-        Files.write(filePath, "test-data".getBytes());
+        storeBlob(file.getStoredFilename(), "test-data".getBytes());
 
         when(fileRepository.findById(1L)).thenReturn(Optional.of(file));
 
         // When
-        fileStorageService.deleteFile(1L, user);
+        fileStorageService.deleteFile(1L, principal(user));
 
         // Then
         verify(sharedFileRepository).deleteByFile(file);
         verify(fileRepository).delete(file);
-        verify(auditService).logDeletion(user, file);
-        assertFalse(Files.exists(filePath));
+        verify(auditService).logDeletion(principal(user), file);
+        assertFalse(blobStore.exists("test.txt"));
+    }
+
+    @Test
+    void testDeleteFile_keepsBlobStillReferenced() throws Exception {
+        // Given
+        User user = new User();
+        user.setId(1);
+
+        StoredBlob blob = StoredBlob.builder().id(7L).storageKey("shared.blob").refCount(2).build();
+        FileEntity file = FileEntity.builder()
+                .id(1L)
+                .storedFilename("shared.blob")
+                .blob(blob)
+                .user(user)
+                .build();
+
+        storeBlob("shared.blob", "test-data".getBytes());
+
+        when(fileRepository.findById(1L)).thenReturn(Optional.of(file));
+        when(blobRepository.deleteIfUnreferenced(7L)).thenReturn(0);
+
+        // When
+        fileStorageService.deleteFile(1L, principal(user));
+
+        // Then
+        verify(blobRepository).decrementRefCount(7L);
+        verify(fileRepository).delete(file);
+        assertTrue(blobStore.exists("shared.blob"));
     }
 
     @Test
@@ -167,7 +409,7 @@ class FileStorageServiceTest {
 
         // Then
         assertThrows(FileStorageService.FileNotFoundException.class, () -> {
-            fileStorageService.deleteFile(999L, new User());
+            fileStorageService.deleteFile(999L, principal(new User()));
         });
     }
 
@@ -189,7 +431,17 @@ class FileStorageServiceTest {
 
         // Then
         assertThrows(SecurityException.class, () -> {
-            fileStorageService.deleteFile(1L, requester);
+            fileStorageService.deleteFile(1L, principal(requester));
         });
     }
-}
\ No newline at end of file
+
+    private static AuthenticatedUser principal(User user) {
+        return new AuthenticatedUser(user.getId(), user.getEmail(), Role.USER);
+    }
+
+    private void storeBlob(String key, byte[] content) throws IOException {
+        try (OutputStream out = blobStore.put(key)) {
+            out.write(content);
+        }
+    }
+}
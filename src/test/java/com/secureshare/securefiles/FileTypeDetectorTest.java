@@ -0,0 +1,64 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.FileTypeDetector;
+import com.secureshare.securefiles.service.FileTypeDetector.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTypeDetectorTest {
+
+    private final FileTypeDetector detector = FileTypeDetector.compile(List.of(
+            Rule.of("png", 0, "89 'PNG' 0D 0A 1A 0A"),
+            Rule.of("webp", 0, "'RIFF' ?? ?? ?? ?? 'WEBP'"),
+            Rule.of("wav", 0, "'RIFF' ?? ?? ?? ?? 'WAVE'"),
+            Rule.of("zip", 0, "'PK' 03 04"),
+            Rule.of("epub", 0, "'PK' 03 04 {26} 'mimetypeapplication/epub+zip'"),
+            Rule.of("mp4", 4, "'ftypisom'"),
+            Rule.of("tar", 257, "'ustar'")
+    ));
+
+    @Test
+    void shouldDetectThroughWildcards() {
+        assertEquals(Optional.of("webp"), detect(bytes("RIFF\u0010\u0000\u0000\u0000WEBPVP8 ")));
+        assertEquals(Optional.of("wav"), detect(bytes("RIFFÿÿ\u0000\u0000WAVEfmt ")));
+        assertEquals(Optional.of("mp4"), detect(bytes("\u0000\u0000\u0000\u0018ftypisom")));
+    }
+
+    @Test
+    void shouldPreferTheLongestMatch() {
+        byte[] epub = bytes("PK\u0003\u0004" + "x".repeat(26) + "mimetypeapplication/epub+zipMETA-INF/");
+        byte[] zip = bytes("PK\u0003\u0004" + "x".repeat(26) + "word/document.xml");
+
+        assertEquals(Optional.of("epub"), detect(epub));
+        assertEquals(Optional.of("zip"), detect(zip));
+    }
+
+    @Test
+    void shouldMatchRulesAtAnOffset() {
+        byte[] tar = new byte[512];
+        System.arraycopy(bytes("ustar"), 0, tar, 257, 5);
+
+        assertEquals(Optional.of("tar"), detect(tar));
+        assertEquals(262, detector.headerLength());
+    }
+
+    @Test
+    void shouldNotDetectTruncatedOrUnknownContent() {
+        assertEquals(Optional.empty(), detect(bytes("RIFF\u0000\u0000")));
+        assertEquals(Optional.empty(), detect(bytes("plain text")));
+        assertEquals(Optional.empty(), detect(new byte[0]));
+    }
+
+    private Optional<String> detect(byte[] content) {
+        return detector.detect(content, content.length);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
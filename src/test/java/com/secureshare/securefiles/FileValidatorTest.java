@@ -0,0 +1,148 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.scan.ContentScanner;
+import com.secureshare.securefiles.scan.ScanResult;
+import com.secureshare.securefiles.service.ContentInspection;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.MalwareHashStore;
+import com.secureshare.securefiles.service.VerdictCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileValidatorTest {
+
+    private final FileValidator fileValidator = new FileValidator(new MalwareHashStore(""),
+            new VerdictCache(1000, new SimpleMeterRegistry()));
+
+    @Test
+    void shouldHashContentWhileInspecting() throws Exception {
+        ContentInspection inspection = fileValidator.newInspection("notes.txt");
+
+        try (InputStream in = inspection.wrap(new ByteArrayInputStream("Hello World".getBytes()))) {
+            in.readAllBytes();
+        }
+
+        assertEquals("a591a6d40bf420404a011733cfb7b190d62c65bf0bcda32b57b277d9ad9f146e", inspection.verify());
+    }
+
+    @Test
+    void shouldRejectUploadsTheScannerCannotTake() {
+        ReflectionTestUtils.setField(fileValidator, "maxFileSize", 50L << 20);
+        ReflectionTestUtils.setField(fileValidator, "maxFilenameLength", 255);
+        fileValidator.validateMetadata("notes.txt", "text/plain", 30L << 20);
+
+        ReflectionTestUtils.setField(fileValidator, "malwareScanner", new ContentScanner() {
+            @Override
+            public List<ScanResult> scan(List<? extends InputStreamSource> contents) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long maxContentLength() {
+                return 25L << 20;
+            }
+        });
+
+        FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                () -> fileValidator.validateMetadata("notes.txt", "text/plain", 30L << 20));
+        assertEquals("FILE_TOO_LARGE", exception.getErrorCode());
+        fileValidator.validateMetadata("notes.txt", "text/plain", 25L << 20);
+    }
+
+    @Test
+    void shouldFindPatternsSpanningBuffers() {
+        ContentInspection inspection = fileValidator.newInspection("page.txt");
+        byte[] content = ("x".repeat(100) + "<ScRi" + "pt>").getBytes(StandardCharsets.US_ASCII);
+
+        inspection.update(content, 0, 103);
+        inspection.update(content, 103, content.length - 103);
+
+        FileValidator.FileValidationException exception =
+                assertThrows(FileValidator.FileValidationException.class, inspection::verify);
+        assertEquals("MALICIOUS_CONTENT", exception.getErrorCode());
+    }
+
+    @Test
+    void shouldApplyConfiguredContentRules(@TempDir Path dir) throws Exception {
+        Path rulesFile = Files.writeString(dir.resolve("rules.txt"), "# site rules\n\nEVIL-MARKER\n");
+        ReflectionTestUtils.setField(fileValidator, "contentRules", List.of("powershell -enc"));
+        ReflectionTestUtils.setField(fileValidator, "contentRulesFile", rulesFile.toString());
+        fileValidator.loadContentRules();
+
+        for (String content : new String[]{"run PowerShell -Enc AAAA", "contains evil-marker here", "<script>"}) {
+            ContentInspection inspection = fileValidator.newInspection("notes.txt");
+            byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+            inspection.update(bytes, 0, bytes.length);
+            assertThrows(FileValidator.FileValidationException.class, inspection::verify, content);
+        }
+    }
+
+    @Test
+    void shouldRejectMismatchedSignature() {
+        ContentInspection inspection = fileValidator.newInspection("image.png");
+        byte[] content = "definitely not a png".getBytes(StandardCharsets.US_ASCII);
+
+        inspection.update(content, 0, content.length);
+
+        FileValidator.FileValidationException exception =
+                assertThrows(FileValidator.FileValidationException.class, inspection::verify);
+        assertEquals("INVALID_FILE_SIGNATURE", exception.getErrorCode());
+    }
+
+    @Test
+    void shouldCheckDetectedTypeAgainstExtension() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D, 'I', 'H', 'D', 'R'};
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(zipped)) {
+            zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zip.write("<Types/>".getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] docx = zipped.toByteArray();
+        byte[] executable = "MZ\u0090\u0000 this program cannot be run".getBytes(StandardCharsets.ISO_8859_1);
+
+        assertEquals("png", inspect("image.png", png).detectedType());
+        assertEquals("zip", inspect("report.docx", docx).detectedType());
+        Map<String, byte[]> mismatches = Map.of("image.txt", png, "report.pdf", docx, "notes.txt", executable);
+        mismatches.forEach((filename, content) -> {
+            FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                    () -> inspect(filename, content), filename);
+            assertEquals("INVALID_FILE_SIGNATURE", exception.getErrorCode());
+        });
+    }
+
+    @Test
+    void shouldRejectMostlyNullContent() {
+        ContentInspection inspection = fileValidator.newInspection("data.txt");
+        byte[] content = new byte[64];
+        content[0] = 'a';
+
+        inspection.update(content, 0, content.length);
+
+        FileValidator.FileValidationException exception =
+                assertThrows(FileValidator.FileValidationException.class, inspection::verify);
+        assertEquals("SUSPICIOUS_CONTENT", exception.getErrorCode());
+    }
+
+    private ContentInspection inspect(String filename, byte[] content) {
+        ContentInspection inspection = fileValidator.newInspection(filename);
+        inspection.update(content, 0, content.length);
+        inspection.verify();
+        return inspection;
+    }
+}
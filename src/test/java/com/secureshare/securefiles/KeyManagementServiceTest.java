@@ -0,0 +1,90 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.EncryptionService;
+import com.secureshare.securefiles.service.KeyManagementService;
+import com.secureshare.securefiles.service.KeyManagementService.DataKey;
+import com.secureshare.securefiles.service.SegmentedFormat;
+import com.secureshare.securefiles.service.exception.CryptoException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyManagementServiceTest {
+
+    private static final String SECRET_KEY = "0123456789abcdef0123456789abcdef";
+    private static final String MASTER_KEYS = "2:fedcba9876543210fedcba9876543210";
+
+    private EncryptionService encryptionService;
+
+    @BeforeEach
+    void setUp() {
+        encryptionService = new EncryptionService(SECRET_KEY, SegmentedFormat.MIN_SEGMENT_SIZE);
+    }
+
+    @Test
+    void shouldEncryptEachFileWithItsOwnDataKey() throws Exception {
+        KeyManagementService keyService = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 2);
+        byte[] plain = "per-file data key".getBytes();
+
+        DataKey first = keyService.newDataKey();
+        DataKey second = keyService.newDataKey();
+        assertEquals(2, first.version());
+        assertFalse(Arrays.equals(first.wrappedKey(), second.wrappedKey()));
+
+        byte[] encrypted = encrypt(first.encryption(), plain);
+        assertArrayEquals(plain, decrypt(keyService.openDataKey(2, first.wrappedKey()).encryption(), encrypted));
+        assertThrows(CryptoException.class, () -> decrypt(second.encryption(), encrypted));
+        assertThrows(CryptoException.class, () -> decrypt(encryptionService, encrypted));
+    }
+
+    @Test
+    void shouldKeepCiphertextReadableAfterRewrap() throws Exception {
+        KeyManagementService before = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 1);
+        DataKey dataKey = before.newDataKey();
+        byte[] plain = "rotated".getBytes();
+        byte[] encrypted = encrypt(dataKey.encryption(), plain);
+
+        KeyManagementService after = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 2);
+        byte[] rewrapped = after.rewrap(1, dataKey.wrappedKey());
+
+        assertArrayEquals(plain, decrypt(after.openDataKey(2, rewrapped).encryption(), encrypted));
+        assertThrows(CryptoException.class, () -> after.openDataKey(1, rewrapped));
+    }
+
+    @Test
+    void shouldUseSecretKeyForLegacyFiles() throws Exception {
+        KeyManagementService keyService = new KeyManagementService(encryptionService, SECRET_KEY, "", 1);
+
+        DataKey legacy = keyService.openDataKey(null, null);
+
+        assertSame(encryptionService, legacy.encryption());
+        assertNull(legacy.version());
+    }
+
+    @Test
+    void shouldRejectUnknownMasterKeyVersion() throws Exception {
+        KeyManagementService keyService = new KeyManagementService(encryptionService, SECRET_KEY, "", 1);
+        byte[] wrappedKey = keyService.newDataKey().wrappedKey();
+
+        assertThrows(CryptoException.class, () -> keyService.openDataKey(5, wrappedKey));
+        assertThrows(IllegalArgumentException.class, () ->
+                new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 3));
+    }
+
+    private static byte[] encrypt(EncryptionService encryption, byte[] plain) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryption.encrypt(new ByteArrayInputStream(plain), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(EncryptionService encryption, byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encryption.decrypt(new ByteArrayInputStream(encrypted), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.file.*;
+import com.secureshare.securefiles.service.EncryptionService;
+import com.secureshare.securefiles.service.KeyManagementService;
+import com.secureshare.securefiles.service.SegmentedFormat;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class KeyRotationServiceTest {
+
+    private static final String SECRET_KEY = "0123456789abcdef0123456789abcdef";
+    private static final String MASTER_KEYS = "2:fedcba9876543210fedcba9876543210";
+
+    private final StoredBlobRepository blobRepository = mock(StoredBlobRepository.class);
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final UploadSessionRepository sessionRepository = mock(UploadSessionRepository.class);
+    private final EncryptionService encryptionService =
+            new EncryptionService(SECRET_KEY, SegmentedFormat.MIN_SEGMENT_SIZE);
+
+    @Test
+    void shouldRewrapStaleKeysUnderActiveVersion() throws Exception {
+        byte[] oldKey = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 1).newDataKey().wrappedKey();
+        StoredBlob blob = StoredBlob.builder().id(4L).keyVersion(1).wrappedKey(oldKey).build();
+        FileEntity file = FileEntity.builder().id(9L).keyVersion(1).wrappedKey(oldKey).build();
+        when(blobRepository.findStaleKeys(eq(2), eq(0L), any())).thenReturn(List.of(blob));
+        when(blobRepository.findStaleKeys(eq(2), eq(4L), any())).thenReturn(List.of());
+        when(fileRepository.findStaleKeys(eq(2), eq(0L), any())).thenReturn(List.of(file));
+        when(fileRepository.findStaleKeys(eq(2), eq(9L), any())).thenReturn(List.of());
+        when(sessionRepository.findStaleKeys(eq(2), any(), any())).thenReturn(List.of());
+        when(blobRepository.replaceWrappedKey(eq(4L), eq(1), eq(2), any())).thenReturn(1);
+        when(fileRepository.replaceWrappedKey(eq(9L), eq(1), eq(2), any())).thenReturn(1);
+
+        KeyManagementService keyService = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 2);
+        rotationService(keyService, 10).rewrapDataKeys();
+
+        verify(blobRepository).replaceWrappedKey(eq(4L), eq(1), eq(2),
+                argThat(wrapped -> opens(keyService, wrapped)));
+        verify(fileRepository).replaceWrappedKey(eq(9L), eq(1), eq(2),
+                argThat(wrapped -> opens(keyService, wrapped)));
+    }
+
+    @Test
+    void shouldStopWhenThrottled() throws Exception {
+        KeyManagementService before = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 1);
+        List<StoredBlob> blobs = List.of(
+                StoredBlob.builder().id(1L).keyVersion(1).wrappedKey(before.newDataKey().wrappedKey()).build(),
+                StoredBlob.builder().id(2L).keyVersion(1).wrappedKey(before.newDataKey().wrappedKey()).build());
+        when(blobRepository.findStaleKeys(eq(2), anyLong(), any())).thenReturn(blobs);
+        when(blobRepository.replaceWrappedKey(anyLong(), anyInt(), anyInt(), any())).thenReturn(1);
+
+        KeyManagementService keyService = new KeyManagementService(encryptionService, SECRET_KEY, MASTER_KEYS, 2);
+        rotationService(keyService, 1).rewrapDataKeys();
+
+        verify(blobRepository).replaceWrappedKey(eq(1L), anyInt(), anyInt(), any());
+        verify(blobRepository, never()).replaceWrappedKey(eq(2L), anyInt(), anyInt(), any());
+    }
+
+    private KeyRotationService rotationService(KeyManagementService keyService, int permits) {
+        RateLimiterRegistry registry = RateLimiterRegistry.of(RateLimiterConfig.custom()
+                .limitForPeriod(permits)
+                .limitRefreshPeriod(Duration.ofHours(1))
+                .timeoutDuration(Duration.ZERO)
+                .build());
+        return new KeyRotationService(blobRepository, fileRepository, sessionRepository, keyService, registry);
+    }
+
+    private static boolean opens(KeyManagementService keyService, byte[] wrappedKey) {
+        try {
+            return keyService.openDataKey(2, wrappedKey) != null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.MalwareHashStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MalwareHashStoreTest {
+
+    private static final String EMPTY_CONTENT = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void shouldKnowBuiltInHashesWithoutFeed() throws Exception {
+        MalwareHashStore store = new MalwareHashStore("");
+        store.load();
+
+        assertTrue(store.contains(digest(EMPTY_CONTENT)));
+        assertFalse(store.contains(sha256("clean")));
+    }
+
+    @Test
+    void shouldLoadFeedAndSkipMalformedLines() throws Exception {
+        List<String> lines = new ArrayList<>(List.of("# threat feed", "", "not-a-digest",
+                HexFormat.of().formatHex(sha256("bad-1")).toUpperCase(),
+                HexFormat.of().formatHex(sha256("bad-2")) + "  dropper.exe",
+                "0".repeat(64)));
+        for (int i = 0; i < 5000; i++) {
+            lines.add(HexFormat.of().formatHex(sha256("filler-" + i)));
+        }
+        Path feed = Files.write(dir.resolve("feed.txt"), lines);
+
+        MalwareHashStore store = new MalwareHashStore(feed.toString());
+        store.load();
+
+        assertEquals(5004, store.size());
+        assertTrue(store.contains(sha256("bad-1")));
+        assertTrue(store.contains(sha256("bad-2")));
+        assertTrue(store.contains(sha256("filler-4999")));
+        assertTrue(store.contains(new byte[32]));
+        assertTrue(store.contains(digest(EMPTY_CONTENT)));
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(store.contains(sha256("clean-" + i)));
+        }
+    }
+
+    @Test
+    void shouldReloadWhenFeedChanges() throws Exception {
+        Path feed = Files.write(dir.resolve("feed.txt"), List.of(HexFormat.of().formatHex(sha256("old"))));
+        MalwareHashStore store = new MalwareHashStore(feed.toString());
+        store.load();
+
+        Files.write(feed, List.of(HexFormat.of().formatHex(sha256("new"))));
+        Files.setLastModifiedTime(feed, FileTime.from(Instant.now().plusSeconds(60)));
+        store.reloadIfChanged();
+
+        assertTrue(store.contains(sha256("new")));
+        assertFalse(store.contains(sha256("old")));
+    }
+
+    @Test
+    void shouldKeepCurrentHashesWhenReloadFails() throws Exception {
+        Path feed = Files.write(dir.resolve("feed.txt"), List.of(HexFormat.of().formatHex(sha256("kept"))));
+        MalwareHashStore store = new MalwareHashStore(feed.toString());
+        store.load();
+
+        Files.delete(feed);
+        store.reloadIfChanged();
+
+        assertTrue(store.contains(sha256("kept")));
+    }
+
+    private static byte[] sha256(String content) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(content.getBytes());
+    }
+
+    private static byte[] digest(String hex) {
+        return HexFormat.of().parseHex(hex);
+    }
+}
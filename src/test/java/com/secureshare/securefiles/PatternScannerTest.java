@@ -0,0 +1,74 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.PatternScanner;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatternScannerTest {
+
+    @Test
+    void shouldFindPatternsThroughFailureLinks() {
+        PatternScanner scanner = PatternScanner.compile(List.of("hers", "she", "his"));
+
+        assertTrue(scanner.matches(bytes("ushe")));
+        assertTrue(scanner.matches(bytes("xhhis")));
+        assertTrue(scanner.matches(bytes("ahershe")));
+        assertFalse(scanner.matches(bytes("hehihe rs")));
+    }
+
+    @Test
+    void shouldMatchAsciiCaseInsensitively() {
+        PatternScanner scanner = PatternScanner.compile(List.of("<SCRIPT", "format c:"));
+
+        assertTrue(scanner.matches(bytes("<sCrIpT src=x>")));
+        assertTrue(scanner.matches(bytes("FORMAT C:")));
+        assertFalse(scanner.matches(bytes("format d:")));
+    }
+
+    @Test
+    void shouldResumeAcrossBuffers() {
+        PatternScanner scanner = PatternScanner.compile(List.of("rundll32"));
+        byte[] content = bytes("call RUNDLL32 now");
+
+        int state = scanner.initialState();
+        for (int i = 0; i < content.length; i++) {
+            state = scanner.scan(state, content, i, 1);
+        }
+
+        assertEquals(PatternScanner.MATCHED, state);
+    }
+
+    @Test
+    void shouldIgnoreBlankPatterns() {
+        PatternScanner scanner = PatternScanner.compile(List.of("", "  "));
+
+        assertEquals(0, scanner.patternCount());
+        assertFalse(scanner.matches(bytes("anything at all")));
+    }
+
+    @Test
+    void shouldAgreeWithNaiveSearch() {
+        Random random = new Random(7);
+        List<String> patterns = List.of("ab", "abc", "bca", "cab", "aaa", "cc");
+        PatternScanner scanner = PatternScanner.compile(patterns);
+
+        for (int i = 0; i < 500; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                text.append("abcABC".charAt(random.nextInt(6)));
+            }
+            String lower = text.toString().toLowerCase();
+            boolean expected = patterns.stream().anyMatch(lower::contains);
+            assertEquals(expected, scanner.matches(bytes(text.toString())), text.toString());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,188 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.dto.UploadSessionDTO;
+import com.secureshare.securefiles.dto.UploadSessionRequest;
+import com.secureshare.securefiles.file.*;
+import com.secureshare.securefiles.service.EncryptionService;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.KeyManagementService;
+import com.secureshare.securefiles.service.SegmentedFormat;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Role;
+import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ResumableUploadServiceTest {
+
+    private static final int SEGMENT_SIZE = SegmentedFormat.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path spoolDir;
+
+    private final Map<String, UploadSession> sessions = new HashMap<>();
+    private KeyManagementService keyService;
+    private ResumableUploadService uploadService;
+    private AuthenticatedUser user;
+
+    @BeforeEach
+    void setUp() {
+        UploadSessionRepository sessionRepository = mock(UploadSessionRepository.class);
+        when(sessionRepository.save(any(UploadSession.class))).thenAnswer(invocation -> {
+            UploadSession session = invocation.getArgument(0);
+            sessions.put(session.getId(), session);
+            return session;
+        });
+        when(sessionRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<String>getArgument(0))));
+        when(sessionRepository.findByIdForUpdate(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(sessions.get(invocation.<String>getArgument(0))));
+
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.resolveSpool(anyString()))
+                .thenAnswer(invocation -> spoolDir.resolve(invocation.<String>getArgument(0) + ".part"));
+
+        String secretKey = "0123456789abcdef0123456789abcdef";
+        keyService = new KeyManagementService(new EncryptionService(secretKey, SEGMENT_SIZE), secretKey, "", 1);
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.getReferenceById(1)).thenReturn(User.builder().id(1).build());
+        uploadService = new ResumableUploadService(sessionRepository, fileStorageService,
+                keyService, mock(FileValidator.class), userRepository, TransactionOperations.withoutTransaction());
+        ReflectionTestUtils.setField(uploadService, "sessionTtl", Duration.ofHours(1));
+
+        user = new AuthenticatedUser(1, "owner@example.com", Role.USER);
+    }
+
+    @Test
+    void shouldCommitOnlyWholeSegmentsAndResumeFromCommittedOffset() throws Exception {
+        byte[] content = randomBytes(3 * SEGMENT_SIZE + 100);
+        UploadSessionDTO session = uploadService.createSession(request(content.length), user);
+
+        // A chunk that stops mid-segment only commits the whole segments it contained
+        UploadSessionDTO afterFirst = uploadService.appendChunk(session.id(), 0,
+                new ByteArrayInputStream(content, 0, SEGMENT_SIZE + 10), user);
+        assertEquals(SEGMENT_SIZE, afterFirst.committedSize());
+
+        // A dropped connection keeps the segments written before the failure
+        UploadSessionDTO afterDrop = uploadService.appendChunk(session.id(), SEGMENT_SIZE,
+                failingAfter(Arrays.copyOfRange(content, SEGMENT_SIZE, 3 * SEGMENT_SIZE - 1)), user);
+        assertEquals(2 * SEGMENT_SIZE, afterDrop.committedSize());
+
+        UploadSessionDTO done = uploadService.appendChunk(session.id(), 2 * SEGMENT_SIZE,
+                new ByteArrayInputStream(content, 2 * SEGMENT_SIZE, content.length - 2 * SEGMENT_SIZE), user);
+        assertEquals(content.length, done.committedSize());
+
+        // The spool is encrypted with the session's own data key
+        UploadSession stored = sessions.get(session.id());
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(spoolDir.resolve(session.id() + ".part"))) {
+            keyService.openDataKey(stored.getKeyVersion(), stored.getWrappedKey()).encryption().decrypt(in, plain);
+        }
+        assertArrayEquals(content, plain.toByteArray());
+    }
+
+    @Test
+    void shouldRejectChunkAtWrongOffset() {
+        UploadSessionDTO session = uploadService.createSession(request(2 * SEGMENT_SIZE), user);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () ->
+                uploadService.appendChunk(session.id(), SEGMENT_SIZE, new ByteArrayInputStream(new byte[10]), user));
+
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+    }
+
+    @Test
+    void shouldRejectChunkShorterThanASegment() {
+        UploadSessionDTO session = uploadService.createSession(request(2 * SEGMENT_SIZE), user);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () ->
+                uploadService.appendChunk(session.id(), 0, new ByteArrayInputStream(new byte[SEGMENT_SIZE - 1]), user));
+
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+        assertEquals(0, sessions.get(session.id()).getCommittedSize());
+    }
+
+    @Test
+    void shouldRejectChunkWhoseOffsetWasTakenWhileItWasRead() throws IOException {
+        byte[] content = randomBytes(2 * SEGMENT_SIZE);
+        UploadSessionDTO session = uploadService.createSession(request(content.length), user);
+        // Another request commits the first segment while this one is still being received
+        InputStream racing = new ByteArrayInputStream(content, 0, SEGMENT_SIZE) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                sessions.get(session.id()).setCommittedSize(SEGMENT_SIZE);
+                return super.read(b, off, len);
+            }
+        };
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () ->
+                uploadService.appendChunk(session.id(), 0, racing, user));
+
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+        try (var files = Files.list(spoolDir)) {
+            assertEquals(1, files.count(), "only the spool itself is left");
+        }
+    }
+
+    @Test
+    void shouldHideSessionsOfOtherUsers() {
+        UploadSessionDTO session = uploadService.createSession(request(10), user);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () ->
+                uploadService.getSession(session.id(), new AuthenticatedUser(2, "other@example.com", Role.USER)));
+
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+    }
+
+    private static UploadSessionRequest request(long size) {
+        UploadSessionRequest request = new UploadSessionRequest();
+        request.setFilename("report.txt");
+        request.setContentType("text/plain");
+        request.setSize(size);
+        return request;
+    }
+
+    private static InputStream failingAfter(byte[] data) {
+        return new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == data.length) {
+                    throw new IOException("connection reset");
+                }
+                return data[position++] & 0xFF;
+            }
+        };
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,223 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.storage.S3BlobStore;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class S3BlobStoreTest {
+
+    private static final int PART_SIZE = S3BlobStore.MIN_PART_SIZE;
+
+    private final StubS3Client s3 = new StubS3Client();
+    private final S3BlobStore store = new S3BlobStore(s3, "blobs", PART_SIZE);
+
+    @Test
+    void shouldPutSmallBlobsInOneRequest() throws Exception {
+        write("small.blob", "0123456789".getBytes());
+
+        assertEquals(List.of("putObject"), s3.calls);
+        assertEquals("0123456789", new String(read(store.get("small.blob"))));
+        assertEquals(10, store.size("small.blob"));
+    }
+
+    @Test
+    void shouldUploadLargeBlobsInParts() throws Exception {
+        byte[] content = new byte[2 * PART_SIZE + 100];
+        new Random(7).nextBytes(content);
+
+        write("large.blob", content);
+
+        assertEquals(List.of("createMultipartUpload", "uploadPart", "uploadPart", "uploadPart",
+                "completeMultipartUpload"), s3.calls);
+        assertEquals(List.of(PART_SIZE, PART_SIZE, 100), s3.partSizes);
+        assertArrayEquals(content, read(store.get("large.blob")));
+    }
+
+    @Test
+    void shouldAbortMultipartUploadWhenAPartFails() {
+        s3.failPart = 2;
+
+        IOException exception = assertThrows(IOException.class,
+                () -> write("broken.blob", new byte[2 * PART_SIZE + 1]));
+
+        assertEquals("Failed to write blob broken.blob", exception.getMessage());
+        assertTrue(s3.calls.contains("abortMultipartUpload"));
+        assertTrue(s3.uploads.isEmpty());
+        assertFalse(s3.objects.containsKey("broken.blob"));
+    }
+
+    @Test
+    void shouldServeRangesAndNothingPastTheEnd() throws Exception {
+        write("range.blob", "0123456789".getBytes());
+
+        assertEquals("3456", new String(read(store.getRange("range.blob", 3, 4))));
+        assertEquals("89", new String(read(store.getRange("range.blob", 8, 100))));
+        // S3 answers 416 for a range starting at or past the end of the object
+        assertEquals(0, read(store.getRange("range.blob", 10, 5)).length);
+        assertEquals(0, read(store.getRange("range.blob", 3, 0)).length);
+        assertThrows(NoSuchFileException.class, () -> store.getRange("missing.blob", 0, 1));
+    }
+
+    @Test
+    void shouldOnlyReportDeletingBlobsThatExisted() throws Exception {
+        write("doomed.blob", "x".getBytes());
+
+        assertTrue(store.exists("doomed.blob"));
+        assertTrue(store.delete("doomed.blob"));
+        assertFalse(store.exists("doomed.blob"));
+
+        s3.calls.clear();
+        assertFalse(store.delete("doomed.blob"));
+        assertEquals(List.of("headObject"), s3.calls);
+        assertThrows(NoSuchFileException.class, () -> store.get("doomed.blob"));
+    }
+
+    private void write(String key, byte[] content) throws IOException {
+        try (OutputStream out = store.put(key)) {
+            out.write(content);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Keeps objects in memory and answers the way S3 does for the calls S3BlobStore makes.
+     */
+    private static class StubS3Client implements S3Client {
+        final Map<String, byte[]> objects = new HashMap<>();
+        final Map<String, SortedMap<Integer, byte[]>> uploads = new HashMap<>();
+        final List<String> calls = new ArrayList<>();
+        final List<Integer> partSizes = new ArrayList<>();
+        int failPart;
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            calls.add("putObject");
+            objects.put(request.key(), bytes(body));
+            return PutObjectResponse.builder().build();
+        }
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            calls.add("createMultipartUpload");
+            String uploadId = UUID.randomUUID().toString();
+            uploads.put(uploadId, new TreeMap<>());
+            return CreateMultipartUploadResponse.builder().uploadId(uploadId).build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            calls.add("uploadPart");
+            if (request.partNumber() == failPart) {
+                throw S3Exception.builder().statusCode(500).message("part failed").build();
+            }
+            byte[] part = bytes(body);
+            partSizes.add(part.length);
+            upload(request.uploadId()).put(request.partNumber(), part);
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            calls.add("completeMultipartUpload");
+            SortedMap<Integer, byte[]> parts = uploads.remove(request.uploadId());
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            for (CompletedPart part : request.multipartUpload().parts()) {
+                assertEquals("etag-" + part.partNumber(), part.eTag());
+                object.writeBytes(parts.get(part.partNumber()));
+            }
+            objects.put(request.key(), object.toByteArray());
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            calls.add("abortMultipartUpload");
+            uploads.remove(request.uploadId());
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            calls.add("headObject");
+            return HeadObjectResponse.builder().contentLength((long) object(request.key()).length).build();
+        }
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            calls.add("getObject");
+            byte[] object = object(request.key());
+            int from = 0;
+            int to = object.length;
+            if (request.range() != null) {
+                String[] bounds = request.range().substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                if (from >= object.length) {
+                    throw S3Exception.builder().statusCode(416).message("InvalidRange").build();
+                }
+                to = (int) Math.min(object.length, Long.parseLong(bounds[1]) + 1);
+            }
+            return new ResponseInputStream<>(GetObjectResponse.builder().contentLength((long) (to - from)).build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(object, from, to - from)));
+        }
+
+        @Override
+        public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+            calls.add("deleteObject");
+            objects.remove(request.key());
+            return DeleteObjectResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return SERVICE_NAME;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private byte[] object(String key) {
+            byte[] object = objects.get(key);
+            if (object == null) {
+                throw NoSuchKeyException.builder().statusCode(404).message("NoSuchKey").build();
+            }
+            return object;
+        }
+
+        private SortedMap<Integer, byte[]> upload(String uploadId) {
+            SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+            if (parts == null) {
+                throw NoSuchUploadException.builder().statusCode(404).message("NoSuchUpload").build();
+            }
+            return parts;
+        }
+
+        private static byte[] bytes(RequestBody body) {
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.token.TokenPruningService;
+import com.secureshare.securefiles.token.TokenRepository;
+import com.secureshare.securefiles.token.TokenRevocationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TokenPruningServiceTest {
+
+    private final TokenRepository tokenRepository = mock(TokenRepository.class);
+    private final TokenRevocationRepository revocationRepository = mock(TokenRevocationRepository.class);
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final TokenPruningService pruningService =
+            new TokenPruningService(tokenRepository, revocationRepository, 100, registry);
+
+    @Test
+    void shouldDeleteInBatchesUntilAShortBatch() {
+        when(tokenRepository.deleteExpired(any(Instant.class), eq(100))).thenReturn(100, 100, 42);
+        when(revocationRepository.deleteExpired(any(Instant.class), eq(100))).thenReturn(7);
+        when(tokenRepository.count()).thenReturn(1_000L);
+        when(revocationRepository.count()).thenReturn(3L);
+
+        pruningService.prune();
+
+        verify(tokenRepository, times(3)).deleteExpired(any(Instant.class), eq(100));
+        verify(revocationRepository, times(1)).deleteExpired(any(Instant.class), eq(100));
+        assertEquals(242, registry.get("tokens.pruned").tag("table", "token").counter().count());
+        assertEquals(7, registry.get("tokens.pruned").tag("table", "token_revocation").counter().count());
+        assertEquals(1_000, registry.get("tokens.rows").tag("table", "token").gauge().value());
+        assertEquals(3, registry.get("tokens.rows").tag("table", "token_revocation").gauge().value());
+    }
+}
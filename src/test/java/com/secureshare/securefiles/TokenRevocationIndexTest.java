@@ -0,0 +1,101 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.config.JwtService;
+import com.secureshare.securefiles.config.JwtService.VerifiedClaims;
+import com.secureshare.securefiles.token.TokenRevocation;
+import com.secureshare.securefiles.token.TokenRevocationIndex;
+import com.secureshare.securefiles.token.TokenRevocationRepository;
+import com.secureshare.securefiles.user.UserPrincipalCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class TokenRevocationIndexTest {
+
+    private final TokenRevocationRepository repository = mock(TokenRevocationRepository.class);
+    private final JwtService jwtService = mock(JwtService.class);
+    private final UserPrincipalCache userCache = mock(UserPrincipalCache.class);
+    private TokenRevocationIndex index;
+
+    @BeforeEach
+    void setUp() {
+        when(jwtService.maxTokenLifetime()).thenReturn(Duration.ofDays(7));
+        index = new TokenRevocationIndex(repository, userCache, jwtService, Duration.ofSeconds(5));
+    }
+
+    @Test
+    void shouldRevokeSingleTokensWithoutTouchingOthers() {
+        VerifiedClaims revoked = claims("jti-1", "alice@example.com", Instant.now());
+        VerifiedClaims other = claims("jti-2", "alice@example.com", Instant.now());
+
+        index.revoke("jti-1", "alice@example.com", revoked.expiresAt());
+
+        assertTrue(index.isRevoked(revoked));
+        assertFalse(index.isRevoked(other));
+        verify(repository).save(any(TokenRevocation.class));
+    }
+
+    @Test
+    void shouldRevokeEverythingIssuedBeforeAUserWideRevocation() {
+        VerifiedClaims earlier = claims("jti-1", "alice@example.com", Instant.now().minusSeconds(60));
+        VerifiedClaims otherUser = claims("jti-2", "bob@example.com", Instant.now().minusSeconds(60));
+
+        index.revokeAll("alice@example.com");
+
+        assertTrue(index.isRevoked(earlier));
+        assertFalse(index.isRevoked(otherUser));
+        assertFalse(index.isRevoked(claims("jti-3", "alice@example.com", Instant.now().plusSeconds(2))));
+        verify(userCache).evict("alice@example.com");
+    }
+
+    @Test
+    void shouldKeepTokensCarryingTheNewEpochIssuedInTheSameSecond() {
+        Instant issuedAt = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        VerifiedClaims before = claims("jti-1", "alice@example.com", issuedAt, index.epoch("alice@example.com"));
+
+        Instant epoch = index.revokeAll("alice@example.com");
+
+        assertTrue(epoch.isAfter(Instant.EPOCH));
+        assertEquals(epoch, index.epoch("alice@example.com"));
+        assertTrue(index.isRevoked(before));
+        assertFalse(index.isRevoked(claims("jti-2", "alice@example.com", issuedAt, epoch)));
+        assertEquals(Instant.EPOCH, index.epoch("bob@example.com"));
+    }
+
+    @Test
+    void shouldRebuildFromTheDatabaseAndFollowOtherNodes() {
+        Instant expiry = Instant.now().plusSeconds(600);
+        when(repository.findByExpiresAtAfter(any())).thenReturn(List.of(
+                TokenRevocation.builder().tokenId("jti-1").revokedAt(Instant.now()).expiresAt(expiry).build()));
+        index.load();
+
+        when(repository.findByRevokedAtAfter(any())).thenReturn(List.of(
+                TokenRevocation.builder().tokenId("jti-2").revokedAt(Instant.now()).expiresAt(expiry).build()));
+        index.poll();
+
+        assertTrue(index.isRevoked(claims("jti-1", "alice@example.com", Instant.now())));
+        assertTrue(index.isRevoked(claims("jti-2", "alice@example.com", Instant.now())));
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void shouldTreatTokensWithoutAnIdAsRevoked() {
+        assertTrue(index.isRevoked(claims(null, "alice@example.com", Instant.now())));
+    }
+
+    private static VerifiedClaims claims(String id, String subject, Instant issuedAt) {
+        return claims(id, subject, issuedAt, null);
+    }
+
+    private static VerifiedClaims claims(String id, String subject, Instant issuedAt, Instant epoch) {
+        return new VerifiedClaims(id, subject, false, issuedAt, issuedAt.plusSeconds(600), null, null, epoch);
+    }
+}
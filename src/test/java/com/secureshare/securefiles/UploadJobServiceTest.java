@@ -0,0 +1,148 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.dto.UploadJobDTO;
+import com.secureshare.securefiles.file.FileEntity;
+import com.secureshare.securefiles.file.FileStorageService;
+import com.secureshare.securefiles.file.UploadJob;
+import com.secureshare.securefiles.file.UploadJobService;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.user.AuthenticatedUser;
+import com.secureshare.securefiles.user.Role;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UploadJobServiceTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final FileValidator fileValidator = mock(FileValidator.class);
+    private final AuthenticatedUser user = new AuthenticatedUser(1, "owner@example.com", Role.USER);
+    private UploadJobService jobService;
+
+    @AfterEach
+    void tearDown() {
+        jobService.shutdown();
+    }
+
+    @Test
+    void shouldValidateAndStoreInTheBackground() throws Exception {
+        jobService = jobService(2, 4);
+        when(fileStorageService.saveFile(eq("report.txt"), eq("text/plain"), eq(11L), any(), isNull(), eq(user)))
+                .thenAnswer(invocation -> {
+                    try (InputStream in = invocation.<InputStreamSource>getArgument(3).getInputStream()) {
+                        in.readAllBytes();
+                    }
+                    return FileEntity.builder().id(5L).originalFilename("report.txt").size(11L).build();
+                });
+
+        UploadJobDTO accepted = jobService.submit(upload(), null, user);
+        assertEquals(UploadJob.Status.QUEUED, accepted.status());
+
+        UploadJobDTO done = awaitFinished(accepted.id());
+        assertEquals(UploadJob.Status.COMPLETED, done.status());
+        assertEquals(100, done.progress());
+        assertEquals(5L, done.file().id());
+        try (var spools = Files.list(spoolDir)) {
+            assertEquals(0, spools.count(), "spool is removed once the job finishes");
+        }
+    }
+
+    @Test
+    void shouldReportValidationFailure() throws Exception {
+        jobService = jobService(1, 1);
+        when(fileStorageService.saveFile(anyString(), anyString(), anyLong(), any(), any(), any()))
+                .thenThrow(new FileValidator.FileValidationException("bad", "MALICIOUS_CONTENT"));
+
+        UploadJobDTO done = awaitFinished(jobService.submit(upload(), null, user).id());
+
+        assertEquals(UploadJob.Status.FAILED, done.status());
+        assertEquals("MALICIOUS_CONTENT", done.errorCode());
+    }
+
+    @Test
+    void shouldRefuseUploadsWhenQueueIsFull() throws Exception {
+        jobService = jobService(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileStorageService.saveFile(anyString(), anyString(), anyLong(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    release.await(5, TimeUnit.SECONDS);
+                    return FileEntity.builder().id(5L).build();
+                });
+
+        String running = jobService.submit(upload(), null, user).id();
+        while (jobService.getJob(running, user).status() == UploadJob.Status.QUEUED) {
+            Thread.sleep(5);
+        }
+        jobService.submit(upload(), null, user);
+
+        assertThrows(UploadJobService.QueueFullException.class, () -> jobService.submit(upload(), null, user));
+        release.countDown();
+    }
+
+    @Test
+    void shouldNotRegisterSubscribersForFinishedJobs() throws Exception {
+        jobService = jobService(1, 1);
+        when(fileStorageService.saveFile(anyString(), anyString(), anyLong(), any(), any(), any()))
+                .thenReturn(FileEntity.builder().id(5L).build());
+        String jobId = jobService.submit(upload(), null, user).id();
+        awaitFinished(jobId);
+
+        jobService.subscribe(jobId, user);
+
+        Map<?, ?> subscribers = (Map<?, ?>) ReflectionTestUtils.getField(jobService, "subscribers");
+        assertTrue(subscribers.isEmpty());
+    }
+
+    @Test
+    void shouldHideJobsOfOtherUsers() throws Exception {
+        jobService = jobService(1, 1);
+        String jobId = jobService.submit(upload(), null, user).id();
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () ->
+                jobService.getJob(jobId, new AuthenticatedUser(2, "other@example.com", Role.USER)));
+
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+    }
+
+    private UploadJobService jobService(int workers, int queueCapacity) throws Exception {
+        UploadJobService service = new UploadJobService(fileStorageService, fileValidator, new SimpleMeterRegistry(),
+                spoolDir, workers, queueCapacity, Duration.ofHours(1));
+        service.init();
+        return service;
+    }
+
+    private UploadJobDTO awaitFinished(String jobId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        UploadJobDTO job = jobService.getJob(jobId, user);
+        while (job.finishedAt() == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            job = jobService.getJob(jobId, user);
+        }
+        return job;
+    }
+
+    private static MockMultipartFile upload() {
+        return new MockMultipartFile("file", "report.txt", "text/plain", "Hello World".getBytes());
+    }
+}
@@ -0,0 +1,50 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.user.User;
+import com.secureshare.securefiles.user.UserAccount;
+import com.secureshare.securefiles.user.UserChangeListener;
+import com.secureshare.securefiles.user.UserPrincipalCache;
+import com.secureshare.securefiles.user.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserPrincipalCacheTest {
+
+    private final UserRepository repository = mock(UserRepository.class);
+    private final UserPrincipalCache cache =
+            new UserPrincipalCache(repository, 100, Duration.ofMinutes(1), new SimpleMeterRegistry());
+
+    @Test
+    void shouldLoadEachUserOnceUntilChanged() {
+        User alice = User.builder().id(1).email("alice@example.com").build();
+        when(repository.findByEmail("alice@example.com")).thenReturn(Optional.of(alice));
+
+        UserAccount cached = cache.get("alice@example.com");
+        assertEquals(UserAccount.of(alice), cached);
+        assertSame(cached, cache.get("alice@example.com"));
+        verify(repository, times(1)).findByEmail("alice@example.com");
+
+        ObjectProvider<UserPrincipalCache> provider = mock();
+        when(provider.getObject()).thenReturn(cache);
+        new UserChangeListener(provider).evict(alice);
+        cache.get("alice@example.com");
+        verify(repository, times(2)).findByEmail("alice@example.com");
+    }
+
+    @Test
+    void shouldNotCacheUnknownUsers() {
+        when(repository.findByEmail("bob@example.com")).thenReturn(Optional.empty());
+
+        assertThrows(UsernameNotFoundException.class, () -> cache.get("bob@example.com"));
+        assertThrows(UsernameNotFoundException.class, () -> cache.get("bob@example.com"));
+        verify(repository, times(2)).findByEmail("bob@example.com");
+    }
+}
@@ -0,0 +1,83 @@
+package com.secureshare.securefiles;
+
+import com.secureshare.securefiles.service.ContentInspection;
+import com.secureshare.securefiles.service.FileValidator;
+import com.secureshare.securefiles.service.MalwareHashStore;
+import com.secureshare.securefiles.service.PatternScanner;
+import com.secureshare.securefiles.service.VerdictCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerdictCacheTest {
+
+    private final VerdictCache verdicts = new VerdictCache(1000, new SimpleMeterRegistry());
+    private final FileValidator fileValidator = new FileValidator(new MalwareHashStore(""), verdicts);
+
+    @Test
+    void shouldSkipScanningContentThatPassedBefore() throws Exception {
+        String hash = inspect(fileValidator.newInspection("notes.txt"), "hello there").verify();
+        // Swapped without a reload, so only a full inspection would notice the new rule
+        ReflectionTestUtils.setField(fileValidator, "contentScanner", PatternScanner.compile(List.of("hello")));
+
+        assertEquals(hash, inspect(fileValidator.newInspection("notes.txt", hash.toUpperCase()), "hello there").verify());
+        assertEquals("MALICIOUS_CONTENT", rejection(fileValidator.newInspection("notes.txt"), "hello there"));
+    }
+
+    @Test
+    void shouldRejectContentThatFailedBeforeWithoutReadingIt() throws Exception {
+        String script = "<script>alert(1)</script>";
+        assertEquals("MALICIOUS_CONTENT", rejection(fileValidator.newInspection("page.txt"), script));
+        String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(script.getBytes()));
+
+        FileValidator.FileValidationException exception = assertThrows(FileValidator.FileValidationException.class,
+                () -> fileValidator.newInspection("page.txt", hash));
+
+        assertEquals("MALICIOUS_CONTENT", exception.getErrorCode());
+    }
+
+    @Test
+    void shouldRejectContentNotMatchingTheDeclaredHash() throws Exception {
+        String hash = inspect(fileValidator.newInspection("notes.txt"), "hello there").verify();
+
+        assertEquals("CONTENT_HASH_MISMATCH",
+                rejection(fileValidator.newInspection("notes.txt", hash), "<script>alert(1)</script>"));
+        assertEquals("CONTENT_HASH_MISMATCH",
+                rejection(fileValidator.newInspection("page.txt", hash), "something else"));
+        assertThrows(FileValidator.FileValidationException.class,
+                () -> fileValidator.newInspection("notes.txt", "not-a-digest"));
+    }
+
+    @Test
+    void shouldInspectAgainAfterRulesReload() throws Exception {
+        String hash = inspect(fileValidator.newInspection("notes.txt"), "hello there").verify();
+        ReflectionTestUtils.setField(fileValidator, "contentRules", List.of("hello"));
+        fileValidator.loadContentRules();
+
+        assertTrue(verdicts.get(hash, "txt", 0).isPresent());
+        assertEquals("MALICIOUS_CONTENT", rejection(fileValidator.newInspection("notes.txt", hash), "hello there"));
+        assertTrue(verdicts.get(hash, "txt", 0).isEmpty());
+    }
+
+    private static String rejection(ContentInspection inspection, String content) {
+        return assertThrows(FileValidator.FileValidationException.class,
+                () -> inspect(inspection, content).verify()).getErrorCode();
+    }
+
+    private static ContentInspection inspect(ContentInspection inspection, String content) throws IOException {
+        try (InputStream in = inspection.wrap(new ByteArrayInputStream(content.getBytes()))) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return inspection;
+    }
+}